@@ -1,7 +1,13 @@
 package cm;
 
 import cm.core.ClientCallback;
+import cm.core.DocumentCache;
+import cm.core.DocumentSync;
 import cm.model.ClientState;
+import cm.model.DocEntry;
+import cm.model.EditOp;
+import cm.model.OpBatch;
+import cm.model.WireCodec;
 
 import gui.adapter.GuiCallback;
 import gui.controller.ClientUIController;
@@ -14,6 +20,7 @@ import kr.ac.konkuk.ccslab.cm.event.CMUserEvent;
 import kr.ac.konkuk.ccslab.cm.info.CMInfo;
 import kr.ac.konkuk.ccslab.cm.stub.CMClientStub;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -29,8 +36,14 @@ public class CMClientApp {
 
     /* ---------- Core Fields ---------- */
     private final ClientState state = new ClientState();
+    private final DocumentSync sync = new DocumentSync();   // 현재 문서의 동시 편집 상태
+    private final DocumentCache cache = new DocumentCache(); // 다시 열 때 전송을 줄이기 위한 최근 문서 내용
     private final CMClientStub stub;
     private final CMClientEventHandler handler;
+    private volatile String pendingGroup;   // 그룹 전송 모드: 세션 가입 응답을 기다리는 동안 옮겨 갈 그룹
+
+    /* -Dcm.wire.json=true 면 바이너리 인코딩을 쓰지 않는다 (디버그: 이벤트 내용을 문자열/JSON 으로 확인) */
+    private static final boolean WIRE_JSON = Boolean.getBoolean("cm.wire.json");
 
     /* ---------- Constructor ---------- */
     public CMClientApp() {
@@ -40,15 +53,17 @@ public class CMClientApp {
                 state.setLoggedIn(ok);          // ★ 로그인 상태 저장
             }
             @Override public void onOnlineUsersUpdated(Set<String> u) {}
-            @Override public void onDocumentListReceived(String j) {}
-            @Override public void onDocumentContentReceived(String d, String c) {}
+            @Override public void onDocumentListReceived(List<DocEntry> d) {}
+            @Override public void onDocumentContentReceived(String d, String c, int v) {}
             @Override public void onDocumentClosed(String d) {}
             @Override public void onDocumentUserList(String doc, List<String> users) {}
         };
 
         /* 실제 Stub/Handler 한 번만 생성 */
         this.stub    = new CMClientStub();
-        this.handler = new CMClientEventHandler(temp);
+        this.handler = new CMClientEventHandler(temp, this::requestDocumentList, cache,
+                this::requestFullDocument, this::requestPresence, this::joinDocumentGroup, this::sessionJoined,
+                sync::rejected);
         stub.setAppEventHandler(handler);
     }
 
@@ -60,7 +75,8 @@ public class CMClientApp {
         /* ▶ 이미 받은 온라인 사용자 목록을 GUI 에 즉시 전달 */
         guiCb.onOnlineUsersUpdated(handler.getOnlineUsers());
 
-        /* ▶ 문서 목록도 다시 받아 오면 UI 초기화 완벽 */
+        /* ▶ 지원하는 인코딩을 서버에 알린 뒤 문서 목록 요청 (목록부터 해당 형식으로 받는다) */
+        sendCapabilities();
         requestDocumentList();
     }
 
@@ -79,6 +95,7 @@ public class CMClientApp {
     /* ---------- Login ---------- */
     public void loginAsync(String userId, String password) {
         state.setLoggedIn(false);
+        state.setUserName(userId);
         stub.loginCM(userId, password);     // 결과는 이벤트 → callback.onLoginResult
     }
 
@@ -88,27 +105,185 @@ public class CMClientApp {
         state.setCurrentDoc(name);
     }
 
+    /**
+     * 문서를 연다. 캐시에 있으면 그 버전을 함께 보내서, 서버가 바뀐 게 없거나 변경분만 있으면
+     * 내용 전체를 다시 받지 않는다.
+     */
     public void selectDocument(String name) {
-        sendUserEvent("SELECT_DOC", "name", name);
+        DocumentCache.Entry cached = cache.get(name);
+        CMUserEvent ev = new CMUserEvent();
+        ev.setStringID("SELECT_DOC");
+        ev.setEventField(CMInfo.CM_STR, "name", name);
+        if (cached != null) {
+            ev.setEventField(CMInfo.CM_INT, "cachedVersion", String.valueOf(cached.version()));
+            ev.setEventField(CMInfo.CM_STR, "epoch", cached.epoch());
+        }
+        sync.awaitContent(name);
+        stub.send(ev, "SERVER");
         state.setCurrentDoc(name);
     }
 
-    public void editCurrentDocument(String newContent) {
-        sendUserEvent("EDIT_DOC", "content", newContent);
+    /** 캐시를 쓰지 않고 문서 전체를 다시 받는다 (캐시가 서버 답과 맞지 않을 때). */
+    public void requestFullDocument(String name) {
+        sync.awaitContent(name);
+        sendUserEvent("SELECT_DOC", "name", name);
+    }
+
+    /**
+     * 화면에 있던 문서 내용을 캐시에 넣는다 (다른 문서로 옮기기 전, GUI 스레드에서).
+     * 아직 서버 확인을 기다리는 로컬 편집이 있으면 서버 버전과 내용이 다르므로 넣지 않는다.
+     */
+    public void cacheDocument(String name, String content) {
+        if (name.equals(sync.getDocName()) && sync.isSettled()) cache.put(name, sync.getVersion(), content);
+    }
+
+    /**
+     * 로컬 편집 연산을 등록한다. 확인 대기 중인 연산이 없을 때만 바로 전송하고,
+     * 나머지는 EDIT_ACK 를 받을 때 모아서 보낸다.
+     */
+    public void sendEditOps(List<EditOp> ops) {
+        if (ops.isEmpty()) return;
+        List<EditOp> toSend = sync.localEdit(ops);
+        if (toSend != null) sendOps(toSend);
+    }
+
+    /* ---------- 동시 편집 (GUI 스레드에서 호출) ---------- */
+    /** 문서 전체를 받은 시점의 버전으로 동기화 상태를 초기화한다 (내용을 아직 모를 때: 나눠 받기, 큰 문서). */
+    public void resetDocumentSync(String name, int version) {
+        sync.reset(name, version);
+    }
+
+    /** 나눠 받은 문서를 다 받았다 (이후 재동기화 때 로컬 편집을 옮길 기준 내용). */
+    public void documentLoaded(String name, String content) {
+        sync.loaded(name, content);
+    }
+
+    /**
+     * 문서 전체 내용을 받았다. 같은 문서에 서버가 아직 반영하지 않은 로컬 편집(pending 포함)이 있으면
+     * 새 내용 위로 옮겨 다시 보내고, 화면에 적용할 연산을 반환한다. 없으면 null (화면을 내용으로 맞춘다).
+     */
+    public List<EditOp> resyncDocument(String name, int version, String content, List<EditOp> pending) {
+        sync.hold(pending);
+        DocumentSync.Resync r = sync.resync(name, version, content);
+        if (r == null) return null;
+        if (r.resend() != null) sendOps(r.resend());
+        return r.screenOps();
+    }
+
+    /**
+     * 서버의 DOC_OPS 묶음을 순서대로 처리한다.
+     * 내 항목은 확인으로 처리하고(모아 둔 연산이 있으면 이어서 전송),
+     * 다른 사용자 항목은 로컬 미확인 연산에 맞게 변환한다.
+     *
+     * @return 로컬 문서에 차례로 적용할 연산
+     */
+    public List<EditOp> receiveOpBatch(OpBatch batch) {
+        if (!batch.getDocName().equals(sync.getDocName())) return List.of();
+        List<EditOp> toApply = new ArrayList<>();
+        int version = batch.getBaseVersion();
+        for (OpBatch.Entry entry : batch.getEntries()) {
+            version++;
+            if (version <= sync.getVersion()) continue;   // 문서 내용을 받을 때 이미 포함된 버전
+            if (entry.author().equals(state.getUserName())) {
+                List<EditOp> next = sync.ack(version);
+                if (next != null) sendOps(next);
+            } else {
+                toApply.addAll(sync.remote(entry.ops(), version));
+            }
+        }
+        return toApply;
+    }
+
+    private void sendOps(List<EditOp> ops) {
+        CMUserEvent ev = new CMUserEvent();
+        ev.setStringID("EDIT_OP");
+        ev.setEventField(CMInfo.CM_STR, "name", sync.getDocName());
+        if (WIRE_JSON) {
+            ev.setEventField(CMInfo.CM_STR, "ops", EditOp.encode(ops));
+        } else {
+            byte[] bin = WireCodec.encodeOps(ops);
+            ev.setEventBytesField("ops_bin", bin.length, bin);
+        }
+        ev.setEventField(CMInfo.CM_INT, "baseVersion", String.valueOf(sync.getVersion()));
+        stub.send(ev, "SERVER");
+    }
+
+    /** 큰 문서(DOC_LARGE)의 [line, line + count) 줄을 요청한다. 응답은 DOC_RANGE. */
+    public void requestDocumentRange(String name, int line, int count) {
+        CMUserEvent ev = new CMUserEvent();
+        ev.setStringID("DOC_RANGE");
+        ev.setEventField(CMInfo.CM_STR, "name", name);
+        ev.setEventField(CMInfo.CM_INT, "line", String.valueOf(line));
+        ev.setEventField(CMInfo.CM_INT, "count", String.valueOf(count));
+        stub.send(ev, "SERVER");
     }
 
     public void saveCurrentDocument() {
-        sendUserEvent("SAVE_DOC", null, null);
+        sendUserEvent("SAVE_DOC", "name", state.getCurrentDoc());
+    }
+
+    /** 문서의 리비전 목록을 요청한다. 응답은 REVISIONS. */
+    public void requestRevisions(String name) {
+        sendUserEvent("REVISIONS", "name", name);
+    }
+
+    /** 지난 리비전의 내용을 요청한다. 응답은 REVISION_CONTENT. */
+    public void requestRevision(String name, int revision) {
+        CMUserEvent ev = new CMUserEvent();
+        ev.setStringID("GET_REVISION");
+        ev.setEventField(CMInfo.CM_STR, "name", name);
+        ev.setEventField(CMInfo.CM_INT, "revision", String.valueOf(revision));
+        stub.send(ev, "SERVER");
     }
 
     public void deleteDocument(String name) {
         sendUserEvent("DELETE_DOC", "name", name);
     }
 
+    /** 문서 참여자 변경분이 빠졌을 때: 전체 참여자 목록을 다시 받는다. */
+    public void requestPresence(String docName) {
+        sendUserEvent("PRESENCE_SYNC", "doc", docName);
+    }
+
+    /**
+     * 그룹 전송 모드: 서버가 안내한 세션·그룹으로 옮기고 알린다.
+     * 아직 그 세션에 없으면 joinSession 을 먼저 하고, 가입 응답(JOIN_SESSION_ACK)이 온 뒤 {@link #sessionJoined} 에서 옮긴다.
+     * 서버는 참여자 모두가 그 그룹에 있는 문서의 편집·참여자 변경을 그룹 cast 로 보낸다.
+     */
+    public void joinDocumentGroup(String session, String group) {
+        if (!session.equals(stub.getMyself().getCurrentSession())) {
+            pendingGroup = group;
+            if (!stub.joinSession(session)) System.err.println("세션 " + session + " 가입 요청 실패");
+            return;
+        }
+        enterGroup(group);
+    }
+
+    /* 세션 가입 응답: 기다리던 그룹으로 옮긴다 */
+    private void sessionJoined() {
+        String group = pendingGroup;
+        pendingGroup = null;
+        if (group != null) enterGroup(group);
+    }
+
+    /* 그룹을 옮긴 뒤에만 GROUP_JOINED 를 보낸다 (실패하면 알리지 않으므로 서버가 사용자별 전송을 유지) */
+    private void enterGroup(String group) {
+        if (!group.equals(stub.getMyself().getCurrentGroup()) && !stub.changeGroup(group)) {
+            System.err.println("그룹 " + group + " 으로 옮기지 못함");
+            return;
+        }
+        sendUserEvent("GROUP_JOINED", "group", group);
+    }
+
     public void requestDocumentList() {
         sendUserEvent("LIST_DOCS", null, null);
     }
 
+    /** 로그인 후 한 번: 이 클라이언트가 받을 수 있는 형식을 서버에 알린다. */
+    private void sendCapabilities() {
+        sendUserEvent("CLIENT_CAPS", "caps", WIRE_JSON ? "chunk,range" : "bin,deflate,chunk,range");
+    }
+
     /* ---------- Helper ---------- */
     private void sendUserEvent(String id, String key, String value) {
         CMUserEvent ev = new CMUserEvent();
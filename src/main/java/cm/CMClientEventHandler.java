@@ -1,19 +1,35 @@
 package cm;
 
 import cm.core.ClientCallback;
+import cm.core.DocumentCache;
+import cm.model.DocEntry;
+import cm.model.EditOp;
+import cm.model.OpBatch;
+import cm.model.PayloadCompression;
+import cm.model.RevisionEntry;
+import cm.model.WireCodec;
 import kr.ac.konkuk.ccslab.cm.event.CMEvent;
 import kr.ac.konkuk.ccslab.cm.event.CMUserEvent;
 import kr.ac.konkuk.ccslab.cm.event.handler.CMAppEventHandler;
 import kr.ac.konkuk.ccslab.cm.info.CMInfo;
 import kr.ac.konkuk.ccslab.cm.event.CMSessionEvent;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 
 /**
  * CM 이벤트를 수신해 ClientCallback 으로 전달하는 어댑터.
  * Swing 등 GUI 코드와 전혀 연결되지 않는다.
+ *
+ * 서버는 CLIENT_CAPS 로 "bin" 을 알린 클라이언트에게 목록·연산을 바이너리(*_bin, CM_BYTES)로,
+ * 그 밖에는 문자열/JSON 으로 보낸다. 여기서 두 형식을 모두 같은 형태로 풀어 콜백에 넘긴다.
+ * "deflate" 를 알린 클라이언트에게 온 큰 본문(문서 내용, 문서 목록)은 압축을 먼저 푼다.
  */
 public class CMClientEventHandler implements CMAppEventHandler {
     private volatile ClientCallback callback;
@@ -21,8 +37,44 @@ public class CMClientEventHandler implements CMAppEventHandler {
     /* 온라인 사용자 캐싱 */
     private final Set<String> pendingOnline = new HashSet<>();
 
-    public CMClientEventHandler(ClientCallback cb) {
+    /* 반영한 문서 목록 버전 (-1: 전체 목록을 아직 못 받았거나 다시 요청 중) */
+    private int listVersion = -1;
+    private final Runnable listResync;   // 전체 문서 목록 재요청
+
+    /* 나눠 받는 중인 문서 (DOC_BEGIN ~ DOC_END), 다음 조각 번호, 그 사이 도착한 연산 묶음 */
+    private String loadingDoc;
+    private int nextChunk;
+    private final List<OpBatch> heldOps = new ArrayList<>();
+
+    /* 최근 문서 내용 캐시 (DOC_NOT_MODIFIED / DOC_DELTA 에 쓰임), 캐시가 맞지 않을 때 전체 재요청 */
+    private final DocumentCache cache;
+    private final Consumer<String> docResync;
+
+    /* 현재 문서의 참여자와 그 presence 버전, 어긋났을 때 전체 목록 재요청 */
+    private String presenceDoc;
+    private int presenceVersion;
+    private final Set<String> presenceMembers = new LinkedHashSet<>();
+    private final Consumer<String> presenceSync;
+
+    /* 그룹 전송 모드: 서버가 안내한 CM 세션·그룹으로 옮긴다 (세션 가입 응답이 오면 이어서 그룹으로) */
+    private final BiConsumer<String, String> groupJoin;
+    private final Runnable sessionJoined;
+
+    /* 서버가 보낸 편집을 적용하지 못하고 전체 내용을 다시 보냄 (그 편집은 내용에 들어 있지 않음) */
+    private final Consumer<String> editRejected;
+
+    public CMClientEventHandler(ClientCallback cb, Runnable listResync, DocumentCache cache,
+                                Consumer<String> docResync, Consumer<String> presenceSync,
+                                BiConsumer<String, String> groupJoin, Runnable sessionJoined,
+                                Consumer<String> editRejected) {
         this.callback = Objects.requireNonNull(cb);
+        this.listResync = Objects.requireNonNull(listResync);
+        this.cache = Objects.requireNonNull(cache);
+        this.docResync = Objects.requireNonNull(docResync);
+        this.presenceSync = Objects.requireNonNull(presenceSync);
+        this.groupJoin = Objects.requireNonNull(groupJoin);
+        this.sessionJoined = Objects.requireNonNull(sessionJoined);
+        this.editRejected = Objects.requireNonNull(editRejected);
     }
 
     /* 콜백 교체용 setter */
@@ -65,6 +117,11 @@ public class CMClientEventHandler implements CMAppEventHandler {
                 pendingOnline.remove(user);
                 callback.onOnlineUsersUpdated(Set.copyOf(pendingOnline));
             }
+            /* 그룹 전송 모드: joinSession 응답 (그룹이 없으면 가입 실패 → 서버는 계속 사용자별로 보낸다) */
+            case CMSessionEvent.JOIN_SESSION_ACK -> {
+                if (se.getGroupNum() > 0) sessionJoined.run();
+                else System.err.println("세션 가입 실패 → 그룹으로 옮기지 않음");
+            }
         }
     }
 
@@ -81,43 +138,287 @@ public class CMClientEventHandler implements CMAppEventHandler {
 
             /* 온라인 리스트 일괄 전송 */
             case "ONLINE_LIST" -> {
-                String s = ue.getEventField(CMInfo.CM_STR, "users");
                 pendingOnline.clear();
-                if (s != null && !s.isBlank())
-                    pendingOnline.addAll(Arrays.asList(s.split(",")));
+                pendingOnline.addAll(userList(ue));
                 callback.onOnlineUsersUpdated(Set.copyOf(pendingOnline));
             }
 
             /* 문서 목록 */
             case "LIST_REPLY" -> {
-                String json = ue.getEventField(CMInfo.CM_STR, "docs_json");
-                callback.onDocumentListReceived(json == null ? "" : json);
+                List<DocEntry> docs = new ArrayList<>();
+                try {
+                    byte[] bin = ue.getEventBytesField("docs_bin");
+                    if (bin != null) {
+                        docs = WireCodec.readDocList(inflate(ue, bin));
+                    } else {
+                        String json = ue.getEventField(CMInfo.CM_STR, "docs_json");
+                        JSONArray arr = new JSONArray(json == null || json.isBlank() ? "[]" : json);
+                        for (int i = 0; i < arr.length(); i++) docs.add(docFromJson(arr.getJSONObject(i)));
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                listVersion = parseInt(ue, "version");
+                callback.onDocumentListReceived(docs);
+            }
+
+            /* 문서 목록 변경분: 버전이 이어질 때만 반영, 빠진 게 있으면 전체 목록 재요청 */
+            case "DOC_LIST_DELTA" -> {
+                int version = parseInt(ue, "version");
+                if (listVersion < 0 || version <= listVersion) return;   // 전체 목록 대기 중 / 이미 반영됨
+                if (version != listVersion + 1) {
+                    listVersion = -1;
+                    listResync.run();
+                    return;
+                }
+                DocEntry doc = null;
+                try {
+                    byte[] bin = ue.getEventBytesField("doc_bin");
+                    String json = ue.getEventField(CMInfo.CM_STR, "doc_json");
+                    if (bin != null) doc = WireCodec.readDoc(new WireCodec.Reader(bin));
+                    else if (json != null) doc = docFromJson(new JSONObject(json));
+                } catch (RuntimeException e) {
+                    // 항목을 읽지 못했으면 빠진 변경분과 같게 취급
+                    e.printStackTrace();
+                    listVersion = -1;
+                    listResync.run();
+                    return;
+                }
+                listVersion = version;
+                callback.onDocumentListDelta(ue.getEventField(CMInfo.CM_STR, "op"),
+                        ue.getEventField(CMInfo.CM_STR, "name"), doc);
             }
 
             /* 문서 내용 */
             case "DOC_CONTENT" -> {
                 String name = ue.getEventField(CMInfo.CM_STR, "name");
                 String content = ue.getEventField(CMInfo.CM_STR, "content");
-                callback.onDocumentContentReceived(name, content);
+                byte[] bin = ue.getEventBytesField("content_bin");
+                if (bin != null) content = new String(inflate(ue, bin), StandardCharsets.UTF_8);
+                stopLoading();
+                if (parseInt(ue, "rejected") == 1) editRejected.accept(name);
+                cache.seen(name, ue.getEventField(CMInfo.CM_STR, "epoch"));
+                callback.onDocumentContentReceived(name, content, parseInt(ue, "version"));
+            }
+
+            /* 다시 연 문서: 캐시한 버전 그대로 (내용 전송 없음) */
+            case "DOC_NOT_MODIFIED" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                int version = parseInt(ue, "version");
+                DocumentCache.Entry cached = cache.get(name);
+                if (cached == null || cached.version() != version
+                        || !cached.epoch().equals(ue.getEventField(CMInfo.CM_STR, "epoch"))) {
+                    docResync.accept(name);
+                    return;
+                }
+                stopLoading();
+                callback.onDocumentContentReceived(name, cached.content(), version);
+            }
+
+            /* 다시 연 문서: 캐시한 버전 이후의 연산만 받아 캐시 내용에 적용 */
+            case "DOC_DELTA" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                int version = parseInt(ue, "version");
+                String epoch = ue.getEventField(CMInfo.CM_STR, "epoch");
+                DocumentCache.Entry cached = cache.get(name);
+                String content = null;
+                if (cached != null && cached.version() == parseInt(ue, "baseVersion") && cached.epoch().equals(epoch)) {
+                    byte[] bin = ue.getEventBytesField("ops_bin");
+                    try {
+                        content = applyOps(cached.content(),
+                                bin != null ? WireCodec.decodeOps(bin) : EditOp.decode(ue.getEventField(CMInfo.CM_STR, "ops")));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("문서 [" + name + "] 변경분 적용 실패: " + e.getMessage());
+                    }
+                }
+                if (content == null) {
+                    docResync.accept(name);
+                    return;
+                }
+                stopLoading();
+                cache.put(name, version, content);
+                callback.onDocumentContentReceived(name, content, version);
+            }
+
+            /* 아주 큰 문서: 보이는 줄만 요청해서 받는다 */
+            case "DOC_LARGE" -> {
+                stopLoading();
+                callback.onLargeDocument(ue.getEventField(CMInfo.CM_STR, "name"), parseInt(ue, "version"),
+                        parseInt(ue, "length"), parseInt(ue, "lines"));
+            }
+            case "DOC_RANGE" -> {
+                String text = ue.getEventField(CMInfo.CM_STR, "text");
+                byte[] bin = ue.getEventBytesField("text_bin");
+                if (bin != null) text = new String(inflate(ue, bin), StandardCharsets.UTF_8);
+                callback.onDocumentRange(ue.getEventField(CMInfo.CM_STR, "name"), parseInt(ue, "version"),
+                        parseInt(ue, "line"), parseInt(ue, "lines"), text == null ? "" : text);
+            }
+
+            /* 큰 문서 나눠 받기 */
+            case "DOC_BEGIN" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                stopLoading();
+                cache.seen(name, ue.getEventField(CMInfo.CM_STR, "epoch"));
+                loadingDoc = name;
+                nextChunk = 0;
+                callback.onDocumentBegin(name, parseInt(ue, "version"), parseInt(ue, "length"));
+            }
+            case "DOC_CHUNK" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                if (!name.equals(loadingDoc)) return;            // 이미 다른 문서로 넘어감
+                int seq = parseInt(ue, "seq");
+                if (seq != nextChunk) {
+                    System.err.println("문서 [" + name + "] 조각 순서 오류: " + seq + " (기대 " + nextChunk + ")");
+                }
+                nextChunk = seq + 1;
+                String text = ue.getEventField(CMInfo.CM_STR, "text");
+                byte[] bin = ue.getEventBytesField("text_bin");
+                if (bin != null) text = new String(inflate(ue, bin), StandardCharsets.UTF_8);
+                callback.onDocumentChunk(name, text == null ? "" : text);
+            }
+            case "DOC_END" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                if (!name.equals(loadingDoc)) return;
+                loadingDoc = null;
+                callback.onDocumentEnd(name);
+                // 받는 동안 미뤄 둔 편집 연산을 이제 반영
+                List<OpBatch> held = new ArrayList<>(heldOps);
+                heldOps.clear();
+                for (OpBatch batch : held) callback.onDocumentOpsReceived(batch);
             }
 
-            /* 문서별 사용자 리스트 */
-            case "USER_LIST" -> {
+            /* 서버에 반영된 편집 연산 묶음 */
+            case "DOC_OPS" -> {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                byte[] bin = ue.getEventBytesField("entries_bin");
+                List<OpBatch.Entry> entries = bin != null
+                        ? WireCodec.decodeEntries(bin)
+                        : OpBatch.decodeEntries(ue.getEventField(CMInfo.CM_STR, "entries"));
+                OpBatch batch = new OpBatch(name, parseInt(ue, "baseVersion"), entries);
+                if (name.equals(loadingDoc)) heldOps.add(batch);   // 문서를 다 받은 뒤에 반영
+                else callback.onDocumentOpsReceived(batch);
+            }
+
+            /* 문서 참여자: 들어갈 때 전체 목록(snapshot), 이후에는 입장/퇴장 변경분(delta) */
+            case "DOC_PRESENCE" -> {
                 String doc = ue.getEventField(CMInfo.CM_STR, "doc");
-                String list = ue.getEventField(CMInfo.CM_STR, "users");
-                List<String> users = list == null || list.isBlank()
-                        ? List.of()
-                        : Arrays.stream(list.split(",")).collect(Collectors.toList());
-                callback.onDocumentUserList(doc, users);
+                int version = parseInt(ue, "version");
+                if ("snapshot".equals(ue.getEventField(CMInfo.CM_STR, "mode"))) {
+                    presenceDoc = doc;
+                    presenceVersion = version;
+                    presenceMembers.clear();
+                    presenceMembers.addAll(userList(ue));
+                } else {
+                    if (!doc.equals(presenceDoc) || version <= presenceVersion) return;   // 지난 문서 / 이미 반영
+                    if (version != presenceVersion + 1) {
+                        presenceSync.accept(doc);                                       // 빠진 변경분 → 전체 목록 재요청
+                        return;
+                    }
+                    presenceVersion = version;
+                    presenceMembers.removeAll(users(ue, "left"));
+                    presenceMembers.addAll(users(ue, "joined"));
+                }
+                callback.onDocumentUserList(doc, new ArrayList<>(presenceMembers));
+            }
+
+            /* 그룹 전송 모드: 연 문서의 이벤트를 받을 세션·그룹 (같은 그룹의 다른 문서 이벤트는 이름으로 걸러짐) */
+            case "DOC_GROUP" -> {
+                String session = ue.getEventField(CMInfo.CM_STR, "session");
+                String group = ue.getEventField(CMInfo.CM_STR, "group");
+                if (session != null && group != null) groupJoin.accept(session, group);
+            }
+
+            /* 리비전 이력 */
+            case "REVISIONS" -> {
+                List<RevisionEntry> revisions = new ArrayList<>();
+                try {
+                    String json = ue.getEventField(CMInfo.CM_STR, "revisions");
+                    JSONArray arr = new JSONArray(json == null || json.isBlank() ? "[]" : json);
+                    for (int i = 0; i < arr.length(); i++) {
+                        JSONObject o = arr.getJSONObject(i);
+                        revisions.add(new RevisionEntry(o.getInt("revision"), o.getInt("version"),
+                                o.optString("time", "unknown"), o.optString("author", "")));
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                callback.onRevisionList(ue.getEventField(CMInfo.CM_STR, "name"), revisions);
+            }
+            case "REVISION_CONTENT" -> {
+                String content = ue.getEventField(CMInfo.CM_STR, "content");
+                byte[] bin = ue.getEventBytesField("content_bin");
+                if (bin != null) content = new String(inflate(ue, bin), StandardCharsets.UTF_8);
+                callback.onRevisionReceived(ue.getEventField(CMInfo.CM_STR, "name"), parseInt(ue, "revision"),
+                        parseInt(ue, "version"), content);
             }
 
             /* 문서가 서버에서 삭제됨 */
             case "DOC_CLOSED" -> {
                 String name = ue.getEventField(CMInfo.CM_STR, "name");
+                cache.remove(name);
                 callback.onDocumentClosed(name);
             }
 
             default -> { /* 알 수 없는 이벤트 무시 */ }
         }
     }
+
+    /* 캐시한 내용에 서버의 변경분을 차례로 적용 */
+    private static String applyOps(String content, List<EditOp> ops) {
+        StringBuilder sb = new StringBuilder(content);
+        for (EditOp op : ops) {
+            int end = op.getOffset() + (op.isInsert() ? 0 : op.getLength());
+            if (end > sb.length()) throw new IllegalArgumentException("op out of range: " + op);
+            if (op.isInsert()) sb.insert(op.getOffset(), op.getText());
+            else sb.delete(op.getOffset(), end);
+        }
+        return sb.toString();
+    }
+
+    /* 나눠 받던 문서를 버린다 (다른 문서를 열기 시작함) */
+    private void stopLoading() {
+        loadingDoc = null;
+        heldOps.clear();
+    }
+
+    /* 사용자 목록: users_bin(바이너리) 또는 users(쉼표 구분) */
+    private static List<String> userList(CMUserEvent ue) {
+        return users(ue, "users");
+    }
+
+    /* 사용자 목록 필드: field_bin(바이너리) 또는 field(쉼표 구분) */
+    private static List<String> users(CMUserEvent ue, String field) {
+        byte[] bin = ue.getEventBytesField(field + "_bin");
+        if (bin != null) return WireCodec.decodeUsers(bin);
+        String list = ue.getEventField(CMInfo.CM_STR, field);
+        return list == null || list.isBlank()
+                ? List.of()
+                : Arrays.stream(list.split(",")).collect(Collectors.toList());
+    }
+
+    /* JSON 목록 항목 (문자열 모드) */
+    private static DocEntry docFromJson(JSONObject o) {
+        String users = o.optString("activeUsers", "");
+        return new DocEntry(
+                o.getString("name"),
+                o.getString("creatorId"),
+                o.getString("lastEditorId"),
+                o.getString("createdTime"),
+                o.getString("lastModifiedTime"),
+                users.isBlank() ? List.of() : List.of(users.split(",")));
+    }
+
+    /* "deflate"=1 이면 압축을 푼다 (원래 크기는 rawLen) */
+    private static byte[] inflate(CMUserEvent ue, byte[] bin) {
+        if (parseInt(ue, "deflate") != 1) return bin;
+        return PayloadCompression.decompress(bin, parseInt(ue, "rawLen"));
+    }
+
+    /* 정수 필드가 없으면(구버전 서버) 0 */
+    private static int parseInt(CMUserEvent ue, String field) {
+        String v = ue.getEventField(CMInfo.CM_INT, field);
+        return v == null || v.isBlank() ? 0 : Integer.parseInt(v.trim());
+    }
 }
@@ -1,30 +1,87 @@
 package cm;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import cm.server.ShardRing;
+import cm.server.ShardServer;
 import kr.ac.konkuk.ccslab.cm.stub.CMServerStub;
 
+/**
+ * 서버 실행.
+ *
+ * 분산 모드(여러 프로세스가 문서를 나눠 담당): 모든 프로세스에 같은 -Dcm.shard.nodes 를 주고
+ * -Dcm.shard.id 로 번호를 정한다. 0 번(front)만 CM 서버로 클라이언트를 받고,
+ * 나머지는 자기 번호의 주소(host:port, 그 host 에만 bind)에서 front 의 연결을 기다린다.
+ * 프로세스마다 문서 폴더(-Dcm.doc.folder)를 따로 쓰고, 링크 인증용 공유 비밀(-Dcm.peer.secret)은 모두 같게 준다.
+ * 예 (한 컴퓨터에서 세 프로세스):
+ * <pre>
+ *   java -Dcm.shard.nodes=127.0.0.1:7100,127.0.0.1:7101,127.0.0.1:7102 -Dcm.shard.id=1 -Dcm.peer.secret=... -Dcm.doc.folder=shard1 cm.CMServerApp
+ *   java -Dcm.shard.nodes=127.0.0.1:7100,127.0.0.1:7101,127.0.0.1:7102 -Dcm.shard.id=2 -Dcm.peer.secret=... -Dcm.doc.folder=shard2 cm.CMServerApp
+ *   java -Dcm.shard.nodes=127.0.0.1:7100,127.0.0.1:7101,127.0.0.1:7102 -Dcm.shard.id=0 -Dcm.peer.secret=... cm.CMServerApp
+ * </pre>
+ *
+ * 복제: 주 서버에 -Dcm.replica.standby=host:port 를 주면 문서 변경을 그 주소의 대기 서버로 계속 보낸다.
+ * 대기 서버는 -Dcm.replica.listen=port 로 시작하며 (문서 폴더는 따로), 주 서버가 멈추면 CM 서버를 띄워 이어받는다.
+ * 대기 서버는 -Dcm.replica.listenHost (기본 127.0.0.1) 에만 bind 하고, 양쪽에 같은 -Dcm.peer.secret 을 준다.
+ */
 public class CMServerApp {
     private CMServerStub m_serverStub;              // 서버와 클라이언트 간 통신을 담당하는 CM 서버 스텁
     private CMServerEventHandler m_eventHandler;    // 서버 이벤트를 처리하는 이벤트 핸들러
 
     public CMServerApp() {
+        this(null);
+    }
+
+    public CMServerApp(ShardRing ring) {
         // CM 서버 스텁 생성 (서버 설정 파일(cm-server.conf)을 기반으로 동작)
         m_serverStub = new CMServerStub();
-        // 서버 이벤트 핸들러 생성 (클라이언트로부터 도착하는 이벤트를 처리)
-        m_eventHandler = new CMServerEventHandler(m_serverStub);
+        // 서버 이벤트 핸들러 생성 (클라이언트로부터 도착하는 이벤트를 처리), 분산 모드면 front
+        m_eventHandler = new CMServerEventHandler(m_serverStub, ring, 0);
         // 생성한 이벤트 핸들러를 CM 서버 스텁에 등록하여 이벤트가 전달되도록 함
         m_serverStub.setAppEventHandler(m_eventHandler);
+        // 종료 시 편집 중이던 문서를 디스크에 반영
+        Runtime.getRuntime().addShutdownHook(new Thread(m_eventHandler::shutdown, "server-shutdown"));
     }
 
     public void startServer() {
         // CM 서버를 기동 (기본 cm-server.conf 설정 사용)
         m_serverStub.startCM();
+        try {
+            m_eventHandler.checkGroups();   // 그룹 전송 모드: SESSION_SCHEME·세션·그룹 확인
+        } catch (IllegalStateException e) {
+            m_serverStub.terminateCM();
+            throw e;
+        }
         System.out.println("CM 서버가 실행되었습니다.");
     }
 
+    /* front 가 아닌 shard: CM 없이 front 의 링크만 받는다 */
+    private static void startShard(ShardRing ring, int shardId) throws IOException {
+        ShardServer server = new ShardServer(ring.address(shardId));
+        CMServerEventHandler handler = new CMServerEventHandler(server.stub(), ring, shardId);
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::shutdown, "server-shutdown"));
+        server.start(handler);
+        System.out.println("shard " + shardId + "/" + ring.size() + " 가 실행되었습니다.");
+    }
+
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        ShardRing ring = ShardRing.fromSystemProperties();
+        int shardId = ShardRing.selfId();
+        if (ring != null && shardId != 0) {
+            startShard(ring, shardId);
+            return;
+        }
         // 서버 애플리케이션 객체 생성 및 서버 시작
-        CMServerApp serverApp = new CMServerApp();
+        CMServerApp serverApp = new CMServerApp(ring);
+        Integer standbyPort = Integer.getInteger("cm.replica.listen");
+        if (standbyPort != null) {
+            // 대기 서버: 주 서버가 멈출 때까지 복제만 받고, 이어받을 때 CM 서버를 띄운다
+            InetSocketAddress listen = new InetSocketAddress(System.getProperty("cm.replica.listenHost", "127.0.0.1"), standbyPort);
+            serverApp.m_eventHandler.startStandby(listen, serverApp::startServer);
+            return;
+        }
         serverApp.startServer();
     }
 }
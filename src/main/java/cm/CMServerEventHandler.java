@@ -1,17 +1,46 @@
 package cm;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import cm.model.EditOp;
+import cm.model.OpBatch;
+import cm.model.PayloadCompression;
+import cm.model.WireCodec;
+import cm.server.BroadcastScheduler;
+import cm.server.DocMeta;
+import cm.server.DocumentCatalog;
+import cm.server.DocumentFlusher;
+import cm.server.DocumentPersistence;
+import cm.server.DocumentResidency;
+import cm.server.DocumentBuffer;
+import cm.server.DocumentGroups;
+import cm.server.DocumentStore;
+import cm.server.EventLanes;
+import cm.server.PresenceBroadcaster;
+import cm.server.ReplicaReceiver;
+import cm.server.ReplicationLog;
+import cm.server.RelayEvent;
+import cm.server.RevisionStore;
+import cm.server.Rope;
+import cm.server.ServerState;
+import cm.server.ShardLink;
+import cm.server.ShardRing;
+import cm.server.ShardServer;
 
 import kr.ac.konkuk.ccslab.cm.event.CMEvent;
+import kr.ac.konkuk.ccslab.cm.event.CMInterestEvent;
 import kr.ac.konkuk.ccslab.cm.event.CMUserEvent;
+import kr.ac.konkuk.ccslab.cm.entity.CMSession;
 import kr.ac.konkuk.ccslab.cm.event.handler.CMAppEventHandler;
 import kr.ac.konkuk.ccslab.cm.info.CMInfo;
 import kr.ac.konkuk.ccslab.cm.stub.CMServerStub;
@@ -22,140 +51,391 @@ import org.json.JSONObject;
 import java.util.Date;
 
 
-public class CMServerEventHandler implements CMAppEventHandler {
+/**
+ * 서버 이벤트 처리.
+ *
+ * 보내는 이벤트는 모두 {@link RelayEvent} 로 만든다. 분산 모드(-Dcm.shard.nodes)에서
+ * front 가 아닌 shard 는 그 이벤트를 front 로 넘겨 클라이언트에게 전달해야 하기 때문이다.
+ */
+public class CMServerEventHandler implements CMAppEventHandler, ShardLink.Listener, ShardServer.Handler {
     private CMServerStub m_serverStub;                       // 서버 스텁 객체 (클라이언트와 통신)
-    private Map<String, String> documents;                   // in-memory에서 문서 내용 관리 (문서명 -> 문서 내용)
-    private Map<String, Set<String>> docUsers;
+    private DocumentStore documents;                         // in-memory에서 문서 내용·버전 관리 (문서명 -> 버퍼)
+    private final BroadcastScheduler broadcaster;            // 편집 연산을 tick 단위로 모아 참여자에게 전송
+    private final PresenceBroadcaster presence;              // 문서 참여자 입장·퇴장을 모아 변경분으로 전송
+    private final EventLanes lanes;                          // 문서별 직렬 lane + 전역 lane
+    // 접속자, 문서별 참여자, 사용자별 현재 문서, 메타데이터 (lane 간 공유, 스냅샷 읽기)
+    private final ServerState state = new ServerState();
+    private final DocumentPersistence persistence;           // 문서 파일 + 편집 저널
+    private final DocumentCatalog catalog;                   // 전체 문서 목록 + 메타데이터 (디스크 스캔 없이 조회)
+    private final DocumentFlusher flusher;                   // dirty 문서를 백그라운드에서 디스크에 반영
+    private final DocumentResidency residency;               // 메모리 예산: 참여자 없는 깨끗한 문서를 LRU 로 내림
+    private final RevisionStore revisions;                   // SAVE_DOC 마다 남기는 리비전 이력 (FULL + 변경분)
+
+    // 분산 모드: 문서 이름 → 담당 shard. 단일 서버면 ring 이 null
+    private final ShardRing ring;
+    private final int shardId;                                // 이 프로세스의 shard 번호 (0 이 front)
+    private final ShardLink[] links;                          // front 에서 다른 shard 로 가는 링크 (자기 자신 자리는 null)
+
+    // 복제(-Dcm.replica.standby): 문서 변경을 대기 서버로 보낸다. 설정이 없으면 null
+    private final ReplicationLog replication;
+
+    // 그룹 전송 모드(-Dcm.fanout=group): 문서 → CM 그룹, 참여자 전송은 cast 한 번. 사용자별 전송이면 null
+    private final DocumentGroups groups;
+
+    private final Object catalogLock = new Object();          // 문서 목록 버전·변경 알림 순서 보장
+    private CMUserEvent cachedListReply;                      // 마지막으로 직렬화한 전체 목록 (guarded by catalogLock)
+    private byte[] cachedListBin;                             // 같은 목록의 바이너리 인코딩
+    private CMUserEvent cachedListReplyBin;                   // 바이너리 목록 이벤트
+    private CMUserEvent cachedListReplyZ;                     // 바이너리 + deflate 목록 이벤트
+    private int cachedListVersion = -1;                       // 그 목록의 버전
 
-    private static class MetaInfo {
-        String creatorId;
-        String lastEditorId;
-        long createdTime;
-        long lastModifiedTime;
-    }
-
-    private Map<String, MetaInfo> docMeta = new HashMap<>();
+    // 문서 파일들이 저장되는 폴더 경로 (상대 경로)
+    private final String DOC_FOLDER = System.getProperty("cm.doc.folder", "documents");
+
+    // 클라이언트 지원 기능 (CLIENT_CAPS), 디버그용 문자열/JSON 강제 모드
+    private static final String CAP_BINARY = "bin";
+    private static final String CAP_DEFLATE = "deflate";
+    private static final String CAP_CHUNK = "chunk";
+    private static final String CAP_RANGE = "range";
+
+    // 이보다 긴 문서는 DOC_BEGIN/DOC_CHUNK/DOC_END 로 나눠 보낸다 (조각 하나의 최대 글자 수)
+    private static final int CHUNK_CHARS = Math.max(1024, Integer.getInteger("cm.doc.chunkChars", 32 * 1024));
+    // 이보다 긴 문서는 전체를 보내지 않고 클라이언트가 보이는 줄만 DOC_RANGE 로 요청한다
+    private static final int VIEWPORT_CHARS = Integer.getInteger("cm.doc.viewportChars", 4 * 1024 * 1024);
+    private static final int MAX_RANGE_LINES = 5000;   // DOC_RANGE 한 번에 돌려줄 최대 줄 수
+    private static final boolean WIRE_JSON = Boolean.getBoolean("cm.wire.json");
+
+    // 클라이언트 캐시 식별용: 서버 실행마다 다르다 (재시작 후 버전 번호가 겹쳐도 캐시를 잘못 쓰지 않도록)
+    private static final String SERVER_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private volatile String serverEpoch = SERVER_EPOCH;   // 대기 서버는 주 서버의 값을 이어받는다
+
+    // 문서 목록 변경 알림(DOC_LIST_DELTA)의 종류
+    private static final String DOC_ADDED = "ADDED";
+    private static final String DOC_REMOVED = "REMOVED";
+    private static final String DOC_META = "META";
+    private static final String DOC_USERS = "USERS";
 
-    // 각 문서에 접속한 사용자 집합 (문서명 -> 사용자 집합)
-    private Map<String, String> userCurrentDoc;              // 사용자가 현재 열어둔 문서 정보 (사용자 -> 문서명)
-    private final Set<String> onlineUsers = new HashSet<>(); // 현재 로그인 중인 전체 사용자
+    /**
+     * 참여자 변경 묶음 전송 (presence 타이머 스레드).
+     * 기존 참여자에게는 입장/퇴장한 사용자만(DOC_PRESENCE delta), 이번에 들어온 사용자에게는 전체 목록(snapshot),
+     * 전체 접속자에게는 그 문서 목록 항목의 참여자 갱신(DOC_LIST_DELTA USERS)을 한 번만 보낸다.
+     */
+    private void sendPresence(PresenceBroadcaster.Update u) {
+        if (u.changed()) {
+            List<String> others = new ArrayList<>();
+            for (String m : u.members()) if (!u.joiners().contains(m)) others.add(m);
+            sendToDocument(u.docName(), others, () -> {
+                CMUserEvent evt = presenceEvent(u.docName(), u.version(), "delta");
+                evt.setEventField(CMInfo.CM_STR, "joined", String.join(",", u.joined()));
+                evt.setEventField(CMInfo.CM_STR, "left", String.join(",", u.left()));
+                return evt;
+            }, () -> {
+                CMUserEvent evt = presenceEvent(u.docName(), u.version(), "delta");
+                byte[] joined = WireCodec.encodeUsers(u.joined());
+                byte[] left = WireCodec.encodeUsers(u.left());
+                evt.setEventBytesField("joined_bin", joined.length, joined);
+                evt.setEventBytesField("left_bin", left.length, left);
+                return evt;
+            });
+            publishDocChange(DOC_USERS, u.docName());
+        }
+        List<String> joiners = new ArrayList<>();
+        for (String j : u.joiners()) if (u.members().contains(j)) joiners.add(j);
+        sendPresenceSnapshot(joiners, u.docName(), u.version(), u.members());
+    }
 
-    private void broadcastUserList(String docName) {
-        Set<String> users = docUsers.get(docName);
-        if (users == null) return;
+    /* 문서 참여자 전체 목록 (새로 들어온 사용자, 또는 버전이 어긋나 PRESENCE_SYNC 를 보낸 사용자에게) */
+    private void sendPresenceSnapshot(Collection<String> to, String docName, int version, Set<String> members) {
+        sendEach(to, () -> {
+            CMUserEvent evt = presenceEvent(docName, version, "snapshot");
+            evt.setEventField(CMInfo.CM_STR, "users", String.join(",", members));
+            return evt;
+        }, () -> {
+            CMUserEvent evt = presenceEvent(docName, version, "snapshot");
+            byte[] bin = WireCodec.encodeUsers(members);
+            evt.setEventBytesField("users_bin", bin.length, bin);
+            return evt;
+        });
+    }
 
-        CMUserEvent evt = new CMUserEvent();
-        evt.setStringID("USER_LIST");
+    private static CMUserEvent presenceEvent(String docName, int version, String mode) {
+        CMUserEvent evt = new RelayEvent();
+        evt.setStringID("DOC_PRESENCE");
         evt.setEventField(CMInfo.CM_STR, "doc", docName);
-        evt.setEventField(CMInfo.CM_STR, "users", String.join(",", users));
+        evt.setEventField(CMInfo.CM_INT, "version", String.valueOf(version));
+        evt.setEventField(CMInfo.CM_STR, "mode", mode);
+        return evt;
+    }
 
+    /**
+     * 받는 사람마다 지원하는 형식(바이너리 / 문자열)의 이벤트를 보낸다.
+     * 형식별 이벤트는 필요할 때 한 번만 만들어 모든 수신자가 함께 쓴다.
+     */
+    private void sendEach(Collection<String> users, Supplier<CMUserEvent> text, Supplier<CMUserEvent> binary) {
+        CMUserEvent textEvt = null, binEvt = null;
         for (String u : users) {
-            m_serverStub.send(evt, u);
+            if (isBinary(u)) {
+                if (binEvt == null) binEvt = binary.get();
+                m_serverStub.send(binEvt, u);
+            } else {
+                if (textEvt == null) textEvt = text.get();
+                m_serverStub.send(textEvt, u);
+            }
         }
     }
 
+    /**
+     * 한 문서의 참여자들에게 보낸다. 그룹 전송 모드이고 모두 그 문서의 그룹으로 옮겼으면
+     * 모두가 읽을 수 있는 형식 하나로 cast 한 번 (참여자 수와 무관), 아니면 사용자별로 보낸다.
+     * 같은 그룹의 다른 문서 사용자도 받게 되며, 클라이언트가 문서 이름으로 걸러 낸다.
+     */
+    private void sendToDocument(String docName, Collection<String> users,
+                                Supplier<CMUserEvent> text, Supplier<CMUserEvent> binary) {
+        if (groups != null && !users.isEmpty()) {
+            String group = groups.groupOf(docName);
+            if (groups.allIn(users, group)) {
+                m_serverStub.cast(commonFormat(users, text, binary), groups.session(), group);
+                return;
+            }
+        }
+        sendEach(users, text, binary);
+    }
+
+    /* 받는 사람 전원이 읽을 수 있는 형식의 이벤트 하나 (모두 바이너리를 받으면 바이너리, 아니면 문자열) */
+    private CMUserEvent commonFormat(Collection<String> users, Supplier<CMUserEvent> text, Supplier<CMUserEvent> binary) {
+        for (String u : users) if (!isBinary(u)) return text.get();
+        return binary.get();
+    }
+
+    /* 바이너리 인코딩을 받을 수 있는 클라이언트인지 (-Dcm.wire.json=true 면 모두 문자열/JSON) */
+    private boolean isBinary(String user) {
+        return !WIRE_JSON && state.hasCapability(user, CAP_BINARY);
+    }
+
+    /* 정수 필드 (없거나 숫자가 아니면 null: 잘못된 요청은 lane 에서 예외를 내지 않고 무시한다) */
+    private static Integer intField(CMUserEvent ue, String field) {
+        String v = ue.getEventField(CMInfo.CM_INT, field);
+        if (v == null) return null;
+        try {
+            return Integer.valueOf(v.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* 압축된 본문을 풀 수 있는 클라이언트인지 */
+    private boolean acceptsDeflate(String user) {
+        return !WIRE_JSON && state.hasCapability(user, CAP_DEFLATE);
+    }
+
     // 서버 스텁을 전달받아 내부 데이터 구조를 초기화한다.
     public CMServerEventHandler(CMServerStub serverStub) {
-        m_serverStub = serverStub;
-        documents = new HashMap<>();
-        docUsers = new HashMap<>();
-        userCurrentDoc = new HashMap<>();
+        this(serverStub, null, 0);
     }
 
-    // 문서 파일들이 저장되는 폴더 경로 (상대 경로)
-    private final String DOC_FOLDER = "documents";
-
     /**
-     * 파일 시스템에서 지정된 문서의 내용을 읽어서 반환한다.
-     *
-     * @param docName 문서 이름
-     * @return 파일에서 읽은 문서 내용, 파일이 없으면 빈 문자열 반환
+     * 분산 모드: shardId 가 0 이면 클라이언트를 받는 front (담당이 아닌 문서 이벤트는 담당 shard 로 넘김),
+     * 아니면 front 가 넘겨 준 자기 문서만 처리하는 shard 다. ring 이 null 이면 단일 서버.
      */
-    private String loadDocumentFromFile(String docName) {
-        // "documents" 폴더 생성 (없으면)
-        File folder = new File(DOC_FOLDER);
-        if (!folder.exists()) {
-            folder.mkdir();
-        }
-        // 문서 파일 경로: 예) documents/<docName>.txt
-        String filename = DOC_FOLDER + File.separator + docName + ".txt";
-        File file = new File(filename);
-        if (!file.exists()) {
-            System.out.println("파일 [" + filename + "] 가 존재하지 않음. 빈 내용 반환.");
-            return "";
-        }
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // 파일의 각 줄을 읽어 StringBuilder에 추가
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line).append("\n");
+    public CMServerEventHandler(CMServerStub serverStub, ShardRing ring, int shardId) {
+        m_serverStub = serverStub;
+        this.ring = ring;
+        this.shardId = shardId;
+        groups = isShardMember() ? null : DocumentGroups.fromSystemProperties();   // shard 는 front 를 거쳐 사용자별로만 보낸다
+        documents = new DocumentStore();
+        broadcaster = new BroadcastScheduler(this::sendOpBatch);
+        broadcaster.start();
+        presence = new PresenceBroadcaster(this::sendPresence, state);
+        presence.start();
+        lanes = new EventLanes();
+        catalog = new DocumentCatalog(DOC_FOLDER);
+        persistence = new DocumentPersistence(DOC_FOLDER, catalog::stored);
+        persistence.recoverAll();   // 비정상 종료 시 남은 편집 저널을 .txt 에 반영
+        catalog.load();
+        flusher = new DocumentFlusher(documents, persistence, catalog);
+        flusher.start();
+        revisions = new RevisionStore(DOC_FOLDER);
+        residency = new DocumentResidency(documents, persistence, flusher, state, lanes::submitDoc, revisions::forget);
+
+        InetSocketAddress standby = ReplicationLog.standbyFromSystemProperties();
+        replication = standby == null ? null
+                : new ReplicationLog(standby, () -> serverEpoch, this::replicateAll, this::replicateDocument);
+        if (replication != null) replication.start();
+
+        links = ring == null ? new ShardLink[0] : new ShardLink[ring.size()];
+        if (ring != null) {
+            long misplaced = catalog.entries().stream().filter(e -> ring.owner(e.getKey()) != shardId).count();
+            if (misplaced > 0) {
+                System.err.println("[SHARD] 이 shard(" + shardId + ") 담당이 아닌 문서 " + misplaced
+                        + "개가 " + DOC_FOLDER + " 에 있음 → 담당 shard 폴더로 옮기기 전까지 열 수 없음");
+            }
+            if (isFront()) {
+                for (int i = 1; i < ring.size(); i++) {
+                    links[i] = new ShardLink(i, ring.address(i), this);
+                    links[i].start();
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
         }
-        return sb.toString().trim();
     }
 
-    private boolean saveDocumentToFile(String docName, String content) {
-        // documents 폴더가 없으면 생성
-        File folder = new File(DOC_FOLDER);
-        if (!folder.exists()) {
-            folder.mkdir();
+    /**
+     * CM 시작 후 한 번: 그룹 전송 모드면 CM 설정에 세션·그룹이 있는지 확인한다.
+     * SESSION_SCHEME 이 0 이거나 설정한 세션·그룹이 없으면 cast 가 아무에게도 가지 않으므로 시작을 거부한다.
+     */
+    public void checkGroups() {
+        if (groups == null) return;
+        CMInfo info = m_serverStub.getCMInfo();
+        if (!info.getConfigurationInfo().isSessionScheme()) {
+            throw new IllegalStateException("-Dcm.fanout=group 은 cm-server.conf 의 SESSION_SCHEME 1 이 필요함");
+        }
+        CMSession session = info.getInteractionInfo().findSession(groups.session());
+        if (session == null) {
+            throw new IllegalStateException("그룹 전송 모드: CM 설정에 세션 " + groups.session() + " 이 없음 (-Dcm.group.session)");
         }
-        // 파일 경로 생성
-        String filename = DOC_FOLDER + File.separator + docName + ".txt";
-        try (FileWriter writer = new FileWriter(filename)) {
-            writer.write(content);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+        for (String group : groups.groups()) {
+            if (session.findGroup(group) == null) {
+                throw new IllegalStateException("그룹 전송 모드: 세션 " + groups.session() + " 에 그룹 " + group
+                        + " 이 없음 (-Dcm.group.names)");
+            }
         }
-        return true;
     }
 
     /**
-     * 실제 파일 시스템에서 지정된 문서 파일을 삭제한다.
-     *
-     * @param docName 삭제할 문서 이름
-     * @return 삭제 성공 시 true, 실패 시 false 반환
+     * 서버 종료 시: 이벤트 처리를 멈추고 편집 중이던 문서를 모두 디스크에 반영한다.
      */
-    private boolean deleteDocumentFile(String docName) {
-        File folder = new File(DOC_FOLDER);
-        if (!folder.exists()) {
-            // Folder가 없으면 삭제할 문서도 존재하지 않는다고 볼 수 있음.
-            return false;
-        }
-        String filename = DOC_FOLDER + File.separator + docName + ".txt";
-        File file = new File(filename);
-        if (file.exists()) {
-            boolean deleted = file.delete();
-            if (!deleted) {
-                System.err.println("Failed to delete file: " + filename);
-            }
-            return deleted;
-        }
-        return false;
+    public void shutdown() {
+        if (replication != null) replication.stop();
+        for (ShardLink link : links) if (link != null) link.stop();
+        lanes.shutdown();
+        broadcaster.stop();
+        presence.stop();
+        revisions.stop();
+        flusher.stop();
     }
 
     private void sendDocContentToClient(String user, String docName) {
-        String content = documents.get(docName);
-        if (content == null) content = "";
-        CMUserEvent docEvt = new CMUserEvent();
+        sendDocContentToClient(user, docName, false);
+    }
+
+    /**
+     * rejected: 방금 받은 EDIT_OP 를 적용하지 못해서 보내는 내용 (그 연산은 내용에 들어 있지 않음).
+     * 클라이언트는 그 연산을 새 내용 위로 옮겨 다시 보낸다. 나눠 보내는 큰 문서는 표시하지 않는다 (로컬 편집을 버리고 새로 채움).
+     */
+    private void sendDocContentToClient(String user, String docName, boolean rejected) {
+        DocumentBuffer buffer = documents.get(docName);
+        DocumentBuffer.Snapshot snap = buffer == null ? null : buffer.snapshot();
+        if (snap != null && snap.text().length() > VIEWPORT_CHARS && state.hasCapability(user, CAP_RANGE)) {
+            // 아주 큰 문서: 길이·줄 수만 알리고 내용은 화면에 보이는 범위만 DOC_RANGE 로 (읽기 전용)
+            CMUserEvent large = new RelayEvent();
+            large.setStringID("DOC_LARGE");
+            large.setEventField(CMInfo.CM_STR, "name", docName);
+            large.setEventField(CMInfo.CM_INT, "version", String.valueOf(snap.version()));
+            large.setEventField(CMInfo.CM_INT, "length", String.valueOf(snap.text().length()));
+            large.setEventField(CMInfo.CM_INT, "lines", String.valueOf(snap.text().lineCount()));
+            m_serverStub.send(large, user);
+            return;
+        }
+        if (snap != null && snap.text().length() > CHUNK_CHARS && state.hasCapability(user, CAP_CHUNK)) {
+            sendDocChunked(user, docName, snap);
+            return;
+        }
+        String content = snap == null ? "" : snap.text().toString();
+        int version = snap == null ? 0 : snap.version();
+        CMUserEvent docEvt = new RelayEvent();
         docEvt.setStringID("DOC_CONTENT");
         docEvt.setEventField(CMInfo.CM_STR, "name", docName);
-        docEvt.setEventField(CMInfo.CM_STR, "content", content);
+        putContent(docEvt, user, content);
+        docEvt.setEventField(CMInfo.CM_INT, "version", String.valueOf(version));
+        docEvt.setEventField(CMInfo.CM_STR, "epoch", docEpoch(docName));
+        if (rejected) docEvt.setEventField(CMInfo.CM_INT, "rejected", "1");
         m_serverStub.send(docEvt, user);
     }
 
+    /**
+     * SELECT_DOC 응답. 클라이언트가 캐시한 버전(cachedVersion, epoch)을 보냈으면
+     * 그대로면 DOC_NOT_MODIFIED, 이력에 남은 변경분이 내용보다 작으면 DOC_DELTA, 아니면 전체 내용을 보낸다.
+     */
+    private void sendDocForSelect(String user, String docName, String cachedVersion, String epoch) {
+        DocumentBuffer buffer = documents.get(docName);
+        DocumentBuffer.Snapshot snap = buffer == null ? null : buffer.snapshot();
+        if (snap == null || cachedVersion == null || !docEpoch(docName).equals(epoch)
+                || (snap.text().length() > VIEWPORT_CHARS && state.hasCapability(user, CAP_RANGE))) {
+            sendDocContentToClient(user, docName);
+            return;
+        }
+        int base = Integer.parseInt(cachedVersion);
+        if (base == snap.version()) {
+            CMUserEvent same = new RelayEvent();
+            same.setStringID("DOC_NOT_MODIFIED");
+            same.setEventField(CMInfo.CM_STR, "name", docName);
+            same.setEventField(CMInfo.CM_INT, "version", String.valueOf(base));
+            same.setEventField(CMInfo.CM_STR, "epoch", epoch);
+            m_serverStub.send(same, user);
+            return;
+        }
+        // 스냅샷과 이력이 같은 버전을 가리키도록 문서 lane 에서만 호출한다
+        List<EditOp> ops = buffer.opsSince(base);
+        if (ops == null || editSize(ops) > snap.text().length() / 2) {
+            sendDocContentToClient(user, docName);
+            return;
+        }
+        CMUserEvent delta = new RelayEvent();
+        delta.setStringID("DOC_DELTA");
+        delta.setEventField(CMInfo.CM_STR, "name", docName);
+        delta.setEventField(CMInfo.CM_INT, "baseVersion", String.valueOf(base));
+        delta.setEventField(CMInfo.CM_INT, "version", String.valueOf(snap.version()));
+        delta.setEventField(CMInfo.CM_STR, "epoch", epoch);
+        if (isBinary(user)) {
+            byte[] bin = WireCodec.encodeOps(ops);
+            delta.setEventBytesField("ops_bin", bin.length, bin);
+        } else {
+            delta.setEventField(CMInfo.CM_STR, "ops", EditOp.encode(ops));
+        }
+        m_serverStub.send(delta, user);
+        System.out.println("문서 [" + docName + "] 변경분만 전송 (" + base + " → " + snap.version()
+                + ", 연산 " + ops.size() + "개) → [" + user + "]");
+    }
+
+    /* 문서 식별값: 서버 실행 + 생성 시각 (지웠다가 같은 이름으로 다시 만들면 달라진다) */
+    private String docEpoch(String docName) {
+        DocMeta m = catalog.meta(docName);
+        return serverEpoch + "." + (m == null ? 0 : m.createdTime());
+    }
+
 
     /**
-     * processEvent() 메서드는 CM 사용자 이벤트를 처리한다.
-     * 각 이벤트 타입에 따라 문서 생성, 선택, 편집, 저장, 삭제, 목록 조회 등의 작업을 수행한다.
+     * processEvent() 는 CM 디스패치 스레드에서 호출되며, 이벤트를 알맞은 lane 으로 넘기기만 한다.
+     * 문서 하나에 대한 이벤트(생성·선택·편집·저장·삭제)는 그 문서의 lane 에서,
+     * 나머지(로그인/로그아웃, 목록 조회)는 전역 lane 에서 처리된다.
      */
     @Override
     public void processEvent(CMEvent cme) {
+        String docKey = laneKey(cme);
+        if (docKey == null) lanes.submitGlobal(() -> handleEvent(cme));
+        else if (isRemote(docKey)) lanes.submitDoc(docKey, () -> forwardEvent((CMUserEvent) cme, docKey));
+        else lanes.submitDoc(docKey, () -> handleEvent(cme));
+    }
+
+    /* 문서 lane 으로 보낼 이벤트면 문서 이름, 전역 lane 이면 null */
+    private String laneKey(CMEvent cme) {
+        if (cme.getType() != CMInfo.CM_USER_EVENT) return null;
+        CMUserEvent ue = (CMUserEvent) cme;
+        switch (ue.getStringID()) {
+            case "CREATE_DOC", "SELECT_DOC", "DELETE_DOC", "EDIT_OP", "SAVE_DOC", "EDIT_DOC", "DOC_RANGE",
+                 "REVISIONS", "GET_REVISION": {
+                String name = ue.getEventField(CMInfo.CM_STR, "name");
+                if (name == null && ue.getSender() != null) name = state.currentDocument(ue.getSender());
+                return name;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 각 이벤트 타입에 따라 문서 생성, 선택, 편집, 저장, 삭제, 목록 조회 등의 작업을 수행한다.
+     */
+    private void handleEvent(CMEvent cme) {
         int nType = cme.getType();
 
         /* ---------- A. 세션 이벤트: 로그인/로그아웃 ---------- */
@@ -165,40 +445,52 @@ public class CMServerEventHandler implements CMAppEventHandler {
 
             switch (se.getID()) {
                 case CMSessionEvent.LOGIN -> {
-                    if (onlineUsers.contains(user)) {
+                    if (!state.addOnline(user)) {
                         // 중복 로그인 거부 메시지 전송
-                        CMUserEvent rejectEvent = new CMUserEvent();
+                        CMUserEvent rejectEvent = new RelayEvent();
                         rejectEvent.setStringID("LOGIN_REJECTED_DUPLICATE");
                         m_serverStub.send(rejectEvent, user);
                         System.out.println("[SERVER] 중복 로그인 시도 거부: " + user);
                         return;  // 더 이상 처리하지 않음
                     }
 
-                    onlineUsers.add(user);
                     sendOnlineListToClient(user);
-                    System.out.println("[SERVER] " + user + " logged in. (online=" + onlineUsers.size() + ")");
+                    System.out.println("[SERVER] " + user + " logged in. (online=" + state.onlineUsers().size() + ")");
 
-                    CMUserEvent successEvent = new CMUserEvent();
+                    CMUserEvent successEvent = new RelayEvent();
                     successEvent.setStringID("LOGIN_ACCEPTED");
                     m_serverStub.send(successEvent, user);
 
 
                 }
                 case CMSessionEvent.LOGOUT, CMSessionEvent.SESSION_REMOVE_USER -> {
-                    onlineUsers.remove(user);
-                    String doc = userCurrentDoc.get(user);
-                    if (doc != null && docUsers.containsKey(doc)) {
-                        docUsers.get(doc).remove(user);
-                        broadcastUserList(doc);
+                    // 참여자에서 빼는 것은 그 문서 lane 에서 (앞서 들어온 이 사용자의 문서 이벤트 뒤에)
+                    String doc = state.logout(user);
+                    if (doc != null) {
+                        lanes.submitDoc(doc, () -> {
+                            if (state.leaveDocument(user, doc)) presence.left(doc, user);
+                        });
                     }
-                    userCurrentDoc.remove(user);
+                    for (ShardLink link : links) if (link != null) link.leave(user);
+                    if (groups != null) groups.left(user);
 
-                    System.out.println("[SERVER] " + user + " logged out. (online=" + onlineUsers.size() + ")");
+                    System.out.println("[SERVER] " + user + " logged out. (online=" + state.onlineUsers().size() + ")");
                 }
             }
             return;  // 세션 이벤트 처리 끝
         }
 
+        /* ---------- B. 그룹 이벤트: 그룹 전송 모드에서 CM 이 알려 주는 그룹 가입/탈퇴 ---------- */
+        if (nType == CMInfo.CM_INTEREST_EVENT) {
+            if (groups == null) return;
+            CMInterestEvent ie = (CMInterestEvent) cme;
+            switch (ie.getID()) {
+                case CMInterestEvent.USER_ENTER -> groups.entered(ie.getUserName(), ie.getHandlerSession(), ie.getCurrentGroup());
+                case CMInterestEvent.USER_LEAVE -> groups.exited(ie.getUserName(), ie.getHandlerSession(), ie.getHandlerGroup());
+            }
+            return;
+        }
+
         if (nType == CMInfo.CM_USER_EVENT) {
             CMUserEvent ue = (CMUserEvent) cme;
             String eventID = ue.getStringID();
@@ -213,47 +505,23 @@ public class CMServerEventHandler implements CMAppEventHandler {
                         System.err.println("문서 생성 실패: sender 정보 없음");
                         break;
                     }
-                    if (documents.size() >= 10) {
-                        System.out.println("문서 생성 실패: 최대 문서 개수(10) 초과 시도 by [" + user + "]");
-                        break;
-                    }
-                    if (documents.containsKey(docNameToCreate)) {
+                    if (catalog.contains(docNameToCreate) || documents.contains(docNameToCreate)) {
                         System.out.println("문서 생성 실패: 동일한 이름의 문서 [" + docNameToCreate + "] 이미 존재");
                         break;
                     }
 
-                    /* 사용자가 이미 편집 중이던 문서에서 제거 */
-                    if (userCurrentDoc.containsKey(user)) {
-                        String prevDoc = userCurrentDoc.get(user);
-                        if (prevDoc != null && docUsers.containsKey(prevDoc)) {
-                            docUsers.get(prevDoc).remove(user);
-                            broadcastUserList(prevDoc);           // 이전 문서 참여자 갱신
-                        }
-                    }
-
-                    /* 새 문서를 생성하고 사용자 등록 */
-                    documents.put(docNameToCreate, "");
-
-                    MetaInfo meta = new MetaInfo();
-                    meta.creatorId = user;
-                    meta.lastEditorId = user;
-                    meta.createdTime = System.currentTimeMillis();
-                    meta.lastModifiedTime = meta.createdTime;
-                    docMeta.put(docNameToCreate, meta);
-
-                    // 해당 문서에 대한 사용자 집합 초기화 후 생성자(user)를 추가
-                    docUsers.put(docNameToCreate, new HashSet<>());
-                    docUsers.get(docNameToCreate).add(user);
+                    /* 새 문서를 생성하고 메타데이터 등록 */
+                    residency.touched(docNameToCreate, documents.add(docNameToCreate, persistence.create(docNameToCreate)));
+                    catalog.add(docNameToCreate, DocMeta.created(user, System.currentTimeMillis()));
+                    if (replication != null) replication.created(docNameToCreate, catalog.meta(docNameToCreate));
 
-                    // 사용자가 현재 열어 둔 문서 정보 업데이트
-                    userCurrentDoc.put(user, docNameToCreate);
+                    /* 생성자를 새 문서로 이동 (이전 문서에서는 빠짐) */
+                    joinDocument(user, docNameToCreate);
                     System.out.println("새 문서 생성: [" + docNameToCreate + "], 생성자: " + user);
 
                     /* 클라이언트에 반영 */
-                    sendTextUpdateToClient(user, docNameToCreate);
-                    broadcastDocumentList();
+                    publishDocChange(DOC_ADDED, docNameToCreate);
                     sendDocContentToClient(user, docNameToCreate);  // 생성 직후 문서 내용 보내기
-                    broadcastUserList(docNameToCreate);
                     break;
                 }
 
@@ -261,127 +529,237 @@ public class CMServerEventHandler implements CMAppEventHandler {
                 case "SELECT_DOC": {
                     String docNameToSelect = ue.getEventField(CMInfo.CM_STR, "name");
 
-                    // 만약 문서가 in-memory에 존재하지 않으면 파일 시스템에서 내용을 로드하여 추가
-                    if (!documents.containsKey(docNameToSelect)) {
-                        String loadedContent = loadDocumentFromFile(docNameToSelect);
-                        documents.put(docNameToSelect, loadedContent);
+                    // 만약 문서가 in-memory에 존재하지 않으면 (처음이거나 메모리에서 내려간 경우) 파일 시스템에서 로드
+                    DocumentBuffer selected = documents.get(docNameToSelect);
+                    if (selected == null) {
+                        selected = documents.add(docNameToSelect, persistence.open(docNameToSelect));
                         System.out.println("파일 시스템에서 문서 [" + docNameToSelect + "] 내용 로드 완료.");
                     }
+                    residency.touched(docNameToSelect, selected);
 
-                    // 만약 문서에 대한 사용자 집합이 없으면 새로 생성
-                    if (!docUsers.containsKey(docNameToSelect)) {
-                        docUsers.put(docNameToSelect, new HashSet<>());
+                    // 사용자를 이 문서로 이동 (이전에 열었던 문서에서는 빠짐)
+                    // 참여자 변경은 presence 가 모아서: 기존 참여자에게는 변경분, 이 사용자에게는 전체 목록
+                    String prevDoc = joinDocument(user, docNameToSelect);
+                    if (prevDoc != null) {
+                        System.out.println("사용자 [" + user + "] 기존 문서 [" + prevDoc + "] 편집 종료");
                     }
 
-                    // 이전에 사용자가 열었던 문서가 있다면 그 문서에서 해당 사용자를 제거
-                    if (userCurrentDoc.containsKey(user)) {
-                        String prevDoc = userCurrentDoc.get(user);
-                        if (prevDoc != null && docUsers.containsKey(prevDoc)) {
-                            docUsers.get(prevDoc).remove(user);
-                            broadcastUserList(prevDoc); // ✅ 추가!
-                            System.out.println("사용자 [" + user + "] 기존 문서 [" + prevDoc + "] 편집 종료");
-                        }
-                    }
+                    // 클라이언트 캐시가 있으면 바뀐 것만 (없으면 전체 내용)
+                    sendDocForSelect(user, docNameToSelect,
+                            ue.getEventField(CMInfo.CM_INT, "cachedVersion"), ue.getEventField(CMInfo.CM_STR, "epoch"));
 
-                    docUsers.get(docNameToSelect).add(user);
-                    userCurrentDoc.put(user, docNameToSelect);
-
-                    // ✅ 현재 문서 사용자 리스트만 전송 (중복 제거)
-                    broadcastUserList(docNameToSelect);
+                    break;
+                }
 
-                    sendDocContentToClient(user, docNameToSelect);
-                    broadcastDocumentList();
+                // 문서 편집 연산(삽입/삭제) 처리: 변경분만 주고받는다
+                case "EDIT_OP": {
+                    // 문서 전환 직후에도 어느 문서의 연산인지 알 수 있도록 클라이언트가 이름을 함께 보낸다
+                    String docName = ue.getEventField(CMInfo.CM_STR, "name");
+                    if (docName == null) docName = state.currentDocument(user);
+                    if (docName == null) {
+                        System.out.println("편집 오류: [" + user + "] 문서를 열지 않은 상태에서 EDIT_OP 이벤트 수신");
+                        break;
+                    }
+                    byte[] opsBin = ue.getEventBytesField("ops_bin");
+                    String opsStr = ue.getEventField(CMInfo.CM_STR, "ops");
+                    int baseVersion = Integer.parseInt(ue.getEventField(CMInfo.CM_INT, "baseVersion"));
+                    DocumentBuffer buffer = documents.get(docName);
+                    if (buffer == null) {
+                        System.out.println("편집 오류: 문서 [" + docName + "] 가 메모리에 없음");
+                        break;
+                    }
 
+                    // 그 사이 다른 사용자의 연산이 먼저 반영됐다면 그에 맞게 변환해서 적용
+                    List<EditOp> applied;
+                    try {
+                        List<EditOp> ops = opsBin != null ? WireCodec.decodeOps(opsBin) : EditOp.decode(opsStr);
+                        applied = buffer.applyConcurrent(baseVersion, ops);
+                    } catch (IllegalArgumentException e) {
+                        // 적용할 수 없는 연산 → 요청자에게 현재 문서 전체를 다시 보내 동기화
+                        System.err.println("편집 연산 적용 실패 [" + docName + "] by [" + user + "]: " + e.getMessage());
+                        sendDocContentToClient(user, docName, true);
+                        break;
+                    }
+                    if (applied == null) {
+                        // 너무 오래된 버전 기준 → 변환 이력이 없으므로 전체 재동기화
+                        System.out.println("문서 [" + docName + "] 변환 이력 없음 (base=" + baseVersion
+                                + ", current=" + buffer.getVersion() + ") → [" + user + "] 전체 재전송");
+                        sendDocContentToClient(user, docName, true);
+                        break;
+                    }
+                    int newVersion = buffer.getVersion();
+
+                    // 적용된(변환 후) 연산을 저널에 남긴다. fsync·체크포인트는 flusher 가 모아서
+                    persistence.logEdit(docName, newVersion, applied);
+                    flusher.markDirty(docName, editSize(applied));
+                    residency.touched(docName, buffer);
+                    long now = System.currentTimeMillis();
+                    catalog.touch(docName, user, now);
+                    if (replication != null) replication.edited(docName, newVersion, user, now, applied);
+
+                    // 참여자 전송은 tick 단위로 묶어서 (요청자에게는 같은 묶음이 확인 역할)
+                    broadcaster.submit(docName, user, applied, newVersion);
                     break;
                 }
 
-                // 문서 편집 이벤트 처리
+                // 문서 편집 이벤트 처리 (구버전 클라이언트: 문서 전체 전송)
                 case "EDIT_DOC": {
                     String newContent = ue.getEventField(CMInfo.CM_STR, "content");
-                    String docName = userCurrentDoc.get(user);
+                    String docName = state.currentDocument(user);
                     if (docName == null) {
                         System.out.println("편집 오류: [" + user + "] 문서를 열지 않은 상태에서 EDIT_DOC 이벤트 수신");
                         break;
                     }
 
                     // in-memory에 문서 내용을 업데이트
-                    documents.put(docName, newContent);
-                    MetaInfo metaEdit = docMeta.get(docName);
-                    if (metaEdit != null) {
-                        metaEdit.lastEditorId = user;
-                        metaEdit.lastModifiedTime = System.currentTimeMillis();
-                    }
+                    DocumentBuffer editBuffer = documents.get(docName);
+                    if (editBuffer == null) editBuffer = documents.add(docName, persistence.open(docName));
+                    int editVersion = editBuffer.replaceAll(newContent);
+                    List<EditOp> replaced = editBuffer.opsSince(editVersion - 1);
+                    persistence.logEdit(docName, editVersion, replaced);
+                    flusher.markDirty(docName, editSize(replaced));
+                    residency.touched(docName, editBuffer);
+                    long now = System.currentTimeMillis();
+                    catalog.touch(docName, user, now);
+                    if (replication != null) replication.edited(docName, editVersion, user, now, replaced);
 
                     System.out.println("문서 [" + docName + "] 업데이트 by [" + user + "]: 길이=" + newContent.length());
 
-                    // 해당 문서에 참여 중인 다른 사용자들에게 업데이트 전송
-                    Set<String> participants = docUsers.get(docName);
-                    if (participants != null) {
-                        for (String other : participants) {
-                            if (other.equals(user)) continue;
-                            sendTextUpdateToClient(other, docName);
-                        }
-                    }
+                    // 다른 참여자에게는 이력에 남은 "전체 교체" 연산으로 전달
+                    broadcaster.submit(docName, user, replaced, editVersion);
                     break;
                 }
 
                 // 문서 저장 이벤트 처리
                 case "SAVE_DOC": {
-                    String saveDocName = userCurrentDoc.get(user);
+                    String saveDocName = ue.getEventField(CMInfo.CM_STR, "name");
+                    if (saveDocName == null) saveDocName = state.currentDocument(user);
                     if (saveDocName == null) {
                         System.out.println("저장 실패: [" + user + "] 문서를 열지 않은 상태");
                         break;
                     }
-                    String contentToSave = documents.get(saveDocName);
-                    boolean saveSuccess = saveDocumentToFile(saveDocName, contentToSave);
-                    if (saveSuccess) {
-                        System.out.println("문서 [" + saveDocName + "] 디스크 저장 성공 (요청자: " + user + ")");
-                    } else {
-                        System.err.println("문서 [" + saveDocName + "] 저장 실패! (요청자: " + user + ")");
+                    if (!documents.contains(saveDocName)) {
+                        System.err.println("문서 [" + saveDocName + "] 저장 실패! 메모리에 없음 (요청자: " + user + ")");
+                        break;
                     }
-                    broadcastDocumentList();
-                    broadcastUserList(saveDocName);
+                    // 편집은 이미 저널에 있으므로 체크포인트만 앞당긴다 (기다리지 않음)
+                    flusher.requestFlush(saveDocName);
+                    System.out.println("문서 [" + saveDocName + "] 저장 요청 (요청자: " + user + ")");
+
+                    // 저장한 내용을 리비전으로 남긴다 (스냅샷만 잡고 기록은 리비전 lane 에서, 직전 리비전과 같은 버전이면 건너뜀)
+                    String revDocName = saveDocName;
+                    revisions.save(revDocName, documents.get(revDocName).snapshot(), user, System.currentTimeMillis(),
+                            rev -> System.out.println("문서 [" + revDocName + "] 리비전 " + rev.revision() + " 기록 (버전 "
+                                    + rev.version() + ", " + (rev.full() ? "전체" : "변경분") + " " + rev.bytes() + " bytes)"));
+                    publishDocChange(DOC_META, saveDocName);
                     break;
                 }
 
-                // 서버가 요청한 문서 목록 조회 이벤트 처리: documents 폴더 내의 모든 .txt 파일 목록 반환
-                case "LIST_DOCS": {
-                    File[] files = new File(DOC_FOLDER).listFiles((d, n) -> n.endsWith(".txt"));
-                    CMUserEvent listReply = new CMUserEvent();
-                    listReply.setStringID("LIST_REPLY");
-
-                    JSONArray jsonDocs = new JSONArray();
-                    if (files != null) {
-                        for (File file : files) {
-                            String name = file.getName().replaceAll("\\.txt$", "");
-                            MetaInfo m = docMeta.get(name);
-
-                            JSONObject obj = new JSONObject();
-                            obj.put("name", name);
-                            obj.put("creatorId", m != null ? m.creatorId : "unknown");
-                            obj.put("lastEditorId", m != null ? m.lastEditorId : "unknown");
-                            obj.put("createdTime", m != null ? new Date(m.createdTime).toString() : "unknown");
-                            obj.put("lastModifiedTime", m != null ? new Date(m.lastModifiedTime).toString() : new Date(file.lastModified()).toString());
-                            obj.put("activeUsers", String.join(",", docUsers.getOrDefault(name, Set.of())));
-                            jsonDocs.put(obj);
+                // 문서의 리비전 목록 요청
+                case "REVISIONS": {
+                    String docName = ue.getEventField(CMInfo.CM_STR, "name");
+                    if (docName == null || !catalog.contains(docName)) {
+                        System.out.println("리비전 목록 오류: 문서 [" + docName + "] 없음 (요청자: " + user + ")");
+                        break;
+                    }
+                    // 앞서 넣은 저장이 기록된 뒤에 읽도록 리비전 lane 에서
+                    revisions.submit(docName, () -> {
+                        JSONArray list = new JSONArray();
+                        for (RevisionStore.Revision r : revisions.list(docName)) {
+                            list.put(new JSONObject()
+                                    .put("revision", r.revision())
+                                    .put("version", r.version())
+                                    .put("time", new Date(r.time()).toString())
+                                    .put("author", r.author()));
                         }
+                        CMUserEvent reply = new RelayEvent();
+                        reply.setStringID("REVISIONS");
+                        reply.setEventField(CMInfo.CM_STR, "name", docName);
+                        reply.setEventField(CMInfo.CM_STR, "revisions", list.toString());
+                        m_serverStub.send(reply, user);
+                        if (!documents.contains(docName)) revisions.forget(docName);   // 열려 있지 않은 문서의 색인은 남기지 않음
+                    });
+                    break;
+                }
+
+                // 지난 리비전 내용 요청 (가장 가까운 전체 스냅샷 + 변경분으로 복원)
+                case "GET_REVISION": {
+                    String docName = ue.getEventField(CMInfo.CM_STR, "name");
+                    Integer revision = intField(ue, "revision");   // 리비전 lane 에서 예외가 나지 않도록 여기서 확인
+                    if (docName == null || revision == null || !catalog.contains(docName)) {
+                        sendRevisionContent(user, docName, revision == null ? 0 : revision, null);
+                        break;
+                    }
+                    revisions.submit(docName, () -> {
+                        sendRevisionContent(user, docName, revision, revisions.get(docName, revision));
+                        if (!documents.contains(docName)) revisions.forget(docName);
+                    });
+                    break;
+                }
+
+                // 큰 문서의 일부 줄 요청 (DOC_LARGE 를 받은 클라이언트가 스크롤할 때)
+                case "DOC_RANGE": {
+                    String docName = ue.getEventField(CMInfo.CM_STR, "name");
+                    DocumentBuffer buffer = docName == null ? null : documents.get(docName);
+                    if (buffer == null) {
+                        System.out.println("범위 요청 오류: 문서 [" + docName + "] 가 메모리에 없음 (요청자: " + user + ")");
+                        break;
+                    }
+                    Integer line = intField(ue, "line");
+                    Integer count = intField(ue, "count");
+                    if (line == null || count == null) {
+                        System.out.println("범위 요청 오류: 문서 [" + docName + "] line/count 가 없거나 숫자가 아님 (요청자: " + user + ")");
+                        break;
+                    }
+                    sendDocRange(user, docName, buffer.snapshot(), line, count);
+                    break;
+                }
+
+                // 서버가 요청한 문서 목록 조회 이벤트 처리: 문서 목록(catalog)의 모든 문서 반환
+                case "LIST_DOCS": {
+                    // 전체 목록과 그 버전은 변경 알림과 같은 잠금 안에서 (이후 변경 알림이 빠짐없이 이어지도록)
+                    synchronized (catalogLock) {
+                        m_serverStub.send(listReplyEvent(user), user);
                     }
-                    listReply.setEventField(CMInfo.CM_STR, "docs_json", jsonDocs.toString());
-                    m_serverStub.send(listReply, user);
 
-                    System.out.println("문서 목록(JSON) 전송 완료 (" + user + ")");
+                    String format = !isBinary(user) ? "JSON" : acceptsDeflate(user) ? "바이너리+deflate" : "바이너리";
+                    System.out.println("문서 목록(" + format + ") 전송 완료 (" + user + ")");
+                    break;
+                }
+
+
+                // presence 버전이 어긋난 클라이언트: 문서 참여자 전체 목록을 다시 보낸다
+                case "PRESENCE_SYNC": {
+                    String doc = ue.getEventField(CMInfo.CM_STR, "doc");
+                    if (doc == null) break;
+                    sendPresenceSnapshot(List.of(user), doc, presence.version(doc), state.participants(doc));
+                    break;
+                }
+
+                // 그룹 전송 모드: 클라이언트가 DOC_GROUP 으로 안내받은 그룹으로 옮겼다
+                case "GROUP_JOINED": {
+                    String group = ue.getEventField(CMInfo.CM_STR, "group");
+                    if (groups != null && group != null) groups.joined(user, group);
                     break;
                 }
 
+                // 클라이언트가 지원하는 기능 알림 (로그인 직후, 쉼표 구분 문자열)
+                case "CLIENT_CAPS": {
+                    String caps = ue.getEventField(CMInfo.CM_STR, "caps");
+                    state.setCapabilities(user, caps == null || caps.isBlank()
+                            ? Set.of() : Set.copyOf(List.of(caps.split(","))));
+                    System.out.println("[SERVER] " + user + " 지원 기능: " + caps);
+                    break;
+                }
 
-                // 삭제 가능한 문서 목록 조회 이벤트 처리: in-memory의 문서 목록 전달
+                // 삭제 가능한 문서 목록 조회 이벤트 처리: 문서 목록(catalog)의 이름 전달
                 case "LIST_DOCS_FOR_DELETE": {
                     StringBuilder sb = new StringBuilder();
-                    for (String doc : documents.keySet()) {
-                        sb.append(doc).append(",");
+                    for (Map.Entry<String, DocMeta> e : catalog.entries()) {
+                        sb.append(e.getKey()).append(",");
                     }
                     if (!sb.isEmpty()) sb.setLength(sb.length() - 1);
-                    CMUserEvent listEvent = new CMUserEvent();
+                    CMUserEvent listEvent = new RelayEvent();
                     listEvent.setStringID("LIST_DOCS_FOR_DELETE");
                     listEvent.setEventField(CMInfo.CM_STR, "docs", sb.toString());
                     m_serverStub.send(listEvent, ue.getSender());
@@ -391,7 +769,7 @@ public class CMServerEventHandler implements CMAppEventHandler {
                 // 문서 삭제 이벤트 처리
                 case "DELETE_DOC": {
                     String toDelete = ue.getEventField(CMInfo.CM_STR, "name");
-                    if (toDelete == null || !documents.containsKey(toDelete)) {
+                    if (toDelete == null || (!catalog.contains(toDelete) && !documents.contains(toDelete))) {
                         System.out.println("Delete failed: Document [" + toDelete + "] does not exist.");
                         break;
                     }
@@ -399,10 +777,10 @@ public class CMServerEventHandler implements CMAppEventHandler {
                     String requester = ue.getSender();
 
                     /* 삭제되기 전에 모든 참여자(요청자 포함)에게 문서-종료 알림 */
-                    Set<String> participants = new HashSet<>(docUsers.getOrDefault(toDelete, Set.of()));
+                    Set<String> participants = new LinkedHashSet<>(state.participants(toDelete));
                     participants.add(requester);                       // ← 요청자 자신도 포함
                     for (String u : participants) {
-                        CMUserEvent closed = new CMUserEvent();
+                        CMUserEvent closed = new RelayEvent();
                         closed.setStringID("DOC_CLOSED");
                         closed.setEventField(CMInfo.CM_STR, "name", toDelete);
                         m_serverStub.send(closed, u);
@@ -410,18 +788,24 @@ public class CMServerEventHandler implements CMAppEventHandler {
 
                     /* in-memory 구조 업데이트 */
                     documents.remove(toDelete);
-                    docUsers.remove(toDelete);
-                    userCurrentDoc.entrySet().removeIf(e -> toDelete.equals(e.getValue()));
+                    broadcaster.discard(toDelete);
+                    flusher.discard(toDelete);
+                    residency.forget(toDelete);
+                    state.removeDocument(toDelete);
+                    presence.discard(toDelete);
+                    catalog.remove(toDelete);
+                    revisions.delete(toDelete);
+                    if (replication != null) replication.deleted(toDelete);
 
                     /* 파일 삭제 */
-                    if (deleteDocumentFile(toDelete)) {
+                    if (persistence.delete(toDelete)) {
                         System.out.println("Document [" + toDelete + "] deleted by " + requester);
                     } else {
                         System.err.println("Document [" + toDelete + "] removed from memory, but file deletion failed.");
                     }
 
-                    /* 문서 목록 갱신 브로드캐스트 */
-                    broadcastDocumentList();
+                    /* 문서 목록에서 제거 알림 */
+                    publishDocChange(DOC_REMOVED, toDelete);
                     break;
                 }
 
@@ -434,61 +818,528 @@ public class CMServerEventHandler implements CMAppEventHandler {
     }
 
     /**
-     * 특정 사용자에게 지정된 문서의 내용을 전송한다.
+     * user 의 현재 문서를 docName 으로 바꾸고 presence 에 알린다.
+     * front 가 아닌 shard 는 참여자만 기록한다 (입장·퇴장 알림은 세션을 가진 front 가 보냄).
      *
-     * @param targetUser 전송할 대상 사용자
-     * @param docName    문서 이름
+     * @return 빠져나온 이전 문서 (없으면 null)
+     */
+    private String joinDocument(String user, String docName) {
+        if (isShardMember()) return state.enterDocument(user, docName);
+        ServerState.Move move = state.enterDocumentIfOnline(user, docName);
+        if (move == null) {
+            System.out.println("사용자 [" + user + "] 이미 로그아웃함 → 문서 [" + docName + "] 참여 생략");
+            return null;
+        }
+        String prevDoc = move.left();
+        if (prevDoc != null) presence.left(prevDoc, user);         // 이전 문서 참여자 갱신
+        if (prevDoc != null && isRemote(prevDoc) && ring.owner(prevDoc) != ring.owner(docName)) {
+            // 이전 문서의 shard 는 이 이벤트를 받지 않으므로 따로 알린다 (같은 shard 면 그쪽 SELECT/CREATE 가 옮김)
+            links[ring.owner(prevDoc)].leaveDocument(user, prevDoc);
+        }
+        presence.joined(docName, user);
+        if (groups != null) sendDocGroup(user, docName);
+        return prevDoc;
+    }
+
+    /* 그룹 전송 모드: 문서의 그룹으로 옮기라고 안내한다 (이미 그 그룹이면 생략) */
+    private void sendDocGroup(String user, String docName) {
+        String group = groups.groupOf(docName);
+        if (groups.isIn(user, group)) return;
+        CMUserEvent evt = new RelayEvent();
+        evt.setStringID("DOC_GROUP");
+        evt.setEventField(CMInfo.CM_STR, "name", docName);
+        evt.setEventField(CMInfo.CM_STR, "session", groups.session());
+        evt.setEventField(CMInfo.CM_STR, "group", group);
+        m_serverStub.send(evt, user);
+    }
+
+    /* ---------- 복제 (주 서버 → 대기 서버) ---------- */
+
+    /**
+     * 대기 서버로 시작한다: CM 을 띄우지 않고 주 서버의 복제 로그를 받아 문서를 최신으로 유지하다가,
+     * 주 서버가 멈추면 takeover 를 실행한다 (보통 CM 서버 기동).
+     */
+    public void startStandby(InetSocketAddress listen, Runnable takeover) throws IOException {
+        new ReplicaReceiver(listen, Long.getLong("cm.replica.takeoverMs", 3000), documents, persistence, flusher,
+                catalog, lanes, epoch -> serverEpoch = epoch, takeover).start();
+    }
+
+    /*
+     * 대기 서버와 (다시) 연결됐는데 로그 창으로 따라잡을 수 없음: 문서마다 그 lane 에서 대기 서버의 버전·생성 시각과 비교해
+     * 다른 문서만 스냅샷으로 보내고, 여기 없는 문서는 지운다. 다 넣으면 SYNC_END
+     */
+    private void replicateAll(Map<String, ReplicationLog.Stamp> standby) {
+        List<Map.Entry<String, DocMeta>> docs = catalog.entries();
+        List<String> removed = new ArrayList<>();
+        for (String docName : standby.keySet()) {
+            if (!catalog.contains(docName)) removed.add(docName);
+        }
+        if (docs.isEmpty() && removed.isEmpty()) {
+            replication.syncEnd();
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(docs.size() + removed.size());
+        AtomicInteger sent = new AtomicInteger();
+        Runnable done = () -> {
+            if (remaining.decrementAndGet() > 0) return;
+            System.out.println("[REPLICA] 전체 동기화: 문서 " + docs.size() + "개 중 " + sent.get() + "개 스냅샷, "
+                    + removed.size() + "개 삭제");
+            replication.syncEnd();
+        };
+        for (Map.Entry<String, DocMeta> e : docs) {
+            String docName = e.getKey();
+            ReplicationLog.Stamp stamp = standby.get(docName);
+            lanes.submitDoc(docName, () -> {
+                try {
+                    int version = storedOrResidentVersion(docName);
+                    if (stamp != null && version >= 0 && stamp.version() == version
+                            && catalog.meta(docName) != null && stamp.createdTime() == catalog.meta(docName).createdTime()) {
+                        return;
+                    }
+                    sendReplicaSnapshot(docName);
+                    sent.incrementAndGet();
+                } finally {
+                    done.run();
+                }
+            });
+        }
+        for (String docName : removed) {
+            lanes.submitDoc(docName, () -> {
+                try {
+                    if (!catalog.contains(docName)) replication.deleted(docName);
+                } finally {
+                    done.run();
+                }
+            });
+        }
+    }
+
+    /*
+     * 문서 lane: 메모리에 있으면 그 버전, 없으면 목록에 기록된 확정 버전 (내려간 문서는 항상 체크포인트돼 있음).
+     * 저널은 읽지 않는다. 모르면 -1 (스냅샷을 보내고, 그때 문서를 열면서 기록된다)
+     */
+    private int storedOrResidentVersion(String docName) {
+        DocumentBuffer buffer = documents.get(docName);
+        return buffer != null ? buffer.getVersion() : catalog.storedVersion(docName);
+    }
+
+    /* 대기 서버가 버전이 어긋난 문서를 다시 요청함 */
+    private void replicateDocument(String docName) {
+        lanes.submitDoc(docName, () -> sendReplicaSnapshot(docName));
+    }
+
+    /* 문서 lane: 현재 내용·버전을 대기 서버로 (메모리에 없으면 잠시 열었다가 닫는다) */
+    private void sendReplicaSnapshot(String docName) {
+        if (!catalog.contains(docName)) return;   // 그 사이 삭제됨 (DELETE 가 이미 갔음)
+        DocumentBuffer buffer = documents.get(docName);
+        boolean resident = buffer != null;
+        if (!resident) buffer = persistence.open(docName);
+        DocumentBuffer.Snapshot snap = buffer.snapshot();
+        replication.snapshot(docName, catalog.meta(docName), snap.version(), snap.text().toString(), resident);
+        if (!resident) persistence.close(docName);
+    }
+
+    /* ---------- 분산 모드 (shard) ---------- */
+
+    // front 가 담당 shard 로 넘기는 이벤트 필드
+    private static final String[] FORWARD_STR_FIELDS = {"name", "content", "ops", "epoch"};
+    private static final String[] FORWARD_INT_FIELDS = {"baseVersion", "cachedVersion", "line", "count", "revision"};
+    private static final String[] FORWARD_BYTES_FIELDS = {"ops_bin"};
+
+    /* 클라이언트를 받는 front 인지 (단일 서버도 front 로 본다) */
+    private boolean isFront() {
+        return shardId == 0;
+    }
+
+    /* front 가 넘겨 준 문서만 처리하는 shard 인지 */
+    private boolean isShardMember() {
+        return ring != null && !isFront();
+    }
+
+    /* front 에서: 다른 shard 가 담당하는 문서인지 */
+    private boolean isRemote(String docName) {
+        return ring != null && isFront() && ring.owner(docName) != shardId;
+    }
+
+    /**
+     * front 의 문서 lane 에서 실행: 담당 shard 로 이벤트를 넘기고, 세션 쪽 상태(참여자·presence·문서 목록)는 front 가 갱신한다.
+     * 문서 내용·버전·저장은 담당 shard 만 다루며, 응답은 DELIVER 로 돌아와 {@link #deliver} 에서 클라이언트에게 전달된다.
+     */
+    private void forwardEvent(CMUserEvent ue, String docName) {
+        String user = ue.getSender();
+        String eventID = ue.getStringID();
+        int owner = ring.owner(docName);
+        if ("CREATE_DOC".equals(eventID) && catalog.contains(docName)) {
+            System.out.println("문서 생성 실패: 동일한 이름의 문서 [" + docName + "] 이미 존재");
+            return;
+        }
+        if ("DELETE_DOC".equals(eventID) && !catalog.contains(docName)) {
+            System.out.println("Delete failed: Document [" + docName + "] does not exist.");
+            return;
+        }
+
+        RelayEvent evt = RelayEvent.copyOf(ue, FORWARD_STR_FIELDS, FORWARD_INT_FIELDS, FORWARD_BYTES_FIELDS);
+        if (evt.getEventField(CMInfo.CM_STR, "name") == null) evt.setEventField(CMInfo.CM_STR, "name", docName);
+        Set<String> caps = state.capabilities(user);
+        if (!links[owner].forward(String.join(",", caps), evt)) {
+            System.err.println("[SHARD] shard " + owner + " 에 연결돼 있지 않음 → [" + user + "] 의 " + eventID
+                    + " (문서 [" + docName + "]) 처리 못 함");
+            return;
+        }
+
+        switch (eventID) {
+            case "CREATE_DOC" -> {
+                catalog.add(docName, DocMeta.created(user, System.currentTimeMillis()));
+                joinDocument(user, docName);
+                publishDocChange(DOC_ADDED, docName);
+            }
+            case "SELECT_DOC" -> joinDocument(user, docName);
+            case "EDIT_OP", "EDIT_DOC" -> catalog.touch(docName, user, System.currentTimeMillis());
+            case "SAVE_DOC" -> publishDocChange(DOC_META, docName);
+            case "DELETE_DOC" -> {
+                state.removeDocument(docName);
+                presence.discard(docName);
+                catalog.remove(docName);
+                publishDocChange(DOC_REMOVED, docName);
+            }
+            default -> { }
+        }
+    }
+
+    /** front: shard 가 돌려준 이벤트를 클라이언트에게 (링크 스레드) */
+    @Override
+    public void deliver(String user, RelayEvent evt) {
+        m_serverStub.send(evt, user);
+    }
+
+    /**
+     * front: shard 가 (다시) 연결되며 보낸 문서 목록을 합친다.
+     * 그 shard 담당인 문서만 받아들이고, 목록에서 사라진 문서(끊긴 동안 삭제 등)는 뺀다.
+     */
+    @Override
+    public void catalog(int shard, List<Map.Entry<String, DocMeta>> entries) {
+        lanes.submitGlobal(() -> {
+            Set<String> names = new LinkedHashSet<>();
+            for (Map.Entry<String, DocMeta> e : entries) {
+                String name = e.getKey();
+                if (ring.owner(name) != shard) continue;
+                names.add(name);
+                if (catalog.contains(name)) continue;
+                catalog.add(name, e.getValue());
+                publishDocChange(DOC_ADDED, name);
+            }
+            for (Map.Entry<String, DocMeta> e : catalog.entries()) {
+                String name = e.getKey();
+                if (ring.owner(name) == shard && !names.contains(name)) {
+                    catalog.remove(name);
+                    publishDocChange(DOC_REMOVED, name);
+                }
+            }
+            System.out.println("[SHARD] shard " + shard + " 문서 목록 합침: " + names.size() + "개 (전체 " + catalog.size() + "개)");
+        });
+    }
+
+    /** shard: front 가 넘겨 준 문서 이벤트 (발신자의 지원 기능으로 응답 형식을 고른다) */
+    @Override
+    public void forwarded(Set<String> caps, RelayEvent evt) {
+        String user = evt.getSender();
+        if (user == null) return;
+        state.setCapabilities(user, caps);
+        processEvent(evt);
+    }
+
+    /** shard: front 에서 로그아웃한 사용자를 참여자에서 뺀다 (현재 문서의 lane 에서, 앞서 넘어온 그 문서 이벤트 뒤에) */
+    @Override
+    public void leave(String user) {
+        String doc = state.logout(user);
+        if (doc != null) lanes.submitDoc(doc, () -> state.leaveDocument(user, doc));
+    }
+
+    /** shard: 사용자가 이 shard 의 문서에서 다른 곳의 문서로 옮겼다 (그 문서 lane 에서, 이후 이벤트와 순서 유지) */
+    @Override
+    public void leaveDocument(String user, String docName) {
+        lanes.submitDoc(docName, () -> state.leaveDocument(user, docName));
+    }
+
+    /** shard: 연결된 front 에 보낼 이 shard 의 문서 목록 */
+    @Override
+    public List<Map.Entry<String, DocMeta>> catalog() {
+        return catalog.entries();
+    }
+
+    /* 리비전 내용 응답 (restored 가 null 이면 없는 리비전: 내용 없이 응답해서 클라이언트가 목록을 다시 받는다) */
+    private void sendRevisionContent(String user, String docName, int revision, RevisionStore.Restored restored) {
+        CMUserEvent reply = new RelayEvent();
+        reply.setStringID("REVISION_CONTENT");
+        reply.setEventField(CMInfo.CM_STR, "name", docName == null ? "" : docName);
+        reply.setEventField(CMInfo.CM_INT, "revision", String.valueOf(revision));
+        if (restored == null) {
+            System.out.println("리비전 요청 오류: 문서 [" + docName + "] 리비전 " + revision + " 없음 (요청자: " + user + ")");
+        } else {
+            reply.setEventField(CMInfo.CM_INT, "version", String.valueOf(restored.revision().version()));
+            reply.setEventField(CMInfo.CM_STR, "author", restored.revision().author());
+            reply.setEventField(CMInfo.CM_STR, "time", new Date(restored.revision().time()).toString());
+            putContent(reply, user, restored.text());
+        }
+        m_serverStub.send(reply, user);
+    }
+
+    /**
+     * [line, line + count) 줄을 보낸다 (마지막 줄이 아니면 각 줄 끝의 줄바꿈 포함).
+     * 범위가 문서를 벗어나면 있는 만큼만 보내고, 전체 줄 수와 버전을 함께 알려 클라이언트가 스크롤 범위를 맞춘다.
+     */
+    private void sendDocRange(String user, String docName, DocumentBuffer.Snapshot snap, int line, int count) {
+        Rope text = snap.text();
+        int total = text.lineCount();
+        int from = Math.max(0, Math.min(line, total - 1));
+        int to = Math.min(total, from + Math.max(0, Math.min(count, MAX_RANGE_LINES)));
+        String part = text.substring(text.lineStart(from), text.lineStart(to));
+
+        CMUserEvent evt = new RelayEvent();
+        evt.setStringID("DOC_RANGE");
+        evt.setEventField(CMInfo.CM_STR, "name", docName);
+        evt.setEventField(CMInfo.CM_INT, "version", String.valueOf(snap.version()));
+        evt.setEventField(CMInfo.CM_INT, "line", String.valueOf(from));
+        evt.setEventField(CMInfo.CM_INT, "lines", String.valueOf(total));
+        if (acceptsDeflate(user)) putBytes(evt, "text_bin", part.getBytes(StandardCharsets.UTF_8), true);
+        else evt.setEventField(CMInfo.CM_STR, "text", part);
+        m_serverStub.send(evt, user);
+    }
+
+    /**
+     * 큰 문서를 나눠 보낸다: DOC_BEGIN(길이·버전) → DOC_CHUNK × n (순번) → DOC_END.
+     * 스냅샷 rope 에서 조각만 꺼내므로 문서 전체 문자열을 만들지 않고, 이벤트 하나의 크기도 제한된다.
+     * 클라이언트는 조각이 오는 대로 화면에 붙이고, 그 사이 도착한 편집 연산은 DOC_END 후에 반영한다.
      */
-    private void sendTextUpdateToClient(String targetUser, String docName) {
-        String content = documents.get(docName);
-        if (content == null) content = "";
-        CMUserEvent updateEvent = new CMUserEvent();
-        updateEvent.setStringID("DOC_CONTENT");
-        updateEvent.setEventField(CMInfo.CM_STR, "name", docName);      // ✅ 추가!
-        updateEvent.setEventField(CMInfo.CM_STR, "content", content);
-        m_serverStub.send(updateEvent, targetUser);
+    private void sendDocChunked(String user, String docName, DocumentBuffer.Snapshot snap) {
+        Rope text = snap.text();
+        int length = text.length();
+        String version = String.valueOf(snap.version());
+
+        CMUserEvent begin = new RelayEvent();
+        begin.setStringID("DOC_BEGIN");
+        begin.setEventField(CMInfo.CM_STR, "name", docName);
+        begin.setEventField(CMInfo.CM_INT, "version", version);
+        begin.setEventField(CMInfo.CM_INT, "length", String.valueOf(length));
+        begin.setEventField(CMInfo.CM_STR, "epoch", docEpoch(docName));
+        m_serverStub.send(begin, user);
+
+        boolean deflate = acceptsDeflate(user);
+        int seq = 0;
+        for (int start = 0; start < length; seq++) {
+            int end = Math.min(length, start + CHUNK_CHARS);
+            // 서로게이트 쌍이 두 조각으로 갈라지지 않도록
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+            String part = text.substring(start, end);
+
+            CMUserEvent chunk = new RelayEvent();
+            chunk.setStringID("DOC_CHUNK");
+            chunk.setEventField(CMInfo.CM_STR, "name", docName);
+            chunk.setEventField(CMInfo.CM_INT, "seq", String.valueOf(seq));
+            if (deflate) putBytes(chunk, "text_bin", part.getBytes(StandardCharsets.UTF_8), true);
+            else chunk.setEventField(CMInfo.CM_STR, "text", part);
+            m_serverStub.send(chunk, user);
+            start = end;
+        }
+
+        CMUserEvent end = new RelayEvent();
+        end.setStringID("DOC_END");
+        end.setEventField(CMInfo.CM_STR, "name", docName);
+        end.setEventField(CMInfo.CM_INT, "version", version);
+        end.setEventField(CMInfo.CM_INT, "chunks", String.valueOf(seq));
+        m_serverStub.send(end, user);
     }
 
 
+    /**
+     * tick 마다 모인 한 문서의 편집 연산 묶음을 현재 참여자 모두에게 한 번씩 보낸다.
+     * 같은 이벤트를 모든 참여자에게 그대로 보내며, 작성자는 자기 항목을 확인으로 처리한다.
+     */
+    private void sendOpBatch(OpBatch batch) {
+        Set<String> participants = state.participants(batch.getDocName());
+        if (participants.isEmpty()) return;
+
+        sendToDocument(batch.getDocName(), participants, () -> {
+            CMUserEvent evt = new RelayEvent();
+            evt.setStringID("DOC_OPS");
+            evt.setEventField(CMInfo.CM_STR, "name", batch.getDocName());
+            evt.setEventField(CMInfo.CM_INT, "baseVersion", String.valueOf(batch.getBaseVersion()));
+            evt.setEventField(CMInfo.CM_STR, "entries", batch.encodeEntries());
+            return evt;
+        }, () -> {
+            CMUserEvent evt = new RelayEvent();
+            evt.setStringID("DOC_OPS");
+            evt.setEventField(CMInfo.CM_STR, "name", batch.getDocName());
+            evt.setEventField(CMInfo.CM_INT, "baseVersion", String.valueOf(batch.getBaseVersion()));
+            byte[] bin = WireCodec.encodeEntries(batch.getEntries());
+            evt.setEventBytesField("entries_bin", bin.length, bin);
+            return evt;
+        });
+    }
+
+    /* flusher 의 dirty 양 계산용: 삽입 글자 수 + 삭제 길이 */
+    private static long editSize(List<EditOp> ops) {
+        long size = 0;
+        for (EditOp op : ops) size += op.getLength();
+        return size;
+    }
+
     /**
      * 특정 사용자에게 온라인 목록 전송
      *
      * @param targetUser 전송할 대상 사용자
      */
     private void sendOnlineListToClient(String targetUser) {
-        CMUserEvent listEvt = new CMUserEvent();
+        CMUserEvent listEvt = new RelayEvent();
         listEvt.setStringID("ONLINE_LIST");
-        String userStr = String.join(",", onlineUsers);
-        listEvt.setEventField(CMInfo.CM_STR, "users", userStr);
+        if (isBinary(targetUser)) {
+            byte[] bin = WireCodec.encodeUsers(state.onlineUsers());
+            listEvt.setEventBytesField("users_bin", bin.length, bin);
+        } else {
+            listEvt.setEventField(CMInfo.CM_STR, "users", String.join(",", state.onlineUsers()));
+        }
         m_serverStub.send(listEvt, targetUser);
     }
 
-    private void broadcastDocumentList() {
-        File[] files = new File(DOC_FOLDER).listFiles((d, n) -> n.endsWith(".txt"));
-        JSONArray jsonDocs = new JSONArray();
+    /**
+     * 현재 목록 버전의 LIST_REPLY 이벤트. 버전이 바뀔 때만 새로 직렬화하고,
+     * 같은 버전을 요청하는 사용자들에게는 같은 이벤트를 그대로 보낸다. catalogLock 안에서 호출.
+     */
+    private CMUserEvent listReplyEvent(String user) {
+        int version = catalog.version();
+        if (cachedListVersion != version) {
+            cachedListReply = null;
+            cachedListBin = null;
+            cachedListReplyBin = null;
+            cachedListReplyZ = null;
+            cachedListVersion = version;
+        }
+        if (!isBinary(user)) {
+            if (cachedListReply == null) {
+                CMUserEvent listReply = new RelayEvent();
+                listReply.setStringID("LIST_REPLY");
+                listReply.setEventField(CMInfo.CM_INT, "version", String.valueOf(version));
+                listReply.setEventField(CMInfo.CM_STR, "docs_json", documentListJson().toString());
+                cachedListReply = listReply;
+            }
+            return cachedListReply;
+        }
 
-        if (files != null) {
-            for (File file : files) {
-                String name = file.getName().replaceAll("\\.txt$", "");
-                MetaInfo m = docMeta.get(name);
-                JSONObject obj = new JSONObject();
-                obj.put("name", name);
-                obj.put("creatorId", m != null ? m.creatorId : "unknown");
-                obj.put("lastEditorId", m != null ? m.lastEditorId : "unknown");
-                obj.put("createdTime", m != null ? new Date(m.createdTime).toString() : "unknown");
-                obj.put("lastModifiedTime", m != null ? new Date(m.lastModifiedTime).toString() : new Date(file.lastModified()).toString());
-                obj.put("activeUsers", String.join(",", docUsers.getOrDefault(name, Set.of())));
-
-                jsonDocs.put(obj);
+        if (cachedListBin == null) {
+            WireCodec.Writer w = new WireCodec.Writer();
+            List<Map.Entry<String, DocMeta>> docs = catalog.entries();
+            w.varint(docs.size());
+            for (Map.Entry<String, DocMeta> e : docs) writeDocument(w, e.getKey(), e.getValue());
+            cachedListBin = w.toBytes();
+        }
+        if (acceptsDeflate(user)) {
+            if (cachedListReplyZ == null) {
+                CMUserEvent listReply = new RelayEvent();
+                listReply.setStringID("LIST_REPLY");
+                listReply.setEventField(CMInfo.CM_INT, "version", String.valueOf(version));
+                putBytes(listReply, "docs_bin", cachedListBin, true);
+                cachedListReplyZ = listReply;
             }
+            return cachedListReplyZ;
+        }
+        if (cachedListReplyBin == null) {
+            CMUserEvent listReply = new RelayEvent();
+            listReply.setStringID("LIST_REPLY");
+            listReply.setEventField(CMInfo.CM_INT, "version", String.valueOf(version));
+            putBytes(listReply, "docs_bin", cachedListBin, false);
+            cachedListReplyBin = listReply;
+        }
+        return cachedListReplyBin;
+    }
+
+    /**
+     * 바이트 본문을 넣는다. deflate 가 true 이고 충분히 크면 압축해서 넣고
+     * "deflate"=1, "rawLen"=원래 크기를 함께 표시한다.
+     */
+    private static void putBytes(CMUserEvent evt, String field, byte[] raw, boolean deflate) {
+        byte[] z = deflate ? PayloadCompression.compress(raw) : null;
+        if (z == null) {
+            evt.setEventBytesField(field, raw.length, raw);
+            return;
+        }
+        evt.setEventBytesField(field, z.length, z);
+        evt.setEventField(CMInfo.CM_INT, "deflate", "1");
+        evt.setEventField(CMInfo.CM_INT, "rawLen", String.valueOf(raw.length));
+    }
+
+    /* 문서 내용 필드: deflate 를 지원하면 content_bin(UTF-8, 필요 시 압축), 아니면 content 문자열 */
+    private void putContent(CMUserEvent evt, String user, String content) {
+        if (acceptsDeflate(user)) {
+            putBytes(evt, "content_bin", content.getBytes(StandardCharsets.UTF_8), true);
+        } else {
+            evt.setEventField(CMInfo.CM_STR, "content", content);
         }
+    }
+
+    /* 문서 목록의 한 항목 (바이너리) */
+    private void writeDocument(WireCodec.Writer w, String name, DocMeta m) {
+        WireCodec.writeDoc(w, name, m.creatorId(), m.lastEditorId(),
+                m.createdTime(), m.lastModifiedTime(), state.participants(name));
+    }
 
-        for (String user : onlineUsers) {
-            CMUserEvent evt = new CMUserEvent();
-            evt.setStringID("LIST_REPLY");
-            evt.setEventField(CMInfo.CM_STR, "docs_json", jsonDocs.toString());
-            m_serverStub.send(evt, user);
+    /* 문서 목록(메타데이터 + 현재 참여자)을 JSON 으로 만든다. 디스크는 읽지 않는다. */
+    private JSONArray documentListJson() {
+        JSONArray jsonDocs = new JSONArray();
+        for (Map.Entry<String, DocMeta> e : catalog.entries()) {
+            jsonDocs.put(documentJson(e.getKey(), e.getValue()));
         }
+        return jsonDocs;
+    }
+
+    /* 문서 목록의 한 항목 */
+    private JSONObject documentJson(String name, DocMeta m) {
+        JSONObject obj = new JSONObject();
+        obj.put("name", name);
+        obj.put("creatorId", m.creatorId() != null ? m.creatorId() : "unknown");
+        obj.put("lastEditorId", m.lastEditorId() != null ? m.lastEditorId() : "unknown");
+        obj.put("createdTime", m.createdTime() != 0 ? new Date(m.createdTime()).toString() : "unknown");
+        obj.put("lastModifiedTime", m.lastModifiedTime() != 0 ? new Date(m.lastModifiedTime()).toString() : "unknown");
+        obj.put("activeUsers", String.join(",", state.participants(name)));
+        return obj;
     }
 
+    /**
+     * 문서 목록의 한 항목이 바뀌었음을 모든 접속자에게 알린다 (전체 목록 대신 변경분만).
+     * 목록 버전을 하나 올리고, 클라이언트는 버전이 이어지지 않으면 전체 목록을 다시 요청한다.
+     *
+     * @param op      DOC_ADDED, DOC_REMOVED, DOC_META, DOC_USERS 중 하나
+     * @param docName 바뀐 문서
+     */
+    private void publishDocChange(String op, String docName) {
+        // 버전 증가와 전송 순서가 lane 사이에서 뒤섞이지 않도록 한 번에 하나씩
+        synchronized (catalogLock) {
+            DocMeta m = op.equals(DOC_REMOVED) ? null : catalog.meta(docName);
+            if (!op.equals(DOC_REMOVED) && m == null) return;    // 목록에 없는 문서 (아직 저장된 적 없음)
+            String version = String.valueOf(catalog.nextVersion());
+            sendEach(state.onlineUsers(), () -> {
+                CMUserEvent evt = new RelayEvent();
+                evt.setStringID("DOC_LIST_DELTA");
+                evt.setEventField(CMInfo.CM_STR, "op", op);
+                evt.setEventField(CMInfo.CM_STR, "name", docName);
+                if (m != null) evt.setEventField(CMInfo.CM_STR, "doc_json", documentJson(docName, m).toString());
+                evt.setEventField(CMInfo.CM_INT, "version", version);
+                return evt;
+            }, () -> {
+                CMUserEvent evt = new RelayEvent();
+                evt.setStringID("DOC_LIST_DELTA");
+                evt.setEventField(CMInfo.CM_STR, "op", op);
+                evt.setEventField(CMInfo.CM_STR, "name", docName);
+                if (m != null) {
+                    WireCodec.Writer w = new WireCodec.Writer();
+                    writeDocument(w, docName, m);
+                    byte[] bin = w.toBytes();
+                    evt.setEventBytesField("doc_bin", bin.length, bin);
+                }
+                evt.setEventField(CMInfo.CM_INT, "version", version);
+                return evt;
+            });
+        }
+    }
+
+
 }
@@ -1,5 +1,9 @@
 package cm.core;
 
+import cm.model.DocEntry;
+import cm.model.OpBatch;
+import cm.model.RevisionEntry;
+
 import java.util.List;
 import java.util.Set;
 
@@ -9,12 +13,46 @@ public interface ClientCallback {
     void onLoginResult(boolean success);
 
     /* ---------- 문서 목록 ---------- */
-    /** JSON·DTO 등 구현체가 이해할 수 있는 형식으로 문서 리스트 전달 */
-    void onDocumentListReceived(String docsJson);
+    /** 전체 문서 리스트 (JSON·바이너리 어느 쪽으로 받아도 같은 형태로 전달) */
+    void onDocumentListReceived(List<DocEntry> docs);
+
+    /**
+     * 문서 목록의 한 항목 변경 (op: ADDED, REMOVED, META, USERS).
+     * REMOVED 면 doc 은 null, 아니면 그 문서의 새 항목이다.
+     */
+    default void onDocumentListDelta(String op, String docName, DocEntry doc) {}
 
     /* ---------- 문서 내용 ---------- */
-    /** 특정 문서의 전체 콘텐츠 수신 */
-    void onDocumentContentReceived(String docName, String content);
+    /** 특정 문서의 전체 콘텐츠 수신 (version: 해당 내용의 서버 버전) */
+    void onDocumentContentReceived(String docName, String content, int version);
+
+    /* ---------- 큰 문서 나눠 받기 (DOC_BEGIN → DOC_CHUNK × n → DOC_END) ---------- */
+    /** 문서 열기 시작: 화면을 비우고 이 버전으로 동기화 상태를 준비 (length: 전체 글자 수) */
+    default void onDocumentBegin(String docName, int version, int length) {}
+
+    /** 다음 조각을 문서 끝에 붙인다 */
+    default void onDocumentChunk(String docName, String text) {}
+
+    /** 모든 조각 수신 완료: 편집 가능 상태로 전환 */
+    default void onDocumentEnd(String docName) {}
+
+    /* ---------- 아주 큰 문서 (DOC_LARGE → DOC_RANGE 로 보이는 줄만) ---------- */
+    /** 전체 내용 대신 크기만 받음: 읽기 전용 뷰포트로 열고 보이는 줄을 요청한다 */
+    default void onLargeDocument(String docName, int version, int length, int lines) {}
+
+    /** 요청한 줄 범위 (line: 첫 줄 번호, lines: 문서 전체 줄 수) */
+    default void onDocumentRange(String docName, int version, int line, int lines, String text) {}
+
+    /* ---------- 문서 편집 연산 ---------- */
+    /** 서버에 반영된 편집 연산 묶음 수신 (내 연산은 확인, 다른 사용자 연산은 반영 대상) */
+    default void onDocumentOpsReceived(OpBatch batch) {}
+
+    /* ---------- 리비전 이력 ---------- */
+    /** 문서의 리비전 목록 (오래된 순) */
+    default void onRevisionList(String docName, List<RevisionEntry> revisions) {}
+
+    /** 요청한 지난 리비전의 내용 (content: 없는 리비전이면 null) */
+    default void onRevisionReceived(String docName, int revision, int version, String content) {}
 
     /* ---------- 온라인 사용자 ---------- */
     /** 전체 온라인 사용자 세트 갱신 */
@@ -0,0 +1,70 @@
+package cm.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 최근에 본 문서 내용의 클라이언트 쪽 캐시 (문서명 -> 서버 버전 + 내용).
+ *
+ * 다시 열 때 SELECT_DOC 에 캐시한 버전과 epoch 를 실어 보내면 서버는
+ * 바뀐 게 없으면 DOC_NOT_MODIFIED, 이력이 남아 있으면 DOC_DELTA(그 뒤의 연산), 아니면 전체 내용으로 답한다.
+ * epoch 는 서버가 문서마다 붙이는 식별값이다 (서버 재시작·같은 이름으로 다시 만든 문서면 달라짐).
+ *
+ * 내용은 서버에 모두 반영된 상태(확인 대기 연산 없음)일 때만 넣는다.
+ * 전체 글자 수가 한도를 넘으면 오래 안 쓴 문서부터 버린다. 메모리에만 둔다.
+ *
+ * 설정: -Dcm.cache.chars (기본 16M 글자)
+ */
+public class DocumentCache {
+    /** 캐시 항목 */
+    public record Entry(String epoch, int version, String content) {}
+
+    private final long maxChars;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);   // guarded by this
+    private final Map<String, String> epochs = new HashMap<>();                                   // 마지막으로 받은 epoch, guarded by this
+    private long chars;                                                                           // guarded by this
+
+    public DocumentCache() {
+        this(Long.getLong("cm.cache.chars", 16L * 1024 * 1024));
+    }
+
+    public DocumentCache(long maxChars) {
+        this.maxChars = Math.max(0, maxChars);
+    }
+
+    /** 서버가 알려 준 문서의 epoch 를 기억한다 (DOC_CONTENT 등을 받을 때). */
+    public synchronized void seen(String name, String epoch) {
+        if (epoch == null) return;
+        String old = epochs.put(name, epoch);
+        if (old != null && !old.equals(epoch)) remove(name);   // 다른 문서가 됨
+    }
+
+    /** @return 없으면 null */
+    public synchronized Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * 서버 버전 version 의 내용을 넣는다. epoch 를 모르는 문서는 넣지 않는다.
+     */
+    public synchronized void put(String name, int version, String content) {
+        String epoch = epochs.get(name);
+        if (epoch == null || content.length() > maxChars) return;
+        Entry old = entries.put(name, new Entry(epoch, version, content));
+        chars += content.length() - (old == null ? 0 : old.content().length());
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (chars > maxChars && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().equals(name)) continue;   // 방금 넣은 항목은 남긴다
+            chars -= e.getValue().content().length();
+            it.remove();
+        }
+    }
+
+    public synchronized void remove(String name) {
+        Entry old = entries.remove(name);
+        if (old != null) chars -= old.content().length();
+    }
+}
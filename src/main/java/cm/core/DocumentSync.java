@@ -0,0 +1,180 @@
+package cm.core;
+
+import cm.model.EditOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 클라이언트 쪽 문서 동기화 상태 (한 번에 하나의 문서).
+ *
+ * 서버로 보낸 뒤 확인(EDIT_ACK)을 기다리는 연산(outstanding)은 최대 한 묶음만 두고,
+ * 그 사이의 로컬 편집은 buffer 에 모아 두었다가 확인이 오면 한 번에 보낸다.
+ * 다른 사용자의 연산은 아직 서버에 반영되지 않은 로컬 연산들에 대해 변환한 뒤 적용한다.
+ *
+ * 확인된 서버 내용(confirmed)도 함께 따라가서, 편집 중에 문서 전체를 다시 받으면(재동기화)
+ * 로컬 연산을 버리지 않고 새 내용 위로 옮겨(rebase) 다시 보낸다. 보낸 연산이 그 내용에 들어 있는지는
+ * 서버 처리 순서로 정해진다: 전체 요청 전에 보낸 연산은 들어 있고, 거부(rejected)된 연산은 들어 있지 않다.
+ * 그래서 전체 내용을 요청한 뒤 받을 때까지는 새 연산을 보내지 않고 모아 둔다.
+ */
+public class DocumentSync {
+    private String docName = "";
+    private int version;                 // 마지막으로 확인된 서버 버전
+    private List<EditOp> outstanding;    // 전송 후 확인 대기 중 (null: 없음)
+    private List<EditOp> buffer;         // 아직 전송하지 않은 로컬 연산 (null: 없음)
+    private StringBuilder confirmed;     // version 의 서버 내용 (null: 모름 → 재동기화 때 로컬 연산을 옮길 수 없음)
+    private boolean rejected;            // 서버가 outstanding 을 적용하지 못하고 전체 내용을 다시 보냄
+    private boolean awaitingContent;     // 전체 내용을 요청함: 받을 때까지 새 연산을 보내지 않는다
+    private boolean resentRejected;      // 거부된 연산을 옮겨 다시 보냈음 (또 거부되면 버린다: 무한 재전송 방지)
+
+    /** 재동기화 결과: 화면에 적용할 연산과, 새 내용 위로 옮겨 다시 보낼 로컬 연산 (없으면 null) */
+    public record Resync(List<EditOp> screenOps, List<EditOp> resend) {}
+
+    /** 문서 전체를 새로 받았을 때 상태를 초기화한다 (내용을 모르는 경우: 나눠 받기 시작, 큰 문서). */
+    public synchronized void reset(String name, int newVersion) {
+        docName = name == null ? "" : name;
+        version = newVersion;
+        outstanding = null;
+        buffer = null;
+        confirmed = null;
+        rejected = false;
+        awaitingContent = false;
+        resentRejected = false;
+    }
+
+    /** 나눠 받은 문서를 다 받았다: 그 내용을 확인된 서버 내용으로 둔다. */
+    public synchronized void loaded(String name, String content) {
+        if (name.equals(docName) && isSettled()) confirmed = new StringBuilder(content);
+    }
+
+    /**
+     * 같은 문서의 전체 내용을 받았다 (버전 newVersion).
+     * 다른 문서이거나 로컬 연산이 없거나 확인된 내용을 모르면 초기화만 하고 null 을 반환한다 (화면은 내용으로 교체).
+     * 로컬 연산이 있으면 새 내용 위로 옮긴다: 화면에는 screenOps 를 적용하고, resend 는 새 버전 기준으로 다시 보낸다.
+     */
+    public synchronized Resync resync(String name, int newVersion, String content) {
+        if (!name.equals(docName) || isSettled() || confirmed == null || (rejected && resentRejected)) {
+            if (rejected && resentRejected) System.err.println("문서 [" + name + "] 다시 보낸 편집도 거부됨 → 로컬 편집을 버림");
+            reset(name, newVersion);
+            confirmed = new StringBuilder(content);
+            return null;
+        }
+        boolean resending = rejected;
+        // 서버 내용의 기준: 확인된 내용 + (거부되지 않았으면) 보낸 연산
+        StringBuilder base = new StringBuilder(confirmed);
+        List<EditOp> local = new ArrayList<>();
+        if (outstanding != null) {
+            if (rejected) local.addAll(outstanding);
+            else applyTo(base, outstanding);
+        }
+        if (buffer != null) local.addAll(buffer);
+        // 화면 = base + local 이므로, base → content 변경과 서로 변환하면 화면 = content + local'
+        OperationTransform.Pair p = OperationTransform.transform(local, EditOp.diff(base.toString(), content), false);
+
+        reset(name, newVersion);
+        confirmed = new StringBuilder(content);
+        if (!p.first().isEmpty()) outstanding = p.first();
+        resentRejected = resending && outstanding != null;
+        return new Resync(p.second(), outstanding);
+    }
+
+    /** 서버가 보낸 연산을 적용하지 못했다 (이어서 오는 전체 내용에 들어 있지 않음). */
+    public synchronized void rejected(String name) {
+        if (name.equals(docName) && outstanding != null) rejected = true;
+    }
+
+    /** 이 문서의 전체 내용을 요청했다: 받을 때까지 로컬 연산은 모아만 둔다. */
+    public synchronized void awaitContent(String name) {
+        if (name.equals(docName)) awaitingContent = true;
+    }
+
+    /** 보내지 않고 모아 두기만 한다 (재동기화 직전 화면에 남은 편집). */
+    public synchronized void hold(List<EditOp> ops) {
+        if (ops.isEmpty()) return;
+        if (buffer == null) buffer = new ArrayList<>();
+        buffer.addAll(ops);
+    }
+
+    public synchronized String getDocName() {
+        return docName;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /** 보냈거나 보낼 로컬 연산이 없어 화면 내용이 서버 버전과 같은 상태인지 */
+    public synchronized boolean isSettled() {
+        return outstanding == null && buffer == null;
+    }
+
+    /**
+     * 로컬 편집을 등록한다.
+     *
+     * @return 지금 서버로 보내야 할 연산, 확인 대기 중이면 null
+     */
+    public synchronized List<EditOp> localEdit(List<EditOp> ops) {
+        if (outstanding == null && buffer == null && !awaitingContent) {
+            outstanding = ops;
+            return ops;
+        }
+        if (buffer == null) buffer = new ArrayList<>();
+        buffer.addAll(ops);
+        return null;
+    }
+
+    /**
+     * 보낸 연산이 서버에 반영됐다.
+     *
+     * @return 이어서 보낼 연산(모아 둔 buffer), 없으면 null
+     */
+    public synchronized List<EditOp> ack(int newVersion) {
+        version = newVersion;
+        if (confirmed != null && outstanding != null) applyTo(confirmed, outstanding);
+        rejected = false;
+        resentRejected = false;
+        if (awaitingContent) {
+            outstanding = null;   // buffer 는 전체 내용을 받은 뒤 옮겨서 보낸다
+            return null;
+        }
+        outstanding = buffer;
+        buffer = null;
+        return outstanding;
+    }
+
+    /**
+     * 다른 사용자의 연산을 받는다.
+     *
+     * @return 로컬 문서에 적용할 (변환된) 연산
+     */
+    public synchronized List<EditOp> remote(List<EditOp> ops, int newVersion) {
+        version = newVersion;
+        if (confirmed != null) applyTo(confirmed, ops);
+        List<EditOp> incoming = ops;
+        // 서버에서는 이미 적용된 연산이 먼저이므로 로컬 연산이 양보(aWins=false)
+        if (outstanding != null) {
+            OperationTransform.Pair p = OperationTransform.transform(outstanding, incoming, false);
+            outstanding = p.first();
+            incoming = p.second();
+        }
+        if (buffer != null) {
+            OperationTransform.Pair p = OperationTransform.transform(buffer, incoming, false);
+            buffer = new ArrayList<>(p.first());
+            incoming = p.second();
+        }
+        return incoming;
+    }
+
+    /* 확인된 내용에 서버 순서의 연산을 적용한다. 맞지 않으면 내용을 모르는 것으로 둔다 */
+    private void applyTo(StringBuilder text, List<EditOp> ops) {
+        for (EditOp op : ops) {
+            int end = op.getOffset() + (op.isInsert() ? 0 : op.getLength());
+            if (end > text.length()) {
+                if (text == confirmed) confirmed = null;
+                return;
+            }
+            if (op.isInsert()) text.insert(op.getOffset(), op.getText());
+            else text.delete(op.getOffset(), end);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cm.core;
+
+import cm.model.EditOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 같은 문서 버전에서 동시에 만들어진 편집 연산들을 서로의 뒤에 적용할 수 있도록 변환한다 (OT).
+ * 서버(버전 이력에 대한 변환)와 클라이언트(미확인 로컬 연산에 대한 변환)가 같은 규칙을 쓴다.
+ *
+ * 기본 성질: apply(apply(S, a), b') == apply(apply(S, b), a')
+ */
+public final class OperationTransform {
+
+    /** 변환 결과 (first: b 이후의 a, second: a 이후의 b) */
+    public record Pair(List<EditOp> first, List<EditOp> second) {}
+
+    private OperationTransform() {}
+
+    /**
+     * a 와 b 를 서로에 대해 변환한다.
+     *
+     * @param aWins 같은 위치에 동시에 삽입한 경우 a 의 텍스트를 앞에 둘지 여부
+     */
+    public static Pair transform(List<EditOp> a, List<EditOp> b, boolean aWins) {
+        if (a.isEmpty() || b.isEmpty()) return new Pair(a, b);
+
+        // 긴 목록은 반으로 나누어 차례로 변환 (재귀 깊이 O(log n))
+        if (a.size() > 1) {
+            int mid = a.size() / 2;
+            Pair head = transform(a.subList(0, mid), b, aWins);
+            Pair tail = transform(a.subList(mid, a.size()), head.second(), aWins);
+            return new Pair(concat(head.first(), tail.first()), tail.second());
+        }
+        if (b.size() > 1) {
+            int mid = b.size() / 2;
+            Pair head = transform(a, b.subList(0, mid), aWins);
+            Pair tail = transform(head.first(), b.subList(mid, b.size()), aWins);
+            return new Pair(tail.first(), concat(head.second(), tail.second()));
+        }
+        EditOp x = a.get(0), y = b.get(0);
+        return new Pair(transformOne(x, y, aWins), transformOne(y, x, !aWins));
+    }
+
+    /** b 가 먼저 적용된 문서 기준으로 a 를 변환한다. */
+    public static List<EditOp> transformAgainst(List<EditOp> a, List<EditOp> b, boolean aWins) {
+        return transform(a, b, aWins).first();
+    }
+
+    /* 단일 연산 a 를 b 이후 기준으로 변환. 삭제 범위 안에 삽입이 들어오면 둘로 쪼개진다. */
+    private static List<EditOp> transformOne(EditOp a, EditOp b, boolean aFirst) {
+        if (a.isNoop()) return List.of();
+        if (b.isNoop()) return List.of(a);
+
+        int aEnd = a.getOffset() + a.getLength();
+        int bEnd = b.getOffset() + b.getLength();
+
+        if (a.isInsert()) {
+            if (b.isInsert()) {
+                boolean before = a.getOffset() < b.getOffset()
+                        || (a.getOffset() == b.getOffset() && aFirst);
+                return List.of(before ? a : a.withOffset(a.getOffset() + b.getLength()));
+            }
+            if (a.getOffset() <= b.getOffset()) return List.of(a);
+            if (a.getOffset() >= bEnd) return List.of(a.withOffset(a.getOffset() - b.getLength()));
+            return List.of(a.withOffset(b.getOffset()));   // 지워진 범위 안 → 삭제 시작점으로
+        }
+
+        if (b.isInsert()) {
+            if (b.getOffset() >= aEnd) return List.of(a);
+            if (b.getOffset() <= a.getOffset()) return List.of(a.withOffset(a.getOffset() + b.getLength()));
+            // 삭제 범위 한가운데에 삽입 → 삽입된 텍스트는 남기고 양쪽만 삭제
+            int headLen = b.getOffset() - a.getOffset();
+            return List.of(EditOp.delete(a.getOffset(), headLen),
+                    EditOp.delete(a.getOffset() + b.getLength(), a.getLength() - headLen));
+        }
+
+        if (aEnd <= b.getOffset()) return List.of(a);
+        if (a.getOffset() >= bEnd) return List.of(a.withOffset(a.getOffset() - b.getLength()));
+        int overlap = Math.min(aEnd, bEnd) - Math.max(a.getOffset(), b.getOffset());
+        int remaining = a.getLength() - overlap;
+        return remaining == 0
+                ? List.of()
+                : List.of(EditOp.delete(Math.min(a.getOffset(), b.getOffset()), remaining));
+    }
+
+    private static List<EditOp> concat(List<EditOp> x, List<EditOp> y) {
+        if (x.isEmpty()) return y;
+        if (y.isEmpty()) return x;
+        List<EditOp> out = new ArrayList<>(x.size() + y.size());
+        out.addAll(x);
+        out.addAll(y);
+        return out;
+    }
+}
@@ -9,6 +9,7 @@ public class ClientState {
     private boolean loggedIn   = false;   // (= 기존 loginResult)
     private boolean docOpen    = false;
     private String  currentDoc = "";
+    private String  userName   = "";      // 로그인한 사용자 ID
 
     /* ---------- getters / setters ---------- */
     public boolean isLoggedIn()            { return loggedIn; }
@@ -20,6 +21,9 @@ public class ClientState {
     public String  getCurrentDoc()         { return currentDoc; }
     public void    setCurrentDoc(String n) { this.currentDoc = n == null ? "" : n; }
 
+    public String  getUserName()           { return userName; }
+    public void    setUserName(String n)   { this.userName = n == null ? "" : n; }
+
     /** 초기화(로그아웃) method */
     public void reset() {
         loggedIn   = false;
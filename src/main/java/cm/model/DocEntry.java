@@ -0,0 +1,11 @@
+package cm.model;
+
+import java.util.List;
+
+/**
+ * 클라이언트가 받는 문서 목록의 한 항목 (화면에 그대로 쓰는 형태).
+ * 시각은 서버가 보낸 표시 문자열이며, 모르는 값은 "unknown" 이다.
+ */
+public record DocEntry(String name, String creatorId, String lastEditorId,
+                       String createdTime, String lastModifiedTime, List<String> activeUsers) {
+}
@@ -0,0 +1,148 @@
+package cm.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 문서에 대한 단일 편집 연산(삽입 또는 삭제).
+ * 클라이언트와 서버가 문서 전체 대신 이 연산만 주고받는다.
+ *
+ * 직렬화 형식: 연산마다 {@code <I|D><offset>,<length>:[text]} 를 이어 붙인다.
+ * 삽입(I)은 length 만큼의 text 가 ':' 뒤에 그대로 따라오고, 삭제(D)는 text 가 없다.
+ */
+public final class EditOp {
+
+    public enum Type { INSERT, DELETE }
+
+    private final Type type;
+    private final int offset;
+    private final int length;
+    private final String text;   // INSERT 일 때만 의미 있음 (DELETE 는 "")
+
+    private EditOp(Type type, int offset, int length, String text) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset/length must be >= 0: " + offset + "," + length);
+        }
+        this.type = type;
+        this.offset = offset;
+        this.length = length;
+        this.text = text;
+    }
+
+    /* ---------- Factory ---------- */
+    public static EditOp insert(int offset, String text) {
+        return new EditOp(Type.INSERT, offset, text.length(), text);
+    }
+
+    public static EditOp delete(int offset, int length) {
+        return new EditOp(Type.DELETE, offset, length, "");
+    }
+
+    /* ---------- Getters ---------- */
+    public Type getType()     { return type; }
+    public boolean isInsert() { return type == Type.INSERT; }
+    public int getOffset()    { return offset; }
+    public int getLength()    { return length; }
+    public String getText()   { return text; }
+
+    /** 연산이 문서를 전혀 바꾸지 않는지 여부 */
+    public boolean isNoop() {
+        return length == 0;
+    }
+
+    /** 같은 종류·길이로 offset 만 옮긴 연산 */
+    public EditOp withOffset(int newOffset) {
+        return new EditOp(type, newOffset, length, text);
+    }
+
+    /** 문자열에 연산을 적용한 결과를 반환한다. */
+    public String applyTo(String content) {
+        if (offset > content.length() || (!isInsert() && offset + length > content.length())) {
+            throw new IllegalArgumentException("op out of range: " + this + " (doc length=" + content.length() + ")");
+        }
+        return isInsert()
+                ? content.substring(0, offset) + text + content.substring(offset)
+                : content.substring(0, offset) + content.substring(offset + length);
+    }
+
+    /**
+     * before 를 after 로 바꾸는 최소 연산 (공통 앞·뒤 부분을 뺀 가운데만 삭제 후 삽입).
+     * 같으면 빈 목록. 연산은 순서대로 적용한다.
+     */
+    public static List<EditOp> diff(String before, String after) {
+        int max = Math.min(before.length(), after.length());
+        int prefix = 0;
+        while (prefix < max && before.charAt(prefix) == after.charAt(prefix)) prefix++;
+        // 서로게이트 쌍 중간에서 자르지 않는다
+        if (prefix > 0 && prefix < max && Character.isHighSurrogate(before.charAt(prefix - 1))) prefix--;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) suffix++;
+        if (suffix > 0 && suffix < max - prefix
+                && Character.isLowSurrogate(before.charAt(before.length() - suffix))) suffix--;
+
+        List<EditOp> ops = new ArrayList<>(2);
+        int removed = before.length() - prefix - suffix;
+        if (removed > 0) ops.add(delete(prefix, removed));
+        if (after.length() - prefix - suffix > 0) ops.add(insert(prefix, after.substring(prefix, after.length() - suffix)));
+        return ops;
+    }
+
+    /* ---------- 직렬화 ---------- */
+    public static String encode(List<EditOp> ops) {
+        StringBuilder sb = new StringBuilder();
+        for (EditOp op : ops) {
+            sb.append(op.isInsert() ? 'I' : 'D')
+              .append(op.offset).append(',').append(op.length).append(':');
+            if (op.isInsert()) sb.append(op.text);
+        }
+        return sb.toString();
+    }
+
+    public static List<EditOp> decode(String s) {
+        List<EditOp> ops = new ArrayList<>();
+        if (s == null) return ops;
+        int i = 0;
+        while (i < s.length()) {
+            char kind = s.charAt(i++);
+            int comma = s.indexOf(',', i);
+            int colon = s.indexOf(':', comma + 1);
+            if (comma < 0 || colon < 0 || (kind != 'I' && kind != 'D')) {
+                throw new IllegalArgumentException("malformed op list at " + (i - 1));
+            }
+            int offset = Integer.parseInt(s, i, comma, 10);
+            int length = Integer.parseInt(s, comma + 1, colon, 10);
+            i = colon + 1;
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException("negative offset/length at " + i + ": " + offset + "," + length);
+            }
+            if (kind == 'I') {
+                if (length > s.length() - i) {
+                    throw new IllegalArgumentException("insert text truncated at " + i + " (length=" + length + ")");
+                }
+                ops.add(insert(offset, s.substring(i, i + length)));
+                i += length;
+            } else {
+                ops.add(delete(offset, length));
+            }
+        }
+        return ops;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof EditOp other)) return false;
+        return type == other.type && offset == other.offset
+                && length == other.length && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.hashCode() * 31 + offset) * 31 + length;
+    }
+
+    @Override
+    public String toString() {
+        return isInsert() ? "insert(" + offset + ",\"" + text + "\")" : "delete(" + offset + "," + length + ")";
+    }
+}
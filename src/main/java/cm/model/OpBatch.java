@@ -0,0 +1,67 @@
+package cm.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 한 문서에 대해 서버가 연속으로 적용한 편집 연산 묶음 (DOC_OPS 이벤트).
+ * i 번째 항목은 버전 baseVersion + i + 1 에 해당한다.
+ * 받는 쪽은 author 가 자신이면 확인(ack)으로, 아니면 다른 사용자의 편집으로 처리한다.
+ *
+ * 항목 직렬화 형식: {@code <author 길이>:<author><ops 길이>:<EditOp.encode(ops)>} 반복
+ */
+public final class OpBatch {
+
+    public record Entry(String author, List<EditOp> ops) {}
+
+    private final String docName;
+    private final int baseVersion;
+    private final List<Entry> entries;
+
+    public OpBatch(String docName, int baseVersion, List<Entry> entries) {
+        this.docName = docName;
+        this.baseVersion = baseVersion;
+        this.entries = List.copyOf(entries);
+    }
+
+    public String getDocName()      { return docName; }
+    public int getBaseVersion()     { return baseVersion; }
+    public List<Entry> getEntries() { return entries; }
+
+    /** 묶음을 모두 적용한 뒤의 버전 */
+    public int getLastVersion() {
+        return baseVersion + entries.size();
+    }
+
+    /* ---------- 직렬화 ---------- */
+    public String encodeEntries() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : entries) {
+            String ops = EditOp.encode(e.ops());
+            sb.append(e.author().length()).append(':').append(e.author())
+              .append(ops.length()).append(':').append(ops);
+        }
+        return sb.toString();
+    }
+
+    public static List<Entry> decodeEntries(String s) {
+        List<Entry> out = new ArrayList<>();
+        if (s == null) return out;
+        int[] pos = {0};
+        while (pos[0] < s.length()) {
+            String author = readField(s, pos);
+            String ops = readField(s, pos);
+            out.add(new Entry(author, EditOp.decode(ops)));
+        }
+        return out;
+    }
+
+    private static String readField(String s, int[] pos) {
+        int colon = s.indexOf(':', pos[0]);
+        if (colon < 0) throw new IllegalArgumentException("malformed batch at " + pos[0]);
+        int len = Integer.parseInt(s, pos[0], colon, 10);
+        String field = s.substring(colon + 1, colon + 1 + len);
+        pos[0] = colon + 1 + len;
+        return field;
+    }
+}
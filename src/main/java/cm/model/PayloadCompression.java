@@ -0,0 +1,69 @@
+package cm.model;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 큰 이벤트 본문(문서 내용, 문서 목록)의 deflate 압축.
+ *
+ * 일정 크기 이상일 때만 압축하고, 줄어들지 않으면 압축하지 않는다.
+ * Deflater/Inflater 는 만들고 해제하는 비용이 커서 스레드마다 하나를 재사용한다.
+ * 압축한 이벤트에는 "deflate"=1 과 원래 크기 "rawLen" 을 함께 넣는다.
+ *
+ * 설정: -Dcm.wire.compressMin (기본 4096 바이트)
+ */
+public final class PayloadCompression {
+    public static final int MIN_SIZE = Integer.getInteger("cm.wire.compressMin", 4096);
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * @return 압축한 바이트, 작거나 압축해도 줄지 않으면 null
+     */
+    public static byte[] compress(byte[] raw) {
+        if (raw.length < MIN_SIZE) return null;
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] out = new byte[raw.length];
+        int n = 0;
+        while (!deflater.finished() && n < out.length) {
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        if (!deflater.finished()) return null;   // 원본보다 커짐
+        byte[] result = new byte[n];
+        System.arraycopy(out, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * @param rawLen 압축 전 크기
+     * @throws IllegalArgumentException 데이터가 깨졌거나 크기가 맞지 않을 때
+     */
+    public static byte[] decompress(byte[] data, int rawLen) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data);
+        byte[] out = new byte[rawLen];
+        try {
+            int n = 0;
+            while (n < rawLen && !inflater.finished()) {
+                int k = inflater.inflate(out, n, rawLen - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += k;
+            }
+            if (n != rawLen || !inflater.finished()) {
+                throw new IllegalArgumentException("inflated size mismatch: " + n + " != " + rawLen);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt deflate payload", e);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,9 @@
+package cm.model;
+
+/**
+ * 문서 리비전 목록의 한 항목 (REVISIONS 응답).
+ * revision 은 문서마다 1 부터 이어지는 번호, version 은 저장 당시의 문서 버전이다.
+ * 시각은 서버가 보낸 표시 문자열이다.
+ */
+public record RevisionEntry(int revision, int version, String time, String author) {
+}
@@ -0,0 +1,240 @@
+package cm.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 앱 이벤트의 바이너리 인코딩 (CM_BYTES 필드에 담는다).
+ *
+ * 정수는 varint(LEB128), 문자열은 [varint 바이트 수][UTF-8] 로 쓴다.
+ * 사용자 ID 는 메시지마다 문자열 표에 한 번만 두고 본문에서는 번호로 가리킨다 (0 = 없음).
+ * 메시지 형식: [varint 표 크기][표 문자열...][본문]
+ *
+ * 본문 형식
+ * <ul>
+ *   <li>문서 목록: [varint 개수][항목...]</li>
+ *   <li>문서 항목: [이름][사용자 생성자][사용자 마지막 편집자][varint 생성 시각][varint 수정 시각][사용자 목록 참여자]</li>
+ *   <li>사용자 목록: [varint 개수][사용자...]</li>
+ *   <li>편집 연산: [varint 개수] 이후 삽입 [0][varint 위치][문자열], 삭제 [1][varint 위치][varint 길이]</li>
+ *   <li>연산 묶음 항목: [varint 개수] 이후 [사용자 작성자][편집 연산]</li>
+ * </ul>
+ * 시각이 0 이면 모르는 값이다.
+ */
+public final class WireCodec {
+    private static final String UNKNOWN = "unknown";
+
+    private WireCodec() {
+    }
+
+    /* ================= 쓰기 ================= */
+    public static final class Writer {
+        private byte[] buf = new byte[64];
+        private int len;
+        private final Map<String, Integer> userIds = new HashMap<>();
+        private final List<String> users = new ArrayList<>();
+
+        public Writer varint(long v) {
+            if (v < 0) throw new IllegalArgumentException("negative varint: " + v);
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+            return this;
+        }
+
+        public Writer string(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        /** 사용자 ID (null 가능) 를 표 번호로 쓴다. */
+        public Writer user(String id) {
+            if (id == null) return varint(0);
+            Integer n = userIds.get(id);
+            if (n == null) {
+                users.add(id);
+                n = users.size();
+                userIds.put(id, n);
+            }
+            return varint(n);
+        }
+
+        public Writer users(Collection<String> ids) {
+            varint(ids.size());
+            for (String id : ids) user(id);
+            return this;
+        }
+
+        /** 표 + 본문을 합친 메시지 */
+        public byte[] toBytes() {
+            Writer head = new Writer();
+            head.varint(users.size());
+            for (String u : users) head.string(u);
+            byte[] out = Arrays.copyOf(head.buf, head.len + len);
+            System.arraycopy(buf, 0, out, head.len, len);
+            return out;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+
+    /* ================= 읽기 ================= */
+    public static final class Reader {
+        private final byte[] buf;
+        private int pos;
+        private final String[] users;
+
+        public Reader(byte[] data) {
+            this.buf = data;
+            int n = varintInt();
+            users = new String[n];
+            for (int i = 0; i < n; i++) users[i] = string();
+        }
+
+        public long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= buf.length) throw new IllegalArgumentException("truncated varint");
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IllegalArgumentException("varint too long");
+        }
+
+        public int varintInt() {
+            long v = varint();
+            if (v > Integer.MAX_VALUE) throw new IllegalArgumentException("int out of range: " + v);
+            return (int) v;
+        }
+
+        public String string() {
+            int n = varintInt();
+            if (n > buf.length - pos) throw new IllegalArgumentException("truncated string");
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        public String user() {
+            int n = varintInt();
+            if (n == 0) return null;
+            if (n > users.length) throw new IllegalArgumentException("bad user index: " + n);
+            return users[n - 1];
+        }
+
+        public List<String> users() {
+            int n = varintInt();
+            List<String> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) out.add(user());
+            return out;
+        }
+    }
+
+    /* ================= 메시지 ================= */
+
+    /** 문서 항목 하나를 쓴다 (서버). 시각은 모르면 0. */
+    public static void writeDoc(Writer w, String name, String creatorId, String lastEditorId,
+                                long createdTime, long lastModifiedTime, Collection<String> activeUsers) {
+        w.string(name).user(creatorId).user(lastEditorId)
+                .varint(createdTime).varint(lastModifiedTime).users(activeUsers);
+    }
+
+    public static DocEntry readDoc(Reader r) {
+        String name = r.string();
+        String creator = r.user();
+        String editor = r.user();
+        long created = r.varint();
+        long modified = r.varint();
+        return new DocEntry(name,
+                creator == null ? UNKNOWN : creator,
+                editor == null ? UNKNOWN : editor,
+                formatTime(created), formatTime(modified), r.users());
+    }
+
+    public static List<DocEntry> readDocList(byte[] data) {
+        Reader r = new Reader(data);
+        int n = r.varintInt();
+        List<DocEntry> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(readDoc(r));
+        return out;
+    }
+
+    public static byte[] encodeUsers(Collection<String> users) {
+        return new Writer().users(users).toBytes();
+    }
+
+    public static List<String> decodeUsers(byte[] data) {
+        return new Reader(data).users();
+    }
+
+    public static void writeOps(Writer w, List<EditOp> ops) {
+        w.varint(ops.size());
+        for (EditOp op : ops) {
+            if (op.isInsert()) w.varint(0).varint(op.getOffset()).string(op.getText());
+            else w.varint(1).varint(op.getOffset()).varint(op.getLength());
+        }
+    }
+
+    public static List<EditOp> readOps(Reader r) {
+        int n = r.varintInt();
+        List<EditOp> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int type = r.varintInt();
+            int offset = r.varintInt();
+            if (type == 0) ops.add(EditOp.insert(offset, r.string()));
+            else if (type == 1) ops.add(EditOp.delete(offset, r.varintInt()));
+            else throw new IllegalArgumentException("bad op type: " + type);
+        }
+        return ops;
+    }
+
+    public static byte[] encodeOps(List<EditOp> ops) {
+        Writer w = new Writer();
+        writeOps(w, ops);
+        return w.toBytes();
+    }
+
+    public static List<EditOp> decodeOps(byte[] data) {
+        return readOps(new Reader(data));
+    }
+
+    public static byte[] encodeEntries(List<OpBatch.Entry> entries) {
+        Writer w = new Writer();
+        w.varint(entries.size());
+        for (OpBatch.Entry e : entries) {
+            w.user(e.author());
+            writeOps(w, e.ops());
+        }
+        return w.toBytes();
+    }
+
+    public static List<OpBatch.Entry> decodeEntries(byte[] data) {
+        Reader r = new Reader(data);
+        int n = r.varintInt();
+        List<OpBatch.Entry> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String author = r.user();
+            out.add(new OpBatch.Entry(author, readOps(r)));
+        }
+        return out;
+    }
+
+    private static String formatTime(long time) {
+        return time == 0 ? UNKNOWN : new Date(time).toString();
+    }
+}
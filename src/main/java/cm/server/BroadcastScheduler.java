@@ -0,0 +1,112 @@
+package cm.server;
+
+import cm.model.EditOp;
+import cm.model.OpBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 문서별 편집 연산을 모아 두었다가 tick 마다 하나의 {@link OpBatch} 로 내보낸다.
+ * 참여자 수 × 입력 속도만큼 보내던 것을 참여자 수 × tick 횟수로 줄인다.
+ *
+ * 문서는 마지막 연산 후 tick 동안 새 연산이 없거나(입력이 잠시 멈춤),
+ * 첫 연산이 들어온 지 maxDelay 가 지나면 내보낸다.
+ *
+ * 설정: -Dcm.broadcast.tickMs (기본 20), -Dcm.broadcast.maxDelayMs (기본 100)
+ */
+public class BroadcastScheduler {
+
+    /** 묶음을 실제로 참여자들에게 보내는 쪽 */
+    public interface Sink {
+        void send(OpBatch batch);
+    }
+
+    private static final class Pending {
+        final int baseVersion;
+        final List<OpBatch.Entry> entries = new ArrayList<>();
+        final long firstAt;
+        long lastAt;
+
+        Pending(int baseVersion, long now) {
+            this.baseVersion = baseVersion;
+            this.firstAt = now;
+            this.lastAt = now;
+        }
+    }
+
+    private final Sink sink;
+    private final long tickMs;
+    private final long maxDelayMs;
+    private final Map<String, Pending> pending = new HashMap<>();   // guarded by this
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "doc-broadcast");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public BroadcastScheduler(Sink sink) {
+        this(sink, Long.getLong("cm.broadcast.tickMs", 20), Long.getLong("cm.broadcast.maxDelayMs", 100));
+    }
+
+    public BroadcastScheduler(Sink sink, long tickMs, long maxDelayMs) {
+        this.sink = sink;
+        this.tickMs = Math.max(1, tickMs);
+        this.maxDelayMs = Math.max(this.tickMs, maxDelayMs);
+    }
+
+    public void start() {
+        timer.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        timer.shutdown();
+    }
+
+    /**
+     * 적용된 연산 하나를 예약한다.
+     *
+     * @param version 이 연산을 적용한 뒤의 문서 버전
+     */
+    public synchronized void submit(String docName, String author, List<EditOp> ops, int version) {
+        long now = System.currentTimeMillis();
+        Pending p = pending.computeIfAbsent(docName, d -> new Pending(version - 1, now));
+        p.entries.add(new OpBatch.Entry(author, ops));
+        p.lastAt = now;
+    }
+
+    /** 삭제된 문서의 예약분을 버린다. */
+    public synchronized void discard(String docName) {
+        pending.remove(docName);
+    }
+
+    private void tick() {
+        List<OpBatch> ready = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Pending> e = it.next();
+                Pending p = e.getValue();
+                if (now - p.lastAt >= tickMs || now - p.firstAt >= maxDelayMs) {
+                    ready.add(new OpBatch(e.getKey(), p.baseVersion, p.entries));
+                    it.remove();
+                }
+            }
+        }
+        // 전송은 잠금 밖에서 (그 사이 들어온 연산은 다음 묶음으로)
+        for (OpBatch batch : ready) {
+            try {
+                sink.send(batch);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cm.server;
+
+/**
+ * 문서 메타데이터 (불변). 변경 시에는 새 객체로 교체한다.
+ * 기록이 없어 모르는 사용자는 null, 모르는 시각은 0 이다.
+ */
+public record DocMeta(String creatorId, String lastEditorId, long createdTime, long lastModifiedTime) {
+
+    public static DocMeta created(String creatorId, long time) {
+        return new DocMeta(creatorId, creatorId, time, time);
+    }
+
+    /** 마지막 편집자·편집 시각만 바꾼 사본 */
+    public DocMeta edited(String editorId, long time) {
+        return new DocMeta(creatorId, editorId, createdTime, time);
+    }
+}
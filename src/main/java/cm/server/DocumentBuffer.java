@@ -0,0 +1,116 @@
+package cm.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import cm.core.OperationTransform;
+import cm.model.EditOp;
+
+/**
+ * 서버에 올라와 있는 문서 하나의 가변 버퍼.
+ * 내용은 불변 {@link Rope} 로 보관하므로 {@link #snapshot()} 은 복사 없이 O(1) 이다.
+ *
+ * 수정(apply/replaceAll)은 그 문서의 lane 에서만 호출한다.
+ * 내용과 버전은 하나의 {@link Snapshot} 으로 함께 교체되므로 다른 스레드도 일관된 쌍을 읽는다.
+ */
+public class DocumentBuffer {
+    /** 동시 편집 변환을 위해 보관하는 최근 버전 수 */
+    static final int HISTORY_LIMIT = 1000;
+
+    /** 특정 버전의 문서 내용 */
+    public record Snapshot(Rope text, int version) {}
+
+    private volatile Snapshot current;     // 버전은 편집 연산이 적용될 때마다 1 증가
+    private final ArrayDeque<List<EditOp>> history = new ArrayDeque<>();   // 마지막 원소 = version 의 연산
+
+    public DocumentBuffer(CharSequence initial) {
+        this(initial, 0);
+    }
+
+    /** 저장된 체크포인트에서 복원할 때: 내용과 그 시점의 버전으로 시작한다. */
+    public DocumentBuffer(CharSequence initial, int version) {
+        this(Rope.of(initial), version);
+    }
+
+    /** 이미 만들어진 rope 로 시작한다 (파일 로딩 시 중간 문자열 없이). */
+    public DocumentBuffer(Rope initial, int version) {
+        this.current = new Snapshot(initial, version);
+    }
+
+    /** 현재 내용·버전의 불변 스냅샷 (전송·저장용) */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public int getVersion() {
+        return current.version();
+    }
+
+    public int length() {
+        return current.text().length();
+    }
+
+    /**
+     * 연산들을 순서대로 적용하고 버전을 1 올린다.
+     * 하나라도 범위를 벗어나면 아무것도 바꾸지 않고 IllegalArgumentException 을 던진다.
+     *
+     * @return 적용 후 버전
+     */
+    public int apply(List<EditOp> ops) {
+        Snapshot cur = current;
+        Rope next = cur.text();
+        for (EditOp op : ops) {
+            next = op.isInsert()
+                    ? next.insert(op.getOffset(), op.getText())
+                    : next.delete(op.getOffset(), op.getLength());
+        }
+        record(ops);
+        current = new Snapshot(next, cur.version() + 1);
+        return cur.version() + 1;
+    }
+
+    /**
+     * baseVersion 상태에서 만들어진 연산을, 그 이후 적용된 연산들에 대해 변환한 뒤 적용한다.
+     *
+     * @return 실제로 적용된(변환된) 연산, baseVersion 이 보관 범위를 벗어나면 null
+     */
+    public List<EditOp> applyConcurrent(int baseVersion, List<EditOp> ops) {
+        List<EditOp> concurrent = opsSince(baseVersion);
+        if (concurrent == null) return null;
+        List<EditOp> transformed = OperationTransform.transformAgainst(ops, concurrent, false);
+        apply(transformed);
+        return transformed;
+    }
+
+    /**
+     * baseVersion 이후에 적용된 연산들을 순서대로 이어 붙여 반환한다.
+     *
+     * @return 보관 범위를 벗어나면 null
+     */
+    public List<EditOp> opsSince(int baseVersion) {
+        int count = current.version() - baseVersion;
+        if (count < 0 || count > history.size()) return null;
+        List<List<EditOp>> recent = new ArrayList<>(count);
+        Iterator<List<EditOp>> it = history.descendingIterator();
+        for (int i = 0; i < count; i++) recent.add(it.next());
+        List<EditOp> out = new ArrayList<>();
+        for (int i = recent.size() - 1; i >= 0; i--) out.addAll(recent.get(i));
+        return out;
+    }
+
+    /** 구버전 클라이언트(EDIT_DOC)용: 내용 전체를 교체한다. */
+    public int replaceAll(CharSequence content) {
+        Snapshot cur = current;
+        // 이력에는 "전체 삭제 후 삽입" 으로 남겨 동시 편집 변환이 계속 가능하게 한다
+        record(List.of(EditOp.delete(0, cur.text().length()), EditOp.insert(0, content.toString())));
+        current = new Snapshot(Rope.of(content), cur.version() + 1);
+        return cur.version() + 1;
+    }
+
+    private void record(List<EditOp> ops) {
+        history.addLast(ops);
+        if (history.size() > HISTORY_LIMIT) history.removeFirst();
+    }
+}
@@ -0,0 +1,212 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 서버에 있는 모든 문서(파일 기준)와 메타데이터 목록.
+ *
+ * 시작할 때 한 번 폴더를 훑고 메타데이터 파일(documents/.catalog)을 읽은 뒤에는
+ * 생성·편집·삭제 때마다 메모리에서만 갱신한다. 목록 조회는 디렉터리를 읽지 않는다.
+ * 메타데이터 파일은 변경이 있을 때 {@link #saveIfDirty()} 로 통째로 다시 쓴다 (flusher 주기마다).
+ *
+ * 목록 버전은 클라이언트에 알린 변경(DOC_LIST_DELTA)마다 1 씩 오른다 (메모리에만, 재시작 시 0).
+ * 편집 시각 갱신({@link #touch})은 알림 없이 반영되므로 버전을 올리지 않는다.
+ *
+ * 문서마다 디스크에 확정된 버전(마지막 체크포인트, 또는 문서를 열 때 저널 재생 결과)도 함께 둔다.
+ * 복제 전체 동기화는 메모리에 없는 문서의 버전을 저널을 읽지 않고 여기서 얻는다 ({@link #storedVersion}).
+ *
+ * 메타데이터 파일 형식: [int MAGIC][int 개수] 이후 문서마다
+ * [UTF 이름][UTF 생성자][UTF 마지막 편집자][long 생성 시각][long 마지막 수정 시각][int 확정 버전]
+ * (모르는 사용자는 빈 문자열, 모르는 시각은 0, 모르는 버전은 -1. 확정 버전이 없는 CAT1 파일도 읽는다)
+ */
+public class DocumentCatalog {
+    private static final int MAGIC = 0x43415432;   // "CAT2"
+    private static final int MAGIC_V1 = 0x43415431;   // "CAT1" (확정 버전 없음)
+    private static final String SIDECAR = ".catalog";
+
+    private final Path folder;
+    private final NavigableMap<String, DocMeta> entries = new ConcurrentSkipListMap<>();   // 이름순
+    private final Map<String, Integer> storedVersions = new ConcurrentHashMap<>();        // 문서명 -> 확정 버전
+    private volatile boolean dirty;
+    private final AtomicInteger version = new AtomicInteger();
+
+    public DocumentCatalog(String folder) {
+        this.folder = Paths.get(folder);
+    }
+
+    /**
+     * 폴더의 .txt 파일과 메타데이터 파일을 읽어 목록을 만든다 (서버 시작 시 한 번).
+     * 메타데이터가 없는 문서는 생성자를 모르는 것으로, 수정 시각은 파일 시각으로 둔다.
+     */
+    public void load() {
+        Map<String, Integer> savedVersions = new HashMap<>();
+        Map<String, DocMeta> saved = readSidecar(savedVersions);
+        if (Files.isDirectory(folder)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.txt")) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    String name = fileName.substring(0, fileName.length() - ".txt".length());
+                    DocMeta m = saved.get(name);
+                    if (m == null) {
+                        m = new DocMeta(null, null, 0L, Files.getLastModifiedTime(file).toMillis());
+                        dirty = true;
+                    }
+                    entries.put(name, m);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (saved.size() != entries.size()) dirty = true;   // 파일이 사라진 항목 정리
+        // 로드 전에 기록된 버전(시작 시 저널 복구)이 파일에 남은 값보다 새것이다
+        savedVersions.forEach(storedVersions::putIfAbsent);
+        storedVersions.keySet().retainAll(entries.keySet());
+        System.out.println("문서 목록 로드: " + entries.size() + "개");
+    }
+
+    /* ---------- 조회 ---------- */
+
+    public boolean contains(String docName) {
+        return entries.containsKey(docName);
+    }
+
+    public DocMeta meta(String docName) {
+        return entries.get(docName);
+    }
+
+    /**
+     * 디스크에 확정된 버전 (메모리에 없는 문서를 열면 이 버전이 된다).
+     *
+     * @return 모르면 -1 (이전 형식의 메타데이터 파일에서 읽었고 아직 열거나 체크포인트한 적 없는 문서)
+     */
+    public int storedVersion(String docName) {
+        return storedVersions.getOrDefault(docName, -1);
+    }
+
+    /** 이름순 (이름, 메타) 스냅샷 */
+    public List<Map.Entry<String, DocMeta>> entries() {
+        return new ArrayList<>(entries.entrySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** 마지막으로 알린 목록 버전 */
+    public int version() {
+        return version.get();
+    }
+
+    /** 변경을 알릴 때: 목록 버전을 올리고 새 버전을 반환 */
+    public int nextVersion() {
+        return version.incrementAndGet();
+    }
+
+    /* ---------- 변경 ---------- */
+
+    public void add(String docName, DocMeta m) {
+        entries.put(docName, m);
+        dirty = true;
+    }
+
+    public void remove(String docName) {
+        storedVersions.remove(docName);
+        if (entries.remove(docName) != null) dirty = true;
+    }
+
+    /** 문서를 열었거나 체크포인트했을 때: 디스크에 확정된 버전 ({@link DocumentPersistence} 가 알려 줌) */
+    public void stored(String docName, int version) {
+        Integer prev = storedVersions.put(docName, version);
+        if (prev == null || prev != version) dirty = true;
+    }
+
+    /** 마지막 편집자·시각 갱신 (목록에 없던 문서면 생성자를 모르는 항목으로 추가) */
+    public void touch(String docName, String editor, long time) {
+        entries.merge(docName, new DocMeta(null, editor, 0L, time), (m, n) -> m.edited(editor, time));
+        dirty = true;
+    }
+
+    /* ---------- 메타데이터 파일 ---------- */
+
+    /**
+     * 변경이 있었으면 메타데이터 파일을 다시 쓴다 (임시 파일 + 원자적 교체).
+     */
+    public void saveIfDirty() {
+        if (!dirty) return;
+        dirty = false;   // 쓰는 도중 들어온 변경은 다음 주기에 다시 기록
+        Path tmp = folder.resolve(SIDECAR + ".tmp");
+        try {
+            Files.createDirectories(folder);
+            List<Map.Entry<String, DocMeta>> snapshot = entries();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, DocMeta> e : snapshot) {
+                    DocMeta m = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(m.creatorId() == null ? "" : m.creatorId());
+                    out.writeUTF(m.lastEditorId() == null ? "" : m.lastEditorId());
+                    out.writeLong(m.createdTime());
+                    out.writeLong(m.lastModifiedTime());
+                    out.writeInt(storedVersion(e.getKey()));
+                }
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, folder.resolve(SIDECAR), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            e.printStackTrace();
+        }
+    }
+
+    private Map<String, DocMeta> readSidecar(Map<String, Integer> versions) {
+        Map<String, DocMeta> saved = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(folder.resolve(SIDECAR))))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                System.err.println("문서 메타데이터 파일 형식이 맞지 않음 → 무시");
+                return saved;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String creator = in.readUTF();
+                String editor = in.readUTF();
+                long created = in.readLong();
+                long modified = in.readLong();
+                int stored = magic == MAGIC ? in.readInt() : -1;
+                if (stored >= 0) versions.put(name, stored);
+                saved.put(name, new DocMeta(creator.isEmpty() ? null : creator,
+                        editor.isEmpty() ? null : editor, created, modified));
+            }
+        } catch (NoSuchFileException e) {
+            // 처음 실행: 메타데이터 없음
+        } catch (IOException e) {
+            System.err.println("문서 메타데이터 파일 읽기 실패 (" + e + ") → 읽은 부분까지만 사용");
+        }
+        return saved;
+    }
+}
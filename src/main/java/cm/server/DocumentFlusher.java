@@ -0,0 +1,173 @@
+package cm.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 편집된(dirty) 문서를 백그라운드에서 디스크에 반영한다.
+ *
+ * 한 번의 커밋 주기에서 dirty 문서들의 저널을 한꺼번에 fsync 하고,
+ * 체크포인트할 때가 된 문서는 .txt 로 다시 쓴다. 이벤트 처리 스레드는 디스크를 기다리지 않는다.
+ *
+ * 커밋 주기는 interval 마다, 또는 fsync 되지 않은 편집이 dirtyBytes 를 넘으면 바로 돌아간다.
+ * 체크포인트는 요청(SAVE_DOC)이 있거나, 저널 편집 수가 한도를 넘었거나,
+ * 마지막 체크포인트 이후 checkpointMs 가 지났을 때 한다.
+ *
+ * 문서 목록 메타데이터({@link DocumentCatalog})도 같은 주기에 변경분이 있으면 기록한다.
+ *
+ * 설정: -Dcm.flush.intervalMs (기본 1000), -Dcm.flush.dirtyBytes (기본 65536),
+ *      -Dcm.flush.checkpointMs (기본 30000)
+ */
+public class DocumentFlusher {
+
+    private static final class Dirty {
+        final long since;          // 마지막 체크포인트 이후 처음 편집된 시각
+        long unsyncedBytes;        // 아직 fsync 되지 않은 편집량
+        boolean checkpointRequested;
+
+        Dirty(long now) {
+            this.since = now;
+        }
+    }
+
+    private final DocumentStore documents;
+    private final DocumentPersistence persistence;
+    private final DocumentCatalog catalog;
+    private final long intervalMs;
+    private final long dirtyBytes;
+    private final long checkpointMs;
+    private final Map<String, Dirty> dirty = new HashMap<>();   // guarded by this
+    private final Set<String> inFlight = new HashSet<>();       // 이번 주기에 기록 중인 문서, guarded by this
+    private long unsyncedTotal;                                  // guarded by this
+    private boolean commitScheduled;                             // guarded by this
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "doc-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public DocumentFlusher(DocumentStore documents, DocumentPersistence persistence, DocumentCatalog catalog) {
+        this(documents, persistence, catalog,
+                Long.getLong("cm.flush.intervalMs", 1000),
+                Long.getLong("cm.flush.dirtyBytes", 64 * 1024),
+                Long.getLong("cm.flush.checkpointMs", 30_000));
+    }
+
+    public DocumentFlusher(DocumentStore documents, DocumentPersistence persistence, DocumentCatalog catalog,
+                           long intervalMs, long dirtyBytes, long checkpointMs) {
+        this.documents = documents;
+        this.persistence = persistence;
+        this.catalog = catalog;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.dirtyBytes = Math.max(1, dirtyBytes);
+        this.checkpointMs = Math.max(0, checkpointMs);
+    }
+
+    public void start() {
+        timer.scheduleWithFixedDelay(() -> commit(false), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 타이머를 멈추고 남은 dirty 문서를 모두 체크포인트한다 (서버 종료 시).
+     */
+    public void stop() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commit(true);
+    }
+
+    /**
+     * 편집이 저널에 기록됐음을 알린다.
+     *
+     * @param bytes 편집 크기 (삽입 글자 수 + 삭제 길이 정도면 충분)
+     */
+    public synchronized void markDirty(String docName, long bytes) {
+        Dirty d = dirty.computeIfAbsent(docName, n -> new Dirty(System.currentTimeMillis()));
+        d.unsyncedBytes += bytes;
+        unsyncedTotal += bytes;
+        if (unsyncedTotal >= dirtyBytes) scheduleNow();
+    }
+
+    /**
+     * 가능한 빨리 체크포인트하도록 요청한다 (SAVE_DOC). 기다리지 않고 바로 반환한다.
+     */
+    public synchronized void requestFlush(String docName) {
+        dirty.computeIfAbsent(docName, n -> new Dirty(System.currentTimeMillis())).checkpointRequested = true;
+        scheduleNow();
+    }
+
+    /** 삭제된 문서는 더 이상 기록하지 않는다. */
+    public synchronized void discard(String docName) {
+        Dirty d = dirty.remove(docName);
+        if (d != null) unsyncedTotal -= d.unsyncedBytes;
+    }
+
+    /** 디스크에 반영되지 않은 편집이 없고 기록 중도 아니면 true (메모리에서 내려도 되는지 판단). */
+    public synchronized boolean isClean(String docName) {
+        return !dirty.containsKey(docName) && !inFlight.contains(docName);
+    }
+
+    private void scheduleNow() {
+        if (commitScheduled || timer.isShutdown()) return;
+        commitScheduled = true;
+        timer.execute(() -> commit(false));
+    }
+
+    /* 커밋 주기 하나: 저널 fsync 를 모아서 하고, 때가 된 문서를 체크포인트 */
+    private void commit(boolean all) {
+        List<String> sync = new ArrayList<>();
+        List<String> checkpoint = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            commitScheduled = false;
+            Iterator<Map.Entry<String, Dirty>> it = dirty.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Dirty> e = it.next();
+                Dirty d = e.getValue();
+                String docName = e.getKey();
+                if (d.unsyncedBytes > 0) sync.add(docName);
+                d.unsyncedBytes = 0;
+                if (all || d.checkpointRequested || now - d.since >= checkpointMs
+                        || persistence.needsCheckpoint(docName)) {
+                    checkpoint.add(docName);
+                    it.remove();
+                }
+            }
+            unsyncedTotal = 0;
+            inFlight.addAll(sync);
+            inFlight.addAll(checkpoint);
+        }
+
+        // 디스크 작업은 잠금 밖에서 (그 사이 들어온 편집은 다음 주기로)
+        try {
+            for (String docName : sync) {
+                persistence.sync(docName);
+            }
+            for (String docName : checkpoint) {
+                DocumentBuffer buffer = documents.get(docName);
+                if (buffer == null) continue;
+                if (!persistence.checkpoint(docName, buffer.snapshot())) {
+                    System.err.println("문서 [" + docName + "] 체크포인트 실패 → 다음 주기에 재시도");
+                    markDirty(docName, 0);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                inFlight.clear();
+            }
+        }
+        catalog.saveIfDirty();
+    }
+}
@@ -0,0 +1,87 @@
+package cm.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 그룹 전송 모드: 문서를 CM 그룹에 대응시켜, 문서 참여자에게 보낼 이벤트를 그룹 cast 한 번으로 보낸다.
+ *
+ * CM 그룹은 세션 설정 파일(cm-session1.conf 의 g1~g4)에 미리 정해져 있으므로 문서 이름의 해시로 그룹을 고른다.
+ * 여러 문서가 한 그룹을 함께 쓸 수 있어서, 클라이언트는 자기 문서가 아닌 이벤트를 문서 이름으로 걸러 낸다.
+ * 클라이언트는 문서에 들어갈 때 DOC_GROUP 으로 그룹을 안내받아 (세션에 아직 없으면 joinSession 부터) 옮긴 뒤 GROUP_JOINED 로 알려 온다.
+ * 사용자가 그 그룹에 있다고 보는 것은 GROUP_JOINED 와 CM 의 USER_ENTER(서버 CM 이 그룹 구성원으로 넣었음)가 모두 온 뒤이며,
+ * USER_LEAVE 가 오면 다시 아니다. 참여자 전원이 그 그룹에 있는 문서만 cast 하고, 아직이면 사용자별 전송으로 보낸다.
+ *
+ * CM 세션·그룹을 쓰므로 cm-server.conf 의 SESSION_SCHEME 이 1 이어야 한다 (서버 시작 시 확인).
+ *
+ * 설정: -Dcm.fanout=group (기본: 사용자별 전송), -Dcm.group.session (기본 session1),
+ *      -Dcm.group.names (기본 g1,g2,g3,g4 — 그 세션 설정 파일의 그룹 이름과 같아야 함)
+ */
+public class DocumentGroups {
+    private final String session;
+    private final List<String> groups;
+    private final Map<String, String> confirmed = new ConcurrentHashMap<>();   // 사용자 -> 옮겼다고 알려 온 그룹
+    private final Map<String, String> entered = new ConcurrentHashMap<>();     // 사용자 -> CM 이 알린 이 세션의 현재 그룹
+
+    public DocumentGroups(String session, List<String> groups) {
+        if (groups.isEmpty()) throw new IllegalArgumentException("그룹이 하나도 없음");
+        this.session = session;
+        this.groups = List.copyOf(groups);
+    }
+
+    /** -Dcm.fanout=group 이면 설정대로, 아니면 null (사용자별 전송) */
+    public static DocumentGroups fromSystemProperties() {
+        if (!"group".equals(System.getProperty("cm.fanout"))) return null;
+        String names = System.getProperty("cm.group.names", "g1,g2,g3,g4");
+        return new DocumentGroups(System.getProperty("cm.group.session", "session1"),
+                List.of(names.trim().split("\\s*,\\s*")));
+    }
+
+    public String session() {
+        return session;
+    }
+
+    /** 설정된 그룹 이름 */
+    public List<String> groups() {
+        return groups;
+    }
+
+    /** 문서가 쓰는 그룹 */
+    public String groupOf(String docName) {
+        return groups.get(Math.floorMod(docName.hashCode(), groups.size()));
+    }
+
+    /** user 가 그룹을 옮겼다 (GROUP_JOINED) */
+    public void joined(String user, String group) {
+        confirmed.put(user, group);
+    }
+
+    /** CM USER_ENTER: user 가 session 의 group 구성원이 됐다 */
+    public void entered(String user, String session, String group) {
+        if (this.session.equals(session)) entered.put(user, group);
+    }
+
+    /** CM USER_LEAVE: user 가 session 의 group 에서 나갔다 (다른 그룹의 USER_ENTER 가 먼저 왔으면 그대로 둠) */
+    public void exited(String user, String session, String group) {
+        if (this.session.equals(session)) entered.remove(user, group);
+    }
+
+    /** 로그아웃 */
+    public void left(String user) {
+        confirmed.remove(user);
+        entered.remove(user);
+    }
+
+    /** user 가 이미 그 그룹에 있는지: 본인이 알려 왔고 CM 도 구성원으로 넣었다 (다시 안내할 필요 없음) */
+    public boolean isIn(String user, String group) {
+        return group.equals(confirmed.get(user)) && group.equals(entered.get(user));
+    }
+
+    /** 모두 그 그룹으로 옮겼는지 (그래야 cast 로 빠짐없이 전달된다) */
+    public boolean allIn(Collection<String> users, String group) {
+        for (String u : users) if (!isIn(u, group)) return false;
+        return true;
+    }
+}
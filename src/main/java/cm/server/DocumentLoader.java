@@ -0,0 +1,118 @@
+package cm.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 문서 파일(.txt)을 UTF-8 로 디코딩해 바로 {@link Rope} 로 읽는다.
+ *
+ * 파일 전체를 byte[] 나 String 으로 만들지 않고, 고정 크기 버퍼로 읽거나(작은 파일)
+ * 메모리 매핑(큰 파일)한 바이트를 디코더에서 rope leaf 로 곧장 옮긴다.
+ * 줄바꿈·공백을 그대로 보존하며, 체크포인트 대조용 CRC32 와 바이트 수도 같은 패스에서 계산한다.
+ *
+ * 설정: -Dcm.load.mmapBytes (기본 1048576, 이 크기 이상이면 메모리 매핑)
+ */
+final class DocumentLoader {
+    private static final long MMAP_THRESHOLD = Long.getLong("cm.load.mmapBytes", 1 << 20);
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int CHAR_BUFFER = 8 * 1024;
+
+    /** 읽은 내용과 원본 파일의 CRC32·바이트 수 */
+    record Loaded(Rope text, long crc, long length) {
+        static final Loaded EMPTY = new Loaded(Rope.empty(), 0L, 0L);
+    }
+
+    private DocumentLoader() {
+    }
+
+    /**
+     * @return 파일이 없으면 {@link Loaded#EMPTY}
+     */
+    static Loaded load(Path path) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return Loaded.EMPTY;
+        }
+        try (ch) {
+            long size = ch.size();
+            Decoding d = new Decoding();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("문서 파일이 너무 큼: " + path + " (" + size + " bytes)");
+            }
+            if (size >= MMAP_THRESHOLD) {
+                ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                d.crc.update(mapped.duplicate());
+                d.decodeChunk(mapped, true);
+            } else {
+                ByteBuffer in = ByteBuffer.allocate((int) Math.min(READ_BUFFER, Math.max(size, 16)));
+                boolean eof = false;
+                while (!eof) {
+                    int start = in.position();           // 앞은 지난번에 남은 불완전한 문자
+                    eof = ch.read(in) < 0;
+                    ByteBuffer fresh = in.duplicate();
+                    fresh.limit(fresh.position()).position(start);
+                    d.crc.update(fresh);
+                    in.flip();
+                    d.decodeChunk(in, eof);
+                    in.compact();
+                }
+            }
+            return new Loaded(d.finish(), d.crc.getValue(), size);
+        }
+    }
+
+    /* 디코더 상태: 바이트 → 문자 → rope leaf */
+    private static final class Decoding {
+        final CRC32 crc = new CRC32();
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        final CharBuffer out = CharBuffer.allocate(CHAR_BUFFER);
+        final Rope.Builder rope = new Rope.Builder();
+        int malformed;
+
+        /* in 의 바이트를 가능한 만큼 디코딩한다. 끝이 아니면 불완전한 문자는 in 에 남긴다. */
+        void decodeChunk(ByteBuffer in, boolean endOfInput) {
+            while (true) {
+                CoderResult r = decoder.decode(in, out, endOfInput);
+                drain();
+                if (r.isOverflow()) continue;
+                if (r.isError()) {
+                    // 잘못된 바이트는 U+FFFD 로 (이 경우 다음 저장 시 원본과 달라진다)
+                    in.position(in.position() + r.length());
+                    rope.append('\uFFFD');
+                    malformed++;
+                    continue;
+                }
+                return;   // underflow
+            }
+        }
+
+        Rope finish() {
+            decoder.flush(out);
+            drain();
+            if (malformed > 0) {
+                System.err.println("UTF-8 이 아닌 바이트 " + malformed + " 곳을 U+FFFD 로 대체함");
+            }
+            return rope.build();
+        }
+
+        private void drain() {
+            out.flip();
+            rope.append(out);
+            out.clear();
+        }
+    }
+}
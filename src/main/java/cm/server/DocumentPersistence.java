@@ -0,0 +1,324 @@
+package cm.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import cm.model.EditOp;
+
+/**
+ * 문서 파일(.txt 스냅샷)과 편집 저널(.wal)을 관리한다.
+ *
+ * 편집은 저널에 작은 레코드로 덧붙이고, 주기적으로(또는 SAVE_DOC 시) 현재 내용을 .txt 로
+ * 체크포인트한 뒤 저널을 비운다. 서버가 비정상 종료돼도 .txt + 저널 재생으로 마지막 상태를 복구한다.
+ *
+ * 체크포인트 순서: .txt.tmp 기록 → 저널에 CHECKPOINT(버전, CRC) 기록 → .txt 로 교체 → 저널 압축.
+ * 복구 시에는 현재 .txt 의 CRC 와 일치하는 가장 최근 체크포인트 이후의 편집만 재생한다.
+ *
+ * 체크포인트하거나 문서를 열 때마다 디스크에 확정된 버전을 onStored 로 알린다 ({@link DocumentCatalog#stored}).
+ *
+ * 설정: -Dcm.journal.checkpointEvery (기본 1000, 이 개수만큼 편집이 쌓이면 체크포인트 대상)
+ */
+public class DocumentPersistence {
+    private final Path folder;
+    private final int checkpointEvery;
+    private final Map<String, EditJournal> journals = new ConcurrentHashMap<>();
+    // 체크포인트(백그라운드)와 삭제(문서 lane)가 같은 파일을 동시에 건드리지 않도록
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final ObjIntConsumer<String> onStored;   // (문서명, 디스크에 확정된 버전)
+
+    public DocumentPersistence(String folder, ObjIntConsumer<String> onStored) {
+        this(folder, Integer.getInteger("cm.journal.checkpointEvery", 1000), onStored);
+    }
+
+    public DocumentPersistence(String folder, int checkpointEvery, ObjIntConsumer<String> onStored) {
+        this.folder = Paths.get(folder);
+        this.checkpointEvery = Math.max(1, checkpointEvery);
+        this.onStored = onStored;
+    }
+
+    /* ---------- 경로 ---------- */
+    private Path textPath(String docName) {
+        return folder.resolve(docName + ".txt");
+    }
+
+    private Path journalPath(String docName) {
+        return folder.resolve(docName + ".wal");
+    }
+
+    private void ensureFolder() throws IOException {
+        Files.createDirectories(folder);
+    }
+
+    /**
+     * 서버 시작 시: 마지막 체크포인트 뒤에 편집이 남은 저널만 재생해 .txt 에 반영한다.
+     * 체크포인트만 남은 저널(이미 반영된 문서)은 .txt 를 읽지도 않고 그대로 둔다.
+     * (.txt 교체 직전에 끊긴 체크포인트도 편집 레코드가 남아 있으므로 문서를 열 때 {@link #open} 이 재생한다.)
+     * .txt 가 어느 체크포인트와도 맞지 않는 저널은 {@link #open} 이 재생하지 않고 옆으로 치우며, 여기서는 그 결과를 체크포인트한다.
+     */
+    public void recoverAll() {
+        if (!Files.isDirectory(folder)) return;
+        try (DirectoryStream<Path> wals = Files.newDirectoryStream(folder, "*.wal")) {
+            for (Path wal : wals) {
+                String file = wal.getFileName().toString();
+                String docName = file.substring(0, file.length() - ".wal".length());
+                if (!hasUnflushedEdits(wal)) continue;
+                DocumentBuffer buffer = open(docName);
+                if (checkpoint(docName, buffer.snapshot())) {
+                    System.out.println("저널 복구: 문서 [" + docName + "] 버전 " + buffer.getVersion());
+                }
+                close(docName);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* 마지막 체크포인트보다 새 버전의 편집 레코드가 있는지 (없으면 재생할 것이 없음) */
+    private static boolean hasUnflushedEdits(Path wal) throws IOException {
+        int lastCheckpoint = -1, lastEdit = -1;
+        for (EditJournal.Entry e : EditJournal.read(wal)) {
+            if (e.type() == EditJournal.CHECKPOINT) lastCheckpoint = Math.max(lastCheckpoint, e.version());
+            else if (e.type() == EditJournal.EDIT) lastEdit = Math.max(lastEdit, e.version());
+        }
+        return lastEdit > lastCheckpoint;
+    }
+
+    /**
+     * 새 문서: 빈 .txt 와 새 저널을 만든다.
+     */
+    public DocumentBuffer create(String docName) {
+        DocumentBuffer buffer = new DocumentBuffer("");
+        close(docName);
+        try {
+            ensureFolder();
+            journals.put(docName, EditJournal.create(journalPath(docName), 0, 0L, 0));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        checkpoint(docName, buffer.snapshot());
+        return buffer;
+    }
+
+    /**
+     * 다른 서버가 보낸 내용·버전으로 문서를 통째로 바꾼다 (복제 대기 서버의 동기화).
+     * 기존 저널은 버리고 그 버전의 체크포인트로 새로 시작한다.
+     */
+    public DocumentBuffer restore(String docName, String text, int version) {
+        DocumentBuffer buffer = new DocumentBuffer(text, version);
+        synchronized (lockFor(docName)) {
+            close(docName);
+            try {
+                ensureFolder();
+                journals.put(docName, EditJournal.create(journalPath(docName), version, 0L, 0));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            writeCheckpoint(docName, buffer.snapshot());
+        }
+        return buffer;
+    }
+
+    /**
+     * 파일 시스템에서 문서를 읽고 저널에 남은 편집을 재생한다.
+     * 파일이 없으면 빈 문서를 반환한다. .txt 가 저널의 어느 체크포인트와도 일치하지 않으면 (편집을 엉뚱한 내용에 적용하지 않도록)
+     * 재생하지 않고 .txt 를 새 버전으로 삼아 새 저널을 시작한다. 기존 저널은 &lt;name&gt;.wal.mismatch-&lt;시각&gt; 으로 남긴다.
+     */
+    public DocumentBuffer open(String docName) {
+        try {
+            ensureFolder();
+            DocumentLoader.Loaded loaded = DocumentLoader.load(textPath(docName));
+            Path wal = journalPath(docName);
+            if (!Files.exists(wal)) {
+                journals.put(docName, EditJournal.create(wal, 0, loaded.crc(), loaded.length()));
+                onStored.accept(docName, 0);
+                return new DocumentBuffer(loaded.text(), 0);
+            }
+
+            List<EditJournal.Entry> entries = EditJournal.read(wal);
+            int base = -1, lastVersion = 0;
+            for (EditJournal.Entry e : entries) {
+                lastVersion = Math.max(lastVersion, e.version());
+                if (e.type() != EditJournal.CHECKPOINT) continue;
+                if (e.checkpointCrc() == loaded.crc() && e.checkpointLength() == loaded.length()) base = e.version();
+            }
+            if (base < 0) {
+                // 편집 위치가 다른 내용 기준이므로 재생하지 않는다: .txt 를 그대로 새 버전으로 삼고 저널은 옆으로 치운다
+                // (버전을 저널보다 올려서, 예전 버전을 가진 클라이언트 캐시가 이 내용과 섞이지 않도록)
+                Path aside = folder.resolve(docName + ".wal.mismatch-" + System.currentTimeMillis());
+                Files.move(wal, aside, StandardCopyOption.REPLACE_EXISTING);
+                int fresh = lastVersion + 1;
+                System.err.println("문서 [" + docName + "] .txt 가 저널의 어느 체크포인트와도 일치하지 않음 → 재생하지 않고 "
+                        + ".txt 를 버전 " + fresh + " 로 사용, 저널은 " + aside.getFileName() + " 로 옮김");
+                journals.put(docName, EditJournal.create(wal, fresh, loaded.crc(), loaded.length()));
+                onStored.accept(docName, fresh);
+                return new DocumentBuffer(loaded.text(), fresh);
+            }
+
+            DocumentBuffer buffer = new DocumentBuffer(loaded.text(), base);
+            for (EditJournal.Entry e : entries) {
+                if (e.type() != EditJournal.EDIT || e.version() <= buffer.getVersion()) continue;
+                if (e.version() != buffer.getVersion() + 1) {
+                    System.err.println("문서 [" + docName + "] 저널 버전 누락: " + e.version() + " → 재생 중단");
+                    break;
+                }
+                try {
+                    buffer.apply(EditOp.decode(new String(e.data(), StandardCharsets.UTF_8)));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("문서 [" + docName + "] 저널 레코드 적용 실패 (버전 " + e.version() + ") → 재생 중단");
+                    break;
+                }
+            }
+            journals.put(docName, EditJournal.openForAppend(wal));
+            onStored.accept(docName, buffer.getVersion());   // 재생한 편집도 저널에 확정돼 있다
+            return buffer;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new DocumentBuffer("");
+        }
+    }
+
+    /**
+     * 적용된 편집을 저널에 덧붙인다. 디스크 확정(fsync)은 {@link #sync(String)} 에서 모아서 한다.
+     */
+    public void logEdit(String docName, int version, List<EditOp> ops) {
+        EditJournal journal = journals.get(docName);
+        if (journal == null) return;
+        try {
+            journal.appendEdit(version, EditOp.encode(ops).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** 저널 편집 수가 체크포인트 한도를 넘었는지 */
+    public boolean needsCheckpoint(String docName) {
+        EditJournal journal = journals.get(docName);
+        return journal != null && journal.editsSinceCheckpoint() >= checkpointEvery;
+    }
+
+    /** 지금까지 덧붙인 편집을 디스크에 확정한다. */
+    public void sync(String docName) {
+        EditJournal journal = journals.get(docName);
+        if (journal == null) return;
+        try {
+            journal.force();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 스냅샷을 .txt 로 기록하고 저널을 그 이후 편집만 남도록 줄인다.
+     *
+     * @return 성공 시 true
+     */
+    public boolean checkpoint(String docName, DocumentBuffer.Snapshot snap) {
+        synchronized (lockFor(docName)) {
+            return writeCheckpoint(docName, snap);
+        }
+    }
+
+    private boolean writeCheckpoint(String docName, DocumentBuffer.Snapshot snap) {
+        EditJournal journal = journals.get(docName);
+        if (journal == null) return false;    // 열려 있지 않거나 삭제된 문서
+        Path txt = textPath(docName);
+        Path tmp = folder.resolve(docName + ".txt.tmp");
+        try {
+            ensureFolder();
+            CRC32 crc = new CRC32();
+            long length;
+            try (OutputStream file = Files.newOutputStream(tmp);
+                 CountingOutputStream counter = new CountingOutputStream(new CheckedOutputStream(file, crc));
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8))) {
+                snap.text().writeTo(writer);
+                writer.flush();
+                length = counter.count;
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+
+            journal.appendCheckpoint(snap.version(), crc.getValue(), length);
+            Files.move(tmp, txt, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.compact(snap.version(), crc.getValue(), length);
+            onStored.accept(docName, snap.version());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 문서 파일과 저널을 삭제한다.
+     *
+     * @return .txt 파일을 삭제했으면 true
+     */
+    public boolean delete(String docName) {
+        synchronized (lockFor(docName)) {
+            close(docName);
+            try {
+                Files.deleteIfExists(journalPath(docName));
+                return Files.deleteIfExists(textPath(docName));
+            } catch (IOException e) {
+                System.err.println("Failed to delete file: " + textPath(docName));
+                return false;
+            } finally {
+                locks.remove(docName);
+            }
+        }
+    }
+
+    /** 저널 파일을 닫는다 (메모리에서 문서를 내릴 때). */
+    public void close(String docName) {
+        EditJournal journal = journals.remove(docName);
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Object lockFor(String docName) {
+        return locks.computeIfAbsent(docName, n -> new Object());
+    }
+
+    /* 기록한 바이트 수를 세는 스트림 */
+    private static final class CountingOutputStream extends java.io.FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cm.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 메모리에 올라온 문서({@link DocumentStore})의 크기를 추적하고, 예산을 넘으면 오래 안 쓴 문서를 내린다.
+ *
+ * 참여자가 있는 문서는 고정(내리지 않음)이고, 디스크에 반영되지 않은 편집이 남은 문서도 내리지 않는다.
+ * 그 밖의 문서는 마지막 사용 순서(LRU)대로 예산 아래가 될 때까지 내린다.
+ * 내린 문서는 다음 SELECT_DOC 에서 파일 + 저널로 다시 읽는다. 문서에 딸린 다른 메모리(리비전 색인 등)는
+ * onEvicted 로 함께 내린다.
+ *
+ * 실제로 내리는 작업은 그 문서의 lane 에서 실행해야 하므로 (같은 문서의 편집·선택과 겹치지 않도록)
+ * 후보를 고른 뒤 lane 실행기에 넘기고, lane 에서 {@link #evict(String)} 가 조건을 다시 확인한다.
+ *
+ * 크기는 rope 글자 수 × 2 + 고정 부가 비용으로 어림한다 (편집 이력 포함 정도의 근사치).
+ *
+ * 설정: -Dcm.doc.memoryBytes (기본: 최대 힙의 1/4)
+ */
+public class DocumentResidency {
+    private static final long OVERHEAD = 4 * 1024;   // 버퍼·이력·저널 핸들 등 문서 하나의 고정 비용 (어림값)
+
+    private final DocumentStore documents;
+    private final DocumentPersistence persistence;
+    private final DocumentFlusher flusher;
+    private final ServerState state;
+    private final BiConsumer<String, Runnable> laneExecutor;   // (문서명, 작업) → 그 문서의 lane 에서 실행
+    private final Consumer<String> onEvicted;                  // 내린 문서 (그 문서의 lane 에서)
+    private final long budget;
+
+    private final LinkedHashMap<String, Long> resident = new LinkedHashMap<>(16, 0.75f, true);   // 접근 순서, guarded by this
+    private final Set<String> evicting = new HashSet<>();                                          // lane 에 넘긴 후보, guarded by this
+    private long residentBytes;                                                                    // guarded by this
+
+    public DocumentResidency(DocumentStore documents, DocumentPersistence persistence, DocumentFlusher flusher,
+                             ServerState state, BiConsumer<String, Runnable> laneExecutor, Consumer<String> onEvicted) {
+        this(documents, persistence, flusher, state, laneExecutor, onEvicted,
+                Long.getLong("cm.doc.memoryBytes", Runtime.getRuntime().maxMemory() / 4));
+    }
+
+    public DocumentResidency(DocumentStore documents, DocumentPersistence persistence, DocumentFlusher flusher,
+                             ServerState state, BiConsumer<String, Runnable> laneExecutor, Consumer<String> onEvicted,
+                             long budget) {
+        this.documents = documents;
+        this.persistence = persistence;
+        this.flusher = flusher;
+        this.state = state;
+        this.laneExecutor = laneExecutor;
+        this.onEvicted = onEvicted;
+        this.budget = Math.max(0, budget);
+    }
+
+    /**
+     * 문서를 불러오거나 편집했을 때 호출한다 (그 문서의 lane 에서).
+     * 크기와 사용 순서를 갱신하고, 예산을 넘었으면 내릴 후보를 lane 에 넘긴다.
+     */
+    public void touched(String docName, DocumentBuffer buffer) {
+        long bytes = estimate(buffer);
+        List<String> victims;
+        synchronized (this) {
+            Long old = resident.put(docName, bytes);
+            residentBytes += bytes - (old == null ? 0 : old);
+            if (residentBytes <= budget) return;
+            victims = pickVictims(docName);
+        }
+        for (String victim : victims) {
+            laneExecutor.accept(victim, () -> evict(victim));
+        }
+    }
+
+    /** 삭제된 문서는 더 이상 추적하지 않는다. */
+    public synchronized void forget(String docName) {
+        Long old = resident.remove(docName);
+        if (old != null) residentBytes -= old;
+    }
+
+    /**
+     * 그 문서의 lane 에서 실행: 아직 내려도 되는 상태면 메모리에서 내리고 저널을 닫는다.
+     *
+     * @return 내렸으면 true
+     */
+    public boolean evict(String docName) {
+        try {
+            if (!state.participants(docName).isEmpty() || !flusher.isClean(docName)) return false;
+            DocumentBuffer removed = documents.remove(docName);
+            persistence.close(docName);
+            forget(docName);
+            onEvicted.accept(docName);
+            if (removed != null) {
+                System.out.println("문서 [" + docName + "] 메모리에서 내림 (길이=" + removed.length()
+                        + ", 남은 사용량=" + residentBytes() + "/" + budget + " bytes)");
+            }
+            return true;
+        } finally {
+            synchronized (this) {
+                evicting.remove(docName);
+            }
+        }
+    }
+
+    public synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    /* 오래된 순으로, 참여자가 없고 깨끗한 문서를 예산 아래가 될 만큼 고른다 (방금 쓴 문서는 제외) */
+    private List<String> pickVictims(String current) {
+        List<String> victims = new ArrayList<>();
+        long projected = residentBytes;
+        for (Map.Entry<String, Long> e : resident.entrySet()) {
+            if (projected <= budget) break;
+            String name = e.getKey();
+            if (name.equals(current) || evicting.contains(name)) continue;
+            if (!state.participants(name).isEmpty() || !flusher.isClean(name)) continue;   // 고정 또는 dirty
+            evicting.add(name);
+            victims.add(name);
+            projected -= e.getValue();
+        }
+        return victims;
+    }
+
+    private static long estimate(DocumentBuffer buffer) {
+        return 2L * buffer.length() + OVERHEAD;
+    }
+}
@@ -0,0 +1,46 @@
+package cm.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 메모리에 올라와 있는 문서들 (문서명 -> {@link DocumentBuffer}).
+ * 목록은 여러 lane 에서 읽지만, 버퍼 하나는 그 문서의 lane 에서만 수정한다.
+ */
+public class DocumentStore {
+    private final Map<String, DocumentBuffer> documents = new ConcurrentHashMap<>();
+
+    public DocumentBuffer get(String name) {
+        return documents.get(name);
+    }
+
+    public boolean contains(String name) {
+        return documents.containsKey(name);
+    }
+
+    /** 새 버퍼를 만들어 등록한다 (같은 이름이 있으면 교체). */
+    public DocumentBuffer create(String name, CharSequence initial) {
+        DocumentBuffer buffer = new DocumentBuffer(initial);
+        documents.put(name, buffer);
+        return buffer;
+    }
+
+    /** 이미 만들어진 버퍼를 등록한다 (같은 이름이 있으면 교체). */
+    public DocumentBuffer add(String name, DocumentBuffer buffer) {
+        documents.put(name, buffer);
+        return buffer;
+    }
+
+    public DocumentBuffer remove(String name) {
+        return documents.remove(name);
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public Set<String> names() {
+        return documents.keySet();
+    }
+}
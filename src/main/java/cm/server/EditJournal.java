@@ -0,0 +1,188 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 문서 하나의 append-only 편집 저널 (documents/&lt;name&gt;.wal).
+ *
+ * 레코드 형식: [int 본문길이][int CRC32(본문)][본문 = byte 종류, int 버전, 데이터]
+ * <ul>
+ *   <li>EDIT: 해당 버전에서 적용된 연산 (EditOp 직렬화, UTF-8)</li>
+ *   <li>CHECKPOINT: 이 버전의 내용이 .txt 로 기록됨 (데이터 = long CRC32, long 바이트 수)</li>
+ * </ul>
+ * 마지막 레코드가 중간에 끊겼거나 CRC 가 맞지 않으면 그 앞까지만 유효한 것으로 본다.
+ */
+final class EditJournal implements Closeable {
+    static final byte EDIT = 1;
+    static final byte CHECKPOINT = 2;
+
+    record Entry(byte type, int version, byte[] data) {
+        long checkpointCrc()    { return ByteBuffer.wrap(data).getLong(0); }
+        long checkpointLength() { return ByteBuffer.wrap(data).getLong(8); }
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private int editsSinceCheckpoint;
+
+    private EditJournal(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /** 체크포인트 레코드 하나로 시작하는 새 저널을 만든다 (기존 파일은 덮어씀). */
+    static EditJournal create(Path path, int version, long crc, long length) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        EditJournal journal = new EditJournal(path, ch);
+        journal.write(CHECKPOINT, version, checkpointData(crc, length));
+        ch.force(false);
+        return journal;
+    }
+
+    /** 기존 저널을 이어 쓰기용으로 연다. 끊긴 꼬리 레코드는 잘라낸다. */
+    static EditJournal openForAppend(Path path) throws IOException {
+        long valid = scan(path, new ArrayList<>());
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (ch.size() > valid) {
+            System.err.println("저널 [" + path + "] 끊긴 레코드 " + (ch.size() - valid) + " bytes 제거");
+            ch.truncate(valid);
+        }
+        return new EditJournal(path, ch);
+    }
+
+    /** 저널의 유효한 레코드를 모두 읽는다. */
+    static List<Entry> read(Path path) throws IOException {
+        List<Entry> out = new ArrayList<>();
+        scan(path, out);
+        return out;
+    }
+
+    /**
+     * 편집 레코드를 덧붙인다 (fsync 는 하지 않음 → {@link #force()}).
+     */
+    synchronized void appendEdit(int version, byte[] ops) throws IOException {
+        write(EDIT, version, ops);
+        editsSinceCheckpoint++;
+    }
+
+    synchronized void appendCheckpoint(int version, long crc, long length) throws IOException {
+        write(CHECKPOINT, version, checkpointData(crc, length));
+        channel.force(false);
+    }
+
+    /** 마지막 체크포인트 이후 기록된 편집 레코드 수 */
+    synchronized int editsSinceCheckpoint() {
+        return editsSinceCheckpoint;
+    }
+
+    /**
+     * version 까지 .txt 에 반영됐으므로, 체크포인트 하나와 그 이후 편집만 남기고 저널을 다시 쓴다.
+     */
+    synchronized void compact(int version, long crc, long length) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        scan(path, entries);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int kept = 0;
+        try (EditJournal fresh = create(tmp, version, crc, length)) {
+            for (Entry e : entries) {
+                if (e.type() == EDIT && e.version() > version) {
+                    fresh.write(EDIT, e.version(), e.data());
+                    kept++;
+                }
+            }
+            fresh.channel.force(false);
+        }
+        channel.close();
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        editsSinceCheckpoint = kept;
+    }
+
+    /** 지금까지 덧붙인 레코드를 디스크에 확정한다. */
+    synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /* ---------- 내부 ---------- */
+    private void write(byte type, int version, byte[] data) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + data.length);
+        body.put(type).putInt(version).put(data).flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + body.remaining());
+        record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body).flip();
+        while (record.hasRemaining()) channel.write(record);
+    }
+
+    private static byte[] checkpointData(long crc, long length) {
+        return ByteBuffer.allocate(16).putLong(crc).putLong(length).array();
+    }
+
+    /* 유효한 레코드를 out 에 모으고, 유효한 부분의 바이트 길이를 반환한다. */
+    private static long scan(Path path, List<Entry> out) throws IOException {
+        long valid = 0;
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        try (InputStream raw = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len < 5 || len > size - valid - 8) break;   // 깨진 길이 값
+                int expected;
+                byte[] body = new byte[len];
+                try {
+                    expected = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;   // 기록 도중 끊긴 레코드
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != expected) break;
+                ByteBuffer b = ByteBuffer.wrap(body);
+                byte type = b.get();
+                int version = b.getInt();
+                byte[] data = new byte[b.remaining()];
+                b.get(data);
+                out.add(new Entry(type, version, data));
+                valid += 8 + len;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,83 @@
+package cm.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 서버 이벤트 실행 경로.
+ *
+ * 문서 관련 이벤트는 문서 이름으로 고른 단일 스레드 lane 에서 순서대로 처리되고,
+ * 로그인·목록 조회 같은 전역 작업은 별도의 전역 lane 에서 처리된다.
+ * 서로 다른 문서의 편집은 여러 코어에서 동시에 진행되고, 한 문서 안에서는 순서가 유지된다.
+ *
+ * 설정: -Dcm.server.docLanes (기본: CPU 코어 수)
+ */
+public class EventLanes {
+    private final ExecutorService global;
+    private final ExecutorService[] docLanes;
+
+    public EventLanes() {
+        this(Integer.getInteger("cm.server.docLanes", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public EventLanes(int laneCount) {
+        this("lane", laneCount);
+    }
+
+    /** name: 스레드 이름 앞부분 (서버 이벤트 외의 문서별 백그라운드 작업에 쓸 때) */
+    public EventLanes(String name, int laneCount) {
+        global = Executors.newSingleThreadExecutor(named(name + "-global", new AtomicInteger()));
+        docLanes = new ExecutorService[Math.max(1, laneCount)];
+        AtomicInteger seq = new AtomicInteger();
+        for (int i = 0; i < docLanes.length; i++) {
+            docLanes[i] = Executors.newSingleThreadExecutor(named(name + "-doc", seq));
+        }
+    }
+
+    /** 전역 lane 에서 실행 */
+    public void submitGlobal(Runnable task) {
+        global.execute(guarded(task));
+    }
+
+    /** 문서 이름에 해당하는 lane 에서 실행 (같은 문서는 항상 같은 lane) */
+    public void submitDoc(String docName, Runnable task) {
+        docLanes[Math.floorMod(docName.hashCode(), docLanes.length)].execute(guarded(task));
+    }
+
+    public void shutdown() {
+        global.shutdown();
+        for (ExecutorService lane : docLanes) lane.shutdown();
+    }
+
+    /** shutdown 뒤, 이미 넣은 작업이 끝날 때까지 최대 timeoutMs 기다린다. */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean done = global.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        for (ExecutorService lane : docLanes) {
+            done &= lane.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        return done;
+    }
+
+    /* 예외 하나로 lane 스레드가 교체되며 로그가 사라지지 않도록 */
+    private static Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        };
+    }
+
+    private static ThreadFactory named(String prefix, AtomicInteger seq) {
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
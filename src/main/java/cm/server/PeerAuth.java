@@ -0,0 +1,88 @@
+package cm.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 서버 프로세스끼리의 TCP 링크 인증 (front → shard, 주 서버 → 대기 서버).
+ *
+ * 받는 쪽이 연결 직후 임의의 값(challenge)을 보내면, 연결한 쪽은 공유 비밀로 만든
+ * HMAC-SHA256(비밀, 용도 + challenge) 를 돌려준다. 비밀 자체는 네트워크로 보내지 않는다.
+ * 받는 쪽은 응답이 맞기 전에는 다른 프레임을 읽지 않고, 기존 연결도 바꾸지 않는다.
+ *
+ * 프레임 형식 (프로토콜 프레임보다 앞): 받는 쪽 → [16 bytes challenge], 연결한 쪽 → [32 bytes HMAC]
+ *
+ * 설정: -Dcm.peer.secret (shard·복제 링크를 쓰려면 필수, 모든 프로세스에 같은 값)
+ */
+final class PeerAuth {
+    static final String SHARD = "cm-shard";
+    static final String REPLICA = "cm-replica";
+
+    private static final int CHALLENGE_BYTES = 16;
+    private static final int MAC_BYTES = 32;
+    private static final int AUTH_MS = 5000;   // 응답을 기다리는 최대 시간
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] secret;
+
+    private PeerAuth(byte[] secret) {
+        this.secret = secret;
+    }
+
+    /** -Dcm.peer.secret 로 만든다. 없으면 (인증 없이 링크를 열지 않도록) 시작을 거부한다. */
+    static PeerAuth fromSystemProperties() {
+        String secret = System.getProperty("cm.peer.secret");
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("-Dcm.peer.secret 필요 (shard·복제 링크 인증용 공유 비밀, 모든 프로세스에 같은 값)");
+        }
+        return new PeerAuth(secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 받는 쪽: challenge 를 보내고 응답을 확인한다.
+     *
+     * @throws IOException 응답이 틀렸거나 AUTH_MS 안에 오지 않음
+     */
+    void challenge(Socket s, DataInputStream in, DataOutputStream out, String purpose) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        int timeout = s.getSoTimeout();
+        s.setSoTimeout(AUTH_MS);
+        byte[] answer = new byte[MAC_BYTES];
+        in.readFully(answer);
+        s.setSoTimeout(timeout);
+        if (!MessageDigest.isEqual(answer, mac(purpose, challenge))) {
+            throw new IOException("인증 실패: " + s.getRemoteSocketAddress());
+        }
+    }
+
+    /** 연결한 쪽: challenge 를 받아 응답한다. */
+    void respond(DataInputStream in, DataOutputStream out, String purpose) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        in.readFully(challenge);
+        out.write(mac(purpose, challenge));
+        out.flush();
+    }
+
+    private byte[] mac(String purpose, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(purpose.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);   // HmacSHA256 은 모든 JRE 에 있다
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cm.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 문서별 참여자 변경(입장·퇴장)을 모아 두었다가 interval 마다 문서당 하나의 변경분으로 내보낸다.
+ *
+ * 참여자에게는 전체 목록 대신 입장/퇴장한 사용자만 보내고(presence 버전 1 증가),
+ * 이번 묶음에 새로 들어온 사용자에게만 전체 목록(스냅샷)을 보낸다.
+ * 같은 묶음 안에서 나갔다 다시 들어오는 식의 변경은 서로 상쇄되어 다른 참여자에게는 보내지 않는다.
+ * 대량 재접속처럼 짧은 시간에 몰린 변경도 받는 사람마다 interval 당 한 번만 전송된다.
+ *
+ * 설정: -Dcm.presence.intervalMs (기본 100)
+ */
+public class PresenceBroadcaster {
+
+    /** 묶음을 실제로 보내는 쪽 */
+    public interface Sink {
+        void send(Update update);
+    }
+
+    /**
+     * 문서 하나의 변경 묶음.
+     *
+     * @param version  이 변경을 반영한 presence 버전 (변경이 없으면 이전 버전 그대로)
+     * @param joined   새로 들어온 사용자 (상쇄된 것 제외)
+     * @param left     나간 사용자 (상쇄된 것 제외)
+     * @param members  보내는 시점의 참여자 전체
+     * @param joiners  스냅샷을 받아야 하는 사용자 (이번 묶음에서 들어온 사용자)
+     */
+    public record Update(String docName, int version, List<String> joined, List<String> left,
+                         Set<String> members, Set<String> joiners) {
+        public boolean changed() {
+            return !joined.isEmpty() || !left.isEmpty();
+        }
+    }
+
+    private static final class Pending {
+        final Map<String, Boolean> changes = new LinkedHashMap<>();   // 사용자 -> true: 입장, false: 퇴장 (상쇄 후)
+        final Set<String> joiners = new LinkedHashSet<>();
+    }
+
+    private final Sink sink;
+    private final ServerState state;
+    private final long intervalMs;
+    private final Map<String, Pending> pending = new HashMap<>();   // guarded by this
+    private final Map<String, Integer> versions = new HashMap<>();  // guarded by this
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-broadcast");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PresenceBroadcaster(Sink sink, ServerState state) {
+        this(sink, state, Long.getLong("cm.presence.intervalMs", 100));
+    }
+
+    public PresenceBroadcaster(Sink sink, ServerState state, long intervalMs) {
+        this.sink = sink;
+        this.state = state;
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+
+    public void start() {
+        timer.scheduleAtFixedRate(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        timer.shutdown();
+    }
+
+    /** user 가 문서에 들어왔다 (참여자 상태를 바꾼 뒤 호출). */
+    public synchronized void joined(String docName, String user) {
+        Pending p = pending.computeIfAbsent(docName, d -> new Pending());
+        record(p, user, true);
+        p.joiners.add(user);
+    }
+
+    /** user 가 문서에서 나갔다 (참여자 상태를 바꾼 뒤 호출). */
+    public synchronized void left(String docName, String user) {
+        Pending p = pending.computeIfAbsent(docName, d -> new Pending());
+        record(p, user, false);
+        p.joiners.remove(user);
+    }
+
+    /** 현재 presence 버전 (스냅샷 요청에 답할 때) */
+    public synchronized int version(String docName) {
+        return versions.getOrDefault(docName, 0);
+    }
+
+    /** 삭제된 문서의 예약분과 버전을 버린다. */
+    public synchronized void discard(String docName) {
+        pending.remove(docName);
+        versions.remove(docName);
+    }
+
+    /* 반대 방향 변경이 남아 있으면 상쇄, 아니면 기록 */
+    private static void record(Pending p, String user, boolean join) {
+        Boolean prev = p.changes.remove(user);
+        if (prev == null || prev == join) p.changes.put(user, join);
+    }
+
+    private void flush() {
+        List<Update> ready = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Pending> e : pending.entrySet()) {
+                String docName = e.getKey();
+                Pending p = e.getValue();
+                List<String> joined = new ArrayList<>(), left = new ArrayList<>();
+                p.changes.forEach((user, join) -> (join ? joined : left).add(user));
+                int version = versions.getOrDefault(docName, 0);
+                if (!joined.isEmpty() || !left.isEmpty()) versions.put(docName, ++version);
+                ready.add(new Update(docName, version, joined, left, state.participants(docName), Set.copyOf(p.joiners)));
+            }
+            pending.clear();
+        }
+        // 전송은 잠금 밖에서 (그 사이 들어온 변경은 다음 묶음으로)
+        for (Update u : ready) {
+            try {
+                sink.send(u);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cm.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import kr.ac.konkuk.ccslab.cm.event.CMUserEvent;
+import kr.ac.konkuk.ccslab.cm.info.CMInfo;
+
+/**
+ * 넣은 필드를 기억해 두는 CMUserEvent. shard 사이의 링크({@link ShardLink})로 그대로 옮길 수 있다.
+ *
+ * CMUserEvent 는 필드 목록을 꺼낼 수 없으므로, 설정할 때 함께 기록해 두었다가 {@link #writeTo} 로 직렬화한다.
+ * 받은 쪽에서 {@link #readFrom} 으로 만든 이벤트는 보통의 CMUserEvent 처럼 CM 으로 보내거나 처리할 수 있다.
+ * 발신자는 CM 이 채우지 않으므로 링크로 받은 값을 따로 들고 있다.
+ *
+ * 직렬화 형식: [UTF ID][UTF 발신자(없으면 "")][int 필드 수] 이후 필드마다
+ * [UTF 이름][int 타입][int 길이][바이트] (문자열·숫자 필드는 UTF-8)
+ */
+public class RelayEvent extends CMUserEvent {
+    private record Field(int type, String text, byte[] bytes) {}   // 문자열·숫자 필드는 text, 바이트 필드는 bytes
+
+    private String stringId;
+    private String sender;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    @Override
+    public void setStringID(String id) {
+        super.setStringID(id);
+        stringId = id;
+    }
+
+    @Override
+    public boolean setEventField(int type, String name, String value) {
+        boolean ok = super.setEventField(type, name, value);
+        if (ok) fields.put(name, new Field(type, value, null));
+        return ok;
+    }
+
+    @Override
+    public boolean setEventBytesField(String name, int length, byte[] bytes) {
+        boolean ok = super.setEventBytesField(name, length, bytes);
+        if (ok) fields.put(name, new Field(CMInfo.CM_BYTES, null, length == bytes.length ? bytes : Arrays.copyOf(bytes, length)));
+        return ok;
+    }
+
+    @Override
+    public boolean removeEventField(String name) {
+        fields.remove(name);
+        return super.removeEventField(name);
+    }
+
+    /** 링크로 받은 이벤트면 원래 발신자, 아니면 CM 이 채운 값 */
+    @Override
+    public String getSender() {
+        return sender != null ? sender : super.getSender();
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    /** 받은 이벤트에서 필드를 골라 옮겨 담는다 (없는 필드는 건너뜀). */
+    public static RelayEvent copyOf(CMUserEvent src, String[] strFields, String[] intFields, String[] bytesFields) {
+        RelayEvent evt = new RelayEvent();
+        evt.setStringID(src.getStringID());
+        evt.setSender(src.getSender());
+        for (String f : strFields) {
+            String v = src.getEventField(CMInfo.CM_STR, f);
+            if (v != null) evt.setEventField(CMInfo.CM_STR, f, v);
+        }
+        for (String f : intFields) {
+            String v = src.getEventField(CMInfo.CM_INT, f);
+            if (v != null) evt.setEventField(CMInfo.CM_INT, f, v);
+        }
+        for (String f : bytesFields) {
+            byte[] v = src.getEventBytesField(f);
+            if (v != null) evt.setEventBytesField(f, v.length, v);
+        }
+        return evt;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(stringId == null ? "" : stringId);
+        String from = getSender();
+        out.writeUTF(from == null ? "" : from);
+        out.writeInt(fields.size());
+        for (Map.Entry<String, Field> e : fields.entrySet()) {
+            Field f = e.getValue();
+            byte[] value = f.bytes() != null ? f.bytes() : f.text().getBytes(StandardCharsets.UTF_8);
+            out.writeUTF(e.getKey());
+            out.writeInt(f.type());
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    public static RelayEvent readFrom(DataInputStream in) throws IOException {
+        RelayEvent evt = new RelayEvent();
+        evt.setStringID(in.readUTF());
+        String from = in.readUTF();
+        if (!from.isEmpty()) evt.setSender(from);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int type = in.readInt();
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            if (type == CMInfo.CM_BYTES) evt.setEventBytesField(name, value.length, value);
+            else evt.setEventField(type, name, new String(value, StandardCharsets.UTF_8));
+        }
+        return evt;
+    }
+}
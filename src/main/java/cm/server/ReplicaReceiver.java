@@ -0,0 +1,325 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import cm.model.EditOp;
+
+/**
+ * 대기 서버: 주 서버의 {@link ReplicationLog} 를 받아 문서를 계속 최신으로 유지하다가, 주 서버가 멈추면 이어받는다.
+ *
+ * 받은 변경은 주 서버와 같은 구성 요소(문서 버퍼·저널·flusher·목록)에 그 문서의 lane 에서 반영하므로,
+ * 대기 서버의 디스크와 메모리는 주 서버와 같은 버전을 따라간다. 주 서버의 epoch 도 이어받아서
+ * 이어받은 뒤에도 클라이언트 캐시(버전 + epoch)가 그대로 유효하다.
+ *
+ * 주 서버가 takeoverMs 동안 아무것도 보내지 않거나(PING 포함), 연결이 끊긴 뒤 takeoverMs 안에 다시 연결하지 않으면
+ * 이어받는다(takeover). 그 시점에 lane 에 남은 복제 작업은 이후 클라이언트 이벤트보다 먼저 실행되므로,
+ * 이어받는 데 걸리는 시간은 문서 수가 아니라 아직 반영하지 못한 로그 양에만 비례한다.
+ *
+ * 다시 연결되면 HELLO 에 마지막으로 받은 로그 위치(STATE)를 답해서, 주 서버가 빠진 로그만 다시 보내거나
+ * (창 밖이면) SYNC_BEGIN 에 문서별 버전(VERSIONS)을 답해서 다른 문서만 스냅샷으로 받는다.
+ * 버전이 이어지지 않은 문서(stale)는 그 문서의 스냅샷을 RESYNC 로 다시 요청하고, 받을 때까지 편집을 버린다.
+ *
+ * 한 번 이어받으면 더 이상 복제를 받지 않는다 (원래 주 서버를 다시 쓰려면 대기 서버로 다시 시작).
+ *
+ * 설정된 주소에만 bind 하고, 연결한 쪽이 {@link PeerAuth} 인증을 통과해야 복제 프레임을 받는다
+ * (인증하지 못한 연결은 문서를 바꾸지 못하고 이어받기 기한도 늘리지 못한다).
+ *
+ * 설정: -Dcm.replica.listen (대기 포트), -Dcm.replica.listenHost (기본 127.0.0.1),
+ *      -Dcm.replica.takeoverMs (기본 3000), -Dcm.peer.secret (주 서버와 같은 값)
+ */
+public class ReplicaReceiver {
+    private final InetSocketAddress listen;
+    private final PeerAuth auth = PeerAuth.fromSystemProperties();
+    private final long takeoverMs;
+    private final DocumentStore documents;
+    private final DocumentPersistence persistence;
+    private final DocumentFlusher flusher;
+    private final DocumentCatalog catalog;
+    private final EventLanes lanes;
+    private final Consumer<String> epochSink;        // 주 서버의 epoch 를 이어받음
+    private final Runnable takeover;
+
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();     // 버전이 어긋나 스냅샷을 기다리는 문서
+    private final Map<String, Boolean> resyncing = new ConcurrentHashMap<>();
+    private DataOutputStream out;                                        // guarded by this, 주 서버로 (STATE·VERSIONS·RESYNC)
+    private volatile boolean syncing;                                    // 전체 동기화 중 (SYNC_BEGIN ~ SYNC_END)
+
+    // 아래는 수신 스레드만 사용
+    private String followedEpoch = "";   // 로그를 따라온 주 서버 실행
+    private long receivedLsn = -1;       // 마지막으로 받은 로그 프레임 번호
+    private long lastLsn = -1;           // 이 위치까지의 로그가 모두 반영됨 (전체 동기화가 끝나지 않았으면 -1)
+    private boolean handshaking;         // HELLO 직후, 다시 보내기인지 전체 동기화인지 아직 모름
+
+    public ReplicaReceiver(InetSocketAddress listen, long takeoverMs, DocumentStore documents, DocumentPersistence persistence,
+                           DocumentFlusher flusher, DocumentCatalog catalog, EventLanes lanes,
+                           Consumer<String> epochSink, Runnable takeover) {
+        this.listen = new InetSocketAddress(listen.getHostString(), listen.getPort());
+        this.takeoverMs = Math.max(ReplicationLog.PING_MS * 2, takeoverMs);
+        this.documents = documents;
+        this.persistence = persistence;
+        this.flusher = flusher;
+        this.catalog = catalog;
+        this.lanes = lanes;
+        this.epochSink = epochSink;
+        this.takeover = takeover;
+    }
+
+    public void start() throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.bind(listen);
+        Thread t = new Thread(() -> run(server), "replica-receiver");
+        t.start();   // 데몬이 아님: 이어받기 전에는 CM 없이 이 스레드가 프로세스를 유지한다
+        System.out.println("[REPLICA] 대기 서버: 주 서버 연결 대기 (" + listen.getHostString() + ":" + listen.getPort() + ")");
+    }
+
+    /* 연결 하나가 끝난 이유 */
+    private enum Ended { REJECTED, DISCONNECTED, SILENT }
+
+    private void run(ServerSocket server) {
+        try (server) {
+            // 처음에는 주 서버를 계속 기다리고, 한 번 연결된 뒤 끊기면 takeoverMs 까지만 기다린다
+            // (인증하지 못한 연결은 그 기한을 늘리지 않는다)
+            long deadline = 0;
+            while (true) {
+                if (deadline > 0) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) break;
+                    server.setSoTimeout((int) left);
+                } else {
+                    server.setSoTimeout(0);
+                }
+                Socket s;
+                try {
+                    s = server.accept();
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                Ended ended = receive(s);
+                if (ended == Ended.SILENT) break;   // 주 서버가 연결된 채로 응답 없음
+                if (ended == Ended.DISCONNECTED) deadline = System.currentTimeMillis() + takeoverMs;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("[REPLICA] 주 서버 응답 없음 → 이어받음 (남은 복제 작업은 lane 에서 먼저 반영)");
+        takeover.run();
+    }
+
+    private Ended receive(Socket s) {
+        try (s) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            try {
+                auth.challenge(s, in, o, PeerAuth.REPLICA);   // 통과하기 전에는 HELLO·STATE 도 주고받지 않는다
+            } catch (IOException e) {
+                System.err.println("[REPLICA] 인증하지 못한 연결 거부: " + s.getRemoteSocketAddress() + " (" + e.getMessage() + ")");
+                return Ended.REJECTED;
+            }
+            s.setSoTimeout((int) takeoverMs);
+            synchronized (this) {
+                out = o;
+            }
+            System.out.println("[REPLICA] 주 서버 연결됨: " + s.getRemoteSocketAddress());
+            while (true) readFrame(in);
+        } catch (SocketTimeoutException e) {
+            return Ended.SILENT;
+        } catch (IOException e) {
+            System.err.println("[REPLICA] 주 서버 연결 끊김: " + e.getMessage());
+            return Ended.DISCONNECTED;
+        } finally {
+            synchronized (this) {
+                out = null;
+            }
+        }
+    }
+
+    private void readFrame(DataInputStream in) throws IOException {
+        int type = in.readInt();
+        if (handshaking && type != ReplicationLog.HELLO) {
+            handshaking = false;
+            // 다시 보내기로 이어졌으면 어긋난 문서는 여기서 다시 요청 (전체 동기화면 SYNC_END 뒤에)
+            if (type != ReplicationLog.SYNC_BEGIN) requestStale();
+        }
+        switch (type) {
+            case ReplicationLog.HELLO -> {
+                String epoch = in.readUTF();
+                epochSink.accept(epoch);
+                resyncing.clear();
+                synchronized (this) {
+                    out.writeInt(ReplicationLog.STATE);
+                    out.writeUTF(followedEpoch);
+                    out.writeLong(followedEpoch.equals(epoch) ? lastLsn : -1);
+                    out.flush();
+                }
+                if (!followedEpoch.equals(epoch)) {
+                    followedEpoch = epoch;
+                    receivedLsn = lastLsn = -1;
+                }
+                handshaking = true;
+            }
+            case ReplicationLog.SYNC_BEGIN -> {
+                syncing = true;
+                lastLsn = -1;
+                sendVersions();
+            }
+            case ReplicationLog.SNAPSHOT -> {
+                String docName = in.readUTF();
+                DocMeta meta = ReplicationLog.readMeta(in);
+                int version = in.readInt();
+                boolean resident = in.readBoolean();
+                String text = new String(ReplicationLog.readBytes(in), StandardCharsets.UTF_8);
+                lanes.submitDoc(docName, () -> applySnapshot(docName, meta, version, resident, text));
+            }
+            case ReplicationLog.CREATE -> {
+                received(in.readLong());
+                String docName = in.readUTF();
+                DocMeta meta = ReplicationLog.readMeta(in);
+                lanes.submitDoc(docName, () -> create(docName, meta));
+            }
+            case ReplicationLog.EDIT -> {
+                received(in.readLong());
+                String docName = in.readUTF();
+                int version = in.readInt();
+                String editor = in.readUTF();
+                long time = in.readLong();
+                String ops = new String(ReplicationLog.readBytes(in), StandardCharsets.UTF_8);
+                lanes.submitDoc(docName, () -> applyEdit(docName, version, editor, time, ops));
+            }
+            case ReplicationLog.DELETE -> {
+                received(in.readLong());
+                String docName = in.readUTF();
+                lanes.submitDoc(docName, () -> delete(docName));
+            }
+            case ReplicationLog.SYNC_END -> {
+                long synced = in.readLong();
+                syncing = false;
+                lastLsn = Math.max(receivedLsn, synced);
+                requestStale();
+                System.out.println("[REPLICA] 전체 동기화 완료 (로그 위치 " + lastLsn + ")");
+            }
+            case ReplicationLog.PING -> { }
+            default -> throw new IOException("알 수 없는 프레임 종류: " + type);
+        }
+    }
+
+    private void received(long lsn) {
+        receivedLsn = lsn;
+        if (!syncing) lastLsn = lsn;
+    }
+
+    /*
+     * 문서별 버전을 주 서버에 보낸다. lane 에 아직 남은 복제 작업이 있으면 실제보다 낮게 보일 뿐이므로
+     * (주 서버가 스냅샷을 한 번 더 보냄) lane 을 기다리지 않고 읽는다. 어긋난 문서는 -1 로 보내 스냅샷을 받는다.
+     * 메모리에 없는 문서는 저널을 읽지 않고 목록에 기록된 확정 버전을 쓴다 (모르면 -1).
+     */
+    private void sendVersions() throws IOException {
+        List<Map.Entry<String, DocMeta>> docs = catalog.entries();
+        synchronized (this) {
+            out.writeInt(ReplicationLog.VERSIONS);
+            out.writeInt(docs.size());
+            for (Map.Entry<String, DocMeta> e : docs) {
+                String docName = e.getKey();
+                DocumentBuffer buffer = documents.get(docName);
+                int version = stale.contains(docName) ? -1
+                        : buffer != null ? buffer.getVersion() : catalog.storedVersion(docName);
+                out.writeUTF(docName);
+                out.writeInt(version);
+                out.writeLong(e.getValue() == null ? 0L : e.getValue().createdTime());
+            }
+            out.flush();
+        }
+    }
+
+    /* 아직 어긋난 문서를 다시 요청한다 (그 문서의 앞선 복제 작업 뒤에 확인하도록 같은 lane 에서) */
+    private void requestStale() {
+        for (String docName : stale) {
+            lanes.submitDoc(docName, () -> {
+                if (stale.contains(docName)) requestResync(docName);
+            });
+        }
+    }
+
+    /* 문서 lane: 주 서버의 내용·버전으로 교체 (메모리에 있던 문서만 메모리에 남긴다) */
+    private void applySnapshot(String docName, DocMeta meta, int version, boolean resident, String text) {
+        documents.remove(docName);
+        flusher.discard(docName);
+        DocumentBuffer buffer = persistence.restore(docName, text, version);
+        if (resident) documents.add(docName, buffer);
+        else persistence.close(docName);
+        catalog.add(docName, meta);
+        stale.remove(docName);
+        resyncing.remove(docName);
+    }
+
+    /* 문서 lane: 새 문서. 전체 동기화와 겹쳐 같은 문서를 이미 받았으면 그대로 둔다 */
+    private void create(String docName, DocMeta meta) {
+        DocMeta known = catalog.meta(docName);
+        if (known != null && meta != null && known.createdTime() == meta.createdTime()) return;
+        flusher.discard(docName);
+        documents.add(docName, persistence.create(docName));
+        catalog.add(docName, meta);
+        stale.remove(docName);
+    }
+
+    /* 문서 lane: 편집 하나 반영. 버전이 이어지지 않으면 그 문서만 다시 요청한다 */
+    private void applyEdit(String docName, int version, String editor, long time, String ops) {
+        if (stale.contains(docName)) return;             // 스냅샷을 기다리는 중 (그 안에 이 편집도 포함됨)
+        if (!catalog.contains(docName)) {                // 생성을 놓친 문서
+            markStale(docName);
+            return;
+        }
+        DocumentBuffer buffer = documents.get(docName);
+        if (buffer == null) buffer = documents.add(docName, persistence.open(docName));
+        if (version <= buffer.getVersion()) return;
+        try {
+            if (version != buffer.getVersion() + 1) throw new IllegalArgumentException("버전 누락 " + buffer.getVersion() + " → " + version);
+            List<EditOp> applied = EditOp.decode(ops);
+            buffer.apply(applied);
+            persistence.logEdit(docName, version, applied);
+            flusher.markDirty(docName, ops.length());
+            catalog.touch(docName, editor.isEmpty() ? null : editor, time);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[REPLICA] 문서 [" + docName + "] 편집 반영 실패 (" + e.getMessage() + ") → 다시 요청");
+            markStale(docName);
+        }
+    }
+
+    /* 전체 동기화 중이면 스냅샷이 올 수 있으므로 SYNC_END 뒤에 남아 있을 때만 요청한다 */
+    private void markStale(String docName) {
+        stale.add(docName);
+        if (!syncing) requestResync(docName);
+    }
+
+    private void delete(String docName) {
+        documents.remove(docName);
+        flusher.discard(docName);
+        persistence.delete(docName);
+        catalog.remove(docName);
+        stale.remove(docName);
+    }
+
+    private synchronized void requestResync(String docName) {
+        if (out == null || resyncing.putIfAbsent(docName, Boolean.TRUE) != null) return;
+        try {
+            out.writeInt(ReplicationLog.RESYNC);
+            out.writeUTF(docName);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import cm.model.EditOp;
+
+/**
+ * 주 서버 → 대기 서버로 문서 변경을 계속 보내는 복제 로그 (주 서버 쪽).
+ *
+ * 편집은 문서 lane 에서 저널에 쓰는 것과 같은 단위(버전 하나 = 적용된 연산 묶음)로 큐에 넣고,
+ * 별도 스레드가 순서대로 대기 서버에 쓴다. lane 은 네트워크를 기다리지 않는다.
+ * 로그 프레임(CREATE·EDIT·DELETE)에는 일련번호(lsn)를 붙이고, 최근 windowFrames 개는 연결 여부와 상관없이 메모리에 남긴다.
+ *
+ * 연결될 때마다 대기 서버의 {@link PeerAuth} challenge 에 응답한 뒤 HELLO 를 보내면 대기 서버가 마지막으로 받은 로그 위치(STATE: 따라온 epoch, lsn)를 알려 준다.
+ * <ul>
+ *   <li>같은 서버 실행(epoch)이고 빠진 범위가 창 안에 있으면 그 범위만 다시 보낸다 (짧은 끊김은 로그 양만큼만).</li>
+ *   <li>아니면 SYNC_BEGIN 으로 대기 서버의 문서별 버전(VERSIONS)을 받아, 버전·생성 시각이 다른 문서만 스냅샷으로 보내고
+ *       주 서버에 없는 문서는 DELETE 로 지운 뒤 SYNC_END 를 보낸다 (onConnect).</li>
+ * </ul>
+ * 보낼 것이 없으면 PING 을 보내서 대기 서버가 주 서버의 정지를 알아챌 수 있게 한다.
+ *
+ * 대기 서버가 버전이 이어지지 않는 문서를 RESYNC 로 요청하면 onResync 로 그 문서의 스냅샷을 다시 보낸다.
+ *
+ * 프레임 형식: [int 종류] 이후
+ *   HELLO      [UTF 서버 epoch]
+ *   SNAPSHOT   [UTF 문서][메타][int 버전][boolean 메모리에 올라와 있음][int 길이][UTF-8 내용]
+ *   CREATE     [long lsn][UTF 문서][메타]
+ *   EDIT       [long lsn][UTF 문서][int 버전][UTF 편집자][long 시각][int 길이][UTF-8 연산(EditOp 직렬화)]
+ *   DELETE     [long lsn][UTF 문서]
+ *   SYNC_BEGIN
+ *   SYNC_END   [long lsn] (이 위치까지의 로그는 스냅샷에 반영됨)
+ *   PING
+ * 대기 서버 → 주 서버:
+ *   STATE      [UTF 따라온 epoch (없으면 빈 문자열)][long 마지막으로 받은 lsn (모르면 -1)]
+ *   VERSIONS   [int 개수] 이후 문서마다 [UTF 문서][int 버전][long 생성 시각]
+ *   RESYNC     [UTF 문서]
+ * 메타 = [UTF 생성자][UTF 마지막 편집자][long 생성 시각][long 마지막 수정 시각] (모르면 빈 문자열 / 0)
+ *
+ * 설정: -Dcm.replica.standby=host:port (대기 서버 주소), -Dcm.peer.secret (대기 서버와 같은 값), -Dcm.replica.queueFrames (기본 100000),
+ *      -Dcm.replica.windowFrames (기본 10000, 다시 보낼 수 있는 최근 로그 프레임 수)
+ */
+public class ReplicationLog {
+    static final int HELLO = 1;
+    static final int SNAPSHOT = 2;
+    static final int CREATE = 3;
+    static final int EDIT = 4;
+    static final int DELETE = 5;
+    static final int SYNC_END = 6;
+    static final int PING = 7;
+    static final int RESYNC = 8;
+    static final int STATE = 9;
+    static final int SYNC_BEGIN = 10;
+    static final int VERSIONS = 11;
+
+    static final long PING_MS = 500;
+    private static final long RETRY_MS = 1000;
+    private static final int HANDSHAKE_MS = 30_000;
+
+    /** 대기 서버가 가진 문서 하나의 버전과 생성 시각 (같은 이름으로 다시 만든 문서를 구분) */
+    public record Stamp(int version, long createdTime) {}
+
+    private final InetSocketAddress standby;
+    private final Supplier<String> epoch;            // 이 서버의 epoch (대기 서버가 이어받아 클라이언트 캐시를 유지)
+    private final Consumer<Map<String, Stamp>> onConnect;
+    private final Consumer<String> onResync;
+    private final PeerAuth auth = PeerAuth.fromSystemProperties();
+    private final BlockingQueue<byte[]> queue;
+    private final int windowFrames;
+    private final ArrayDeque<byte[]> window = new ArrayDeque<>();   // 최근 로그 프레임 (guarded by this)
+    private long lsn;                                                // 마지막 로그 프레임 번호 (guarded by this)
+    private long syncLsn;                                            // 전체 동기화를 시작한 시점의 lsn (guarded by this)
+    private volatile boolean connected;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+
+    /**
+     * @param onConnect 창 밖으로 벌어진 연결 직후 (복제 스레드): 대기 서버의 문서별 버전을 받아
+     *                  다른 문서의 스냅샷과 없는 문서의 삭제를 넣고, 끝나면 {@link #syncEnd()} 을 호출해야 한다
+     * @param onResync  대기 서버가 다시 요청한 문서 (링크 스레드)
+     */
+    public ReplicationLog(InetSocketAddress standby, Supplier<String> epoch,
+                          Consumer<Map<String, Stamp>> onConnect, Consumer<String> onResync) {
+        this.standby = standby;
+        this.epoch = epoch;
+        this.onConnect = onConnect;
+        this.onResync = onResync;
+        int capacity = Math.max(1, Integer.getInteger("cm.replica.queueFrames", 100_000));
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.windowFrames = Math.max(0, Math.min(capacity, Integer.getInteger("cm.replica.windowFrames", 10_000)));
+    }
+
+    /** -Dcm.replica.standby 가 있으면 그 주소, 없으면 null */
+    public static InetSocketAddress standbyFromSystemProperties() {
+        String spec = System.getProperty("cm.replica.standby");
+        if (spec == null || spec.isBlank()) return null;
+        int colon = spec.lastIndexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("대기 서버 주소 형식 오류 (host:port): " + spec);
+        return InetSocketAddress.createUnresolved(spec.substring(0, colon).trim(), Integer.parseInt(spec.substring(colon + 1).trim()));
+    }
+
+    public void start() {
+        Thread t = new Thread(this::run, "replication-log");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        disconnect();
+    }
+
+    /** 아직 대기 서버에 쓰지 못한 프레임 수 (복제 지연) */
+    public int lag() {
+        return queue.size();
+    }
+
+    /* ---------- 변경 기록 (문서 lane 에서 호출) ---------- */
+
+    public void snapshot(String docName, DocMeta meta, int version, String text, boolean resident) {
+        enqueue(frame(SNAPSHOT, -1, out -> {
+            out.writeUTF(docName);
+            writeMeta(out, meta);
+            out.writeInt(version);
+            out.writeBoolean(resident);
+            writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+        }));
+    }
+
+    public void created(String docName, DocMeta meta) {
+        log(CREATE, out -> {
+            out.writeUTF(docName);
+            writeMeta(out, meta);
+        });
+    }
+
+    public void edited(String docName, int version, String editor, long time, List<EditOp> ops) {
+        log(EDIT, out -> {
+            out.writeUTF(docName);
+            out.writeInt(version);
+            out.writeUTF(editor == null ? "" : editor);
+            out.writeLong(time);
+            writeBytes(out, EditOp.encode(ops).getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    public void deleted(String docName) {
+        log(DELETE, out -> out.writeUTF(docName));
+    }
+
+    /** 전체 동기화의 스냅샷·삭제를 모두 넣었다 (연결 시점까지의 로그가 반영됨) */
+    public void syncEnd() {
+        long at;
+        synchronized (this) {
+            at = syncLsn;
+        }
+        enqueue(frame(SYNC_END, -1, out -> out.writeLong(at)));
+    }
+
+    /* ---------- 내부 ---------- */
+
+    private interface FrameBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /* 로그 프레임: 번호를 붙여 창에 남기고, 연결돼 있으면 보낸다 */
+    private synchronized void log(int type, FrameBody body) {
+        byte[] f = frame(type, ++lsn, body);
+        if (windowFrames > 0) {
+            if (window.size() == windowFrames) window.removeFirst();
+            window.addLast(f);
+        }
+        enqueue(f);
+    }
+
+    private static byte[] frame(int type, long frameLsn, FrameBody body) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeInt(type);
+            if (frameLsn >= 0) out.writeLong(frameLsn);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // 메모리 스트림이므로 일어나지 않음
+        }
+        return buf.toByteArray();
+    }
+
+    /* 연결돼 있을 때만 큐에 넣는다. 큐가 넘치면 연결을 끊어 다음 연결에서 다시 맞춘다. */
+    private void enqueue(byte[] f) {
+        if (!connected) return;
+        if (!queue.offer(f)) {
+            System.err.println("[REPLICA] 복제 큐가 가득 참 (" + queue.size() + ") → 다시 연결해서 맞춤");
+            disconnect();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(standby.getHostString(), standby.getPort())) {
+                s.setTcpNoDelay(true);
+                socket = s;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                auth.respond(in, out, PeerAuth.REPLICA);
+                String self = epoch.get();
+                out.writeInt(HELLO);
+                out.writeUTF(self);
+                out.flush();
+
+                s.setSoTimeout(HANDSHAKE_MS);
+                expect(in, STATE);
+                String followed = in.readUTF();
+                long standbyLsn = in.readLong();
+                if (catchUp(self, followed, standbyLsn)) {
+                    s.setSoTimeout(0);
+                } else {
+                    // 창 밖: 대기 서버의 문서별 버전을 받아 다른 것만 보낸다 (스냅샷은 lane 에서, 큐가 쌓이는 동안)
+                    out.writeInt(SYNC_BEGIN);
+                    out.flush();
+                    expect(in, VERSIONS);
+                    Map<String, Stamp> versions = new HashMap<>();
+                    for (int i = in.readInt(); i > 0; i--) versions.put(in.readUTF(), new Stamp(in.readInt(), in.readLong()));
+                    s.setSoTimeout(0);
+                    System.out.println("[REPLICA] 대기 서버 " + standby.getHostString() + ":" + standby.getPort()
+                            + " 연결됨 → 문서 " + versions.size() + "개 버전 비교 후 다른 문서만 동기화");
+                    onConnect.accept(versions);
+                }
+                startResyncReader(in);
+                ship(out);
+            } catch (IOException e) {
+                if (running) System.err.println("[REPLICA] 대기 서버 연결 실패/끊김: " + e.getMessage());
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (!running) return;
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 대기 서버가 이 실행의 로그를 따라왔고 빠진 범위가 창 안에 있으면 그 범위만 큐에 넣는다.
+     * 어느 쪽이든 이 시점부터 새 로그는 큐로 간다 (lane 의 기록과 겹치거나 빠지지 않도록 한 잠금 안에서).
+     *
+     * @return 다시 보내기로 충분하면 true, 전체 동기화가 필요하면 false
+     */
+    private synchronized boolean catchUp(String self, String followed, long standbyLsn) {
+        queue.clear();
+        connected = true;
+        long oldest = lsn - window.size() + 1;
+        if (!self.equals(followed) || standbyLsn < oldest - 1 || standbyLsn > lsn) {
+            syncLsn = lsn;
+            return false;
+        }
+        long n = lsn - standbyLsn;
+        long skip = window.size() - n;
+        for (byte[] f : window) {
+            if (skip-- > 0) continue;
+            queue.offer(f);   // 창 크기 <= 큐 크기
+        }
+        System.out.println("[REPLICA] 대기 서버 " + standby.getHostString() + ":" + standby.getPort()
+                + " 다시 연결됨 → 빠진 로그 " + n + "개만 다시 보냄");
+        return true;
+    }
+
+    private static void expect(DataInputStream in, int type) throws IOException {
+        int got = in.readInt();
+        if (got != type) throw new IOException("예상한 프레임(" + type + ")이 아님: " + got);
+    }
+
+    /* 큐의 프레임을 순서대로 쓴다. 큐가 비면 flush, 한동안 없으면 PING */
+    private void ship(DataOutputStream out) throws IOException {
+        while (running && connected) {
+            byte[] frame;
+            try {
+                frame = queue.poll(PING_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (frame == null) {
+                out.writeInt(PING);
+                out.flush();
+                continue;
+            }
+            out.write(frame);
+            if (queue.isEmpty()) out.flush();
+        }
+        throw new IOException("복제 중단");
+    }
+
+    private void startResyncReader(DataInputStream in) {
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    expect(in, RESYNC);
+                    onResync.accept(in.readUTF());
+                }
+            } catch (IOException e) {
+                // 연결이 끊기면 복제 스레드가 처리한다
+            }
+        }, "replication-resync");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void disconnect() {
+        connected = false;
+        Socket s = socket;
+        if (s == null) return;
+        try {
+            s.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void writeMeta(DataOutputStream out, DocMeta m) throws IOException {
+        out.writeUTF(m == null || m.creatorId() == null ? "" : m.creatorId());
+        out.writeUTF(m == null || m.lastEditorId() == null ? "" : m.lastEditorId());
+        out.writeLong(m == null ? 0L : m.createdTime());
+        out.writeLong(m == null ? 0L : m.lastModifiedTime());
+    }
+
+    static DocMeta readMeta(DataInputStream in) throws IOException {
+        String creator = in.readUTF();
+        String editor = in.readUTF();
+        long created = in.readLong();
+        long modified = in.readLong();
+        return new DocMeta(creator.isEmpty() ? null : creator, editor.isEmpty() ? null : editor, created, modified);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return b;
+    }
+}
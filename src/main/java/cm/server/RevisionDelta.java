@@ -0,0 +1,123 @@
+package cm.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 두 리비전 사이의 변경분 (rsync 방식 블록 대조).
+ *
+ * 이전 내용(base)을 BLOCK 글자 단위 블록으로 나눠 해시해 두고, 새 내용(target)을 한 글자씩 밀며
+ * rolling hash 로 같은 블록을 찾는다. 찾은 곳은 앞뒤로 늘려 COPY(base 의 위치, 길이)로,
+ * 나머지는 LITERAL(글자들)로 기록한다. 떨어진 여러 곳을 고치거나 문단을 옮겨도 바뀐 부분만 남는다.
+ *
+ * 형식: 명령의 나열
+ *   COPY    [byte 'C'][int base 위치][int 길이]
+ *   LITERAL [byte 'L'][UTF 글자들] (modified UTF-8 이라 서로게이트가 블록 경계에서 나뉘어도 그대로 보존)
+ */
+final class RevisionDelta {
+    private static final int BLOCK = 32;
+    private static final int BASE = 31;
+    private static final int LITERAL_CHUNK = 16 * 1024;   // writeUTF 한도(65535 바이트) 안에 들도록
+    private static final byte COPY = 'C';
+    private static final byte LITERAL = 'L';
+
+    private RevisionDelta() {
+    }
+
+    /** base 를 target 으로 바꾸는 변경분 */
+    static byte[] encode(String base, String target) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            Map<Integer, Integer> blocks = new HashMap<>();
+            for (int i = 0; i + BLOCK <= base.length(); i += BLOCK) blocks.putIfAbsent(hash(base, i), i);
+
+            int pow = 1;   // BASE^(BLOCK-1)
+            for (int i = 1; i < BLOCK; i++) pow *= BASE;
+
+            int literalStart = 0;
+            int p = 0;
+            int h = blocks.isEmpty() || target.length() < BLOCK ? 0 : hash(target, 0);
+            while (!blocks.isEmpty() && p + BLOCK <= target.length()) {
+                Integer s = blocks.get(h);
+                if (s != null && target.regionMatches(p, base, s, BLOCK)) {
+                    int start = s, at = p;
+                    while (at > literalStart && start > 0 && base.charAt(start - 1) == target.charAt(at - 1)) {
+                        start--;
+                        at--;
+                    }
+                    int len = p - at + BLOCK;
+                    while (start + len < base.length() && at + len < target.length()
+                            && base.charAt(start + len) == target.charAt(at + len)) len++;
+                    writeLiteral(out, target, literalStart, at);
+                    out.writeByte(COPY);
+                    out.writeInt(start);
+                    out.writeInt(len);
+                    p = at + len;
+                    literalStart = p;
+                    if (p + BLOCK <= target.length()) h = hash(target, p);
+                    continue;
+                }
+                if (p + BLOCK < target.length()) h = (h - target.charAt(p) * pow) * BASE + target.charAt(p + BLOCK);
+                p++;
+            }
+            writeLiteral(out, target, literalStart, target.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // 메모리 스트림이므로 일어나지 않음
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * base 에 변경분을 적용한 내용.
+     *
+     * @throws IllegalArgumentException 변경분이 깨졌거나 base 와 맞지 않을 때
+     */
+    static String apply(String base, byte[] delta) {
+        StringBuilder sb = new StringBuilder(base.length());
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta))) {
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (kind == COPY) {
+                    int start = in.readInt();
+                    int len = in.readInt();
+                    if (start < 0 || len < 0 || start + len > base.length()) {
+                        throw new IllegalArgumentException("copy out of range: " + start + "," + len + " (base length=" + base.length() + ")");
+                    }
+                    sb.append(base, start, start + len);
+                } else if (kind == LITERAL) {
+                    sb.append(in.readUTF());
+                } else {
+                    throw new IllegalArgumentException("unknown delta command: " + kind);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("truncated delta", e);
+        }
+        return sb.toString();
+    }
+
+    private static void writeLiteral(DataOutputStream out, String s, int from, int to) throws IOException {
+        for (int i = from; i < to; i += LITERAL_CHUNK) {
+            out.writeByte(LITERAL);
+            out.writeUTF(s.substring(i, Math.min(to, i + LITERAL_CHUNK)));
+        }
+    }
+
+    private static int hash(String s, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i++) h = h * BASE + s.charAt(i);
+        return h;
+    }
+}
@@ -0,0 +1,322 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import cm.model.PayloadCompression;
+
+/**
+ * 문서별 리비전 이력 (documents/&lt;name&gt;.rev).
+ *
+ * SAVE_DOC 마다 리비전 하나를 덧붙인다. 매번 전체를 남기지 않고, snapshotEvery 리비전마다 한 번만
+ * 전체 내용(FULL)을 쓰고 그 사이는 바로 앞 리비전과의 변경분(DELTA, {@link RevisionDelta})만 쓴다.
+ * 변경분이 내용의 절반보다 크면 그 리비전도 FULL 로 쓴다. 큰 본문은 deflate 로 한 번 더 줄인다.
+ *
+ * 어떤 리비전을 읽든 그 앞의 가장 가까운 FULL 에서 시작해 변경분을 최대 snapshotEvery - 1 개만 적용하므로,
+ * 이력 전체를 재생하지 않고 일정한 시간 안에 복원한다. 레코드 위치는 처음 읽을 때 색인해 메모리에 둔다.
+ *
+ * 레코드 형식 (저널과 같은 틀): [int 본문길이][int CRC32(본문)][본문]
+ *   본문 = [byte FULL|DELTA][int 리비전][int 문서 버전][long 시각][int 압축 전 크기(압축 안 했으면 0)]
+ *          [int 작성자 길이][UTF-8 작성자][내용(FULL: UTF-8 텍스트, DELTA: 변경분)]
+ * 마지막 레코드가 중간에 끊겼으면 그 앞까지만 유효한 것으로 보고 잘라낸다.
+ *
+ * 기록(압축·변경분 계산·fsync)은 문서 lane 을 막지 않도록 이 저장소의 백그라운드 lane 에서 한다.
+ * 문서 lane 은 변경할 수 없는 스냅샷만 넘기고({@link #save}), 같은 문서의 기록·조회·삭제는 모두
+ * 그 문서의 리비전 lane 에서 넣은 순서대로 실행된다. 조회는 {@link #submit} 안에서 한다.
+ * 마지막 리비전의 내용은 메모리에 두어 다음 기록 때 변경분 사슬을 다시 재생하지 않는다.
+ *
+ * 설정: -Dcm.revision.snapshotEvery (기본 20), -Dcm.revision.lanes (기본 2, 기록 스레드 수)
+ */
+public class RevisionStore {
+    private static final byte FULL = 1;
+    private static final byte DELTA = 2;
+    private static final int HEADER = 1 + 4 + 4 + 8 + 4 + 4;
+
+    /** 리비전 목록의 한 항목 (bytes: 디스크에 쓴 본문 크기) */
+    public record Revision(int revision, int version, long time, String author, boolean full, int bytes) {}
+
+    /** 복원한 리비전 */
+    public record Restored(Revision revision, String text) {}
+
+    private final Path folder;
+    private final int snapshotEvery;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+    private final EventLanes lanes;
+
+    /* 한 문서의 리비전 색인 */
+    private static final class History {
+        final List<Revision> revisions = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();   // 각 레코드의 파일 위치
+        long end;                                       // 유효한 부분의 끝 (다음 레코드 위치)
+        String lastText;                                // 마지막 리비전의 내용 (아직 복원하지 않았으면 null)
+    }
+
+    public RevisionStore(String folder) {
+        this(folder, Integer.getInteger("cm.revision.snapshotEvery", 20));
+    }
+
+    public RevisionStore(String folder, int snapshotEvery) {
+        this.folder = Paths.get(folder);
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.lanes = new EventLanes("revision", Integer.getInteger("cm.revision.lanes", 2));
+    }
+
+    /** 남은 기록을 마치고 멈춘다 (서버 종료 시) */
+    public void stop() {
+        lanes.shutdown();
+        try {
+            if (!lanes.awaitTermination(10_000)) System.err.println("리비전 기록이 끝나지 않은 채 종료");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path path(String docName) {
+        return folder.resolve(docName + ".rev");
+    }
+
+    /* ---------- 조회 (submit 안에서) ---------- */
+
+    /** 그 문서의 리비전 lane 에서 실행한다 (앞서 넣은 기록이 끝난 뒤) */
+    public void submit(String docName, Runnable task) {
+        lanes.submitDoc(docName, task);
+    }
+
+    /** 리비전 목록 (오래된 순) */
+    public List<Revision> list(String docName) {
+        return List.copyOf(history(docName).revisions);
+    }
+
+    /** 마지막 리비전의 문서 버전, 없으면 -1 */
+    public int latestVersion(String docName) {
+        List<Revision> revs = history(docName).revisions;
+        return revs.isEmpty() ? -1 : revs.get(revs.size() - 1).version();
+    }
+
+    /**
+     * 리비전 내용을 복원한다 (가장 가까운 FULL + 변경분 최대 snapshotEvery - 1 개).
+     *
+     * @return 없는 리비전이거나 읽을 수 없으면 null
+     */
+    public Restored get(String docName, int revision) {
+        History h = history(docName);
+        int index = indexOf(h, revision);
+        if (index < 0) return null;
+        int from = index;
+        while (!h.revisions.get(from).full()) from--;
+        try (FileChannel ch = FileChannel.open(path(docName), StandardOpenOption.READ)) {
+            String text = null;
+            for (int i = from; i <= index; i++) {
+                byte[] payload = readPayload(ch, h.offsets.get(i));
+                text = h.revisions.get(i).full()
+                        ? new String(payload, StandardCharsets.UTF_8)
+                        : RevisionDelta.apply(text, payload);
+            }
+            if (index == h.revisions.size() - 1) h.lastText = text;
+            return new Restored(h.revisions.get(index), text);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("문서 [" + docName + "] 리비전 " + revision + " 복원 실패: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /* ---------- 기록 ---------- */
+
+    /**
+     * 스냅샷을 새 리비전으로 덧붙이도록 리비전 lane 에 넘긴다 (문서 lane 은 기다리지 않음).
+     * 마지막 리비전과 같은 버전이면 아무것도 하지 않는다.
+     *
+     * @param recorded 기록했으면 리비전 lane 에서 새 리비전으로 호출
+     */
+    public void save(String docName, DocumentBuffer.Snapshot snap, String author, long time, Consumer<Revision> recorded) {
+        lanes.submitDoc(docName, () -> {
+            Revision rev = record(docName, snap.version(), author, time, snap);
+            if (rev != null) recorded.accept(rev);
+        });
+    }
+
+    /* 리비전 lane: 기록. 바뀐 것이 없거나 기록에 실패하면 null */
+    private Revision record(String docName, int version, String author, long time, DocumentBuffer.Snapshot snap) {
+        History h = history(docName);
+        if (latestVersion(docName) == version) return null;
+        String text = snap.text().toString();
+
+        int count = h.revisions.size();
+        int sinceFull = 0;
+        while (sinceFull < count && !h.revisions.get(count - 1 - sinceFull).full()) sinceFull++;
+        byte kind = FULL;
+        byte[] raw = null;
+        if (count > 0 && sinceFull + 1 < snapshotEvery) {
+            String prev = h.lastText;
+            if (prev == null) {
+                Restored restored = get(docName, h.revisions.get(count - 1).revision());
+                if (restored != null) prev = restored.text();
+            }
+            if (prev != null) {
+                byte[] delta = RevisionDelta.encode(prev, text);
+                if (delta.length <= text.length() / 2) {
+                    kind = DELTA;
+                    raw = delta;
+                }
+            }
+        }
+        if (raw == null) raw = text.getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = PayloadCompression.compress(raw);
+        byte[] payload = compressed == null ? raw : compressed;
+        byte[] authorBytes = (author == null ? "" : author).getBytes(StandardCharsets.UTF_8);
+        int revision = count == 0 ? 1 : h.revisions.get(count - 1).revision() + 1;
+
+        ByteBuffer body = ByteBuffer.allocate(HEADER + authorBytes.length + payload.length);
+        body.put(kind).putInt(revision).putInt(version).putLong(time)
+                .putInt(compressed == null ? 0 : raw.length)
+                .putInt(authorBytes.length).put(authorBytes).put(payload).flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8 + body.remaining());
+        record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body).flip();
+
+        try {
+            Files.createDirectories(folder);
+            try (FileChannel ch = FileChannel.open(path(docName), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (ch.size() > h.end) ch.truncate(h.end);   // 끊긴 꼬리 레코드
+                ch.position(h.end);
+                while (record.hasRemaining()) ch.write(record);
+                ch.force(false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        Revision rev = new Revision(revision, version, time, author, kind == FULL, payload.length);
+        h.offsets.add(h.end);
+        h.revisions.add(rev);
+        h.end += 8 + body.limit();
+        h.lastText = text;
+        return rev;
+    }
+
+    /** 문서 삭제 시 이력도 지운다 (앞서 넣은 기록 뒤에) */
+    public void delete(String docName) {
+        lanes.submitDoc(docName, () -> {
+            histories.remove(docName);
+            try {
+                Files.deleteIfExists(path(docName));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /** 메모리의 색인과 마지막 내용만 내린다 (문서를 메모리에서 내릴 때, 다음 조회 때 다시 읽음) */
+    public void forget(String docName) {
+        lanes.submitDoc(docName, () -> histories.remove(docName));
+    }
+
+    /* ---------- 내부 ---------- */
+
+    private History history(String docName) {
+        return histories.computeIfAbsent(docName, this::scan);
+    }
+
+    private static int indexOf(History h, int revision) {
+        // 리비전 번호는 1 부터 빠짐없이 이어지지만, 끊긴 파일에 대비해 찾아서 확인한다
+        int guess = revision - 1;
+        if (guess >= 0 && guess < h.revisions.size() && h.revisions.get(guess).revision() == revision) return guess;
+        for (int i = 0; i < h.revisions.size(); i++) if (h.revisions.get(i).revision() == revision) return i;
+        return -1;
+    }
+
+    /* 레코드 하나의 내용 (압축은 풀어서) */
+    private static byte[] readPayload(FileChannel ch, long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(8);
+        readFully(ch, head, offset);
+        int len = head.getInt(0);
+        ByteBuffer body = ByteBuffer.allocate(len);
+        readFully(ch, body, offset + 8);
+        body.flip();
+        body.position(1 + 4 + 4 + 8);
+        int rawLen = body.getInt();
+        int authorLen = body.getInt();
+        body.position(body.position() + authorLen);
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return rawLen == 0 ? payload : PayloadCompression.decompress(payload, rawLen);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new EOFException("리비전 파일이 짧음");
+        }
+    }
+
+    /* 파일을 처음부터 읽어 색인을 만든다 (CRC 가 맞는 곳까지) */
+    private History scan(String docName) {
+        History h = new History();
+        Path file = path(docName);
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            return h;   // 이력 없음
+        }
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len < HEADER || len > size - h.end - 8) break;   // 깨진 길이 값
+                int expected;
+                byte[] body = new byte[len];
+                try {
+                    expected = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;   // 기록 도중 끊긴 레코드
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != expected) break;
+                ByteBuffer b = ByteBuffer.wrap(body);
+                byte kind = b.get();
+                int revision = b.getInt();
+                int version = b.getInt();
+                long time = b.getLong();
+                b.getInt();   // 압축 전 크기
+                byte[] author = new byte[b.getInt()];
+                b.get(author);
+                h.revisions.add(new Revision(revision, version, time, new String(author, StandardCharsets.UTF_8),
+                        kind == FULL, b.remaining()));
+                h.offsets.add(h.end);
+                h.end += 8 + len;
+            }
+        } catch (NoSuchFileException e) {
+            return h;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (h.end < size) System.err.println("리비전 파일 [" + file + "] 끊긴 레코드 " + (size - h.end) + " bytes 무시");
+        return h;
+    }
+}
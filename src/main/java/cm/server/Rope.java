@@ -0,0 +1,303 @@
+package cm.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 문서 텍스트를 일정 크기 조각(leaf)으로 나누어 균형 트리로 보관하는 불변 로프.
+ *
+ * 삽입·삭제는 split/join 으로 O(log n) 개의 노드만 새로 만들고 나머지는 공유한다.
+ * 따라서 편집 한 번에 문서 전체가 복사되지 않으며, 기존 Rope 객체는 그대로
+ * 스냅샷으로 쓸 수 있다 (전송·저장 중에도 편집이 계속되어도 안전).
+ *
+ * 노드마다 줄바꿈('\n') 개수를 함께 두어 줄 번호 → 위치 변환도 O(log n) 이다 (큰 문서의 부분 읽기).
+ */
+public final class Rope {
+    /** leaf 하나에 담는 최대 문자 수 */
+    static final int CHUNK = 1024;
+
+    private static final Rope EMPTY = new Rope(null);
+
+    private final Node root;   // null 이면 빈 문서
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    public static Rope of(CharSequence s) {
+        return s.length() == 0 ? EMPTY : new Rope(build(s, 0, s.length()));
+    }
+
+    public int length() {
+        return root == null ? 0 : root.length;
+    }
+
+    /**
+     * 디코더 출력처럼 조각조각 들어오는 문자를 문자열 하나로 모으지 않고 바로 leaf 로 만든다.
+     * 파일 로딩 시 전체 크기의 중간 복사본(byte[], String)을 만들지 않기 위해 쓴다.
+     */
+    static final class Builder {
+        private final List<Node> leaves = new ArrayList<>();
+        private final char[] buf = new char[CHUNK];
+        private int count;
+
+        void append(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                int n = Math.min(CHUNK - count, chars.remaining());
+                chars.get(buf, count, n);
+                count += n;
+                if (count == CHUNK) flushLeaf();
+            }
+        }
+
+        void append(char c) {
+            buf[count++] = c;
+            if (count == CHUNK) flushLeaf();
+        }
+
+        Rope build() {
+            if (count > 0) flushLeaf();
+            return leaves.isEmpty() ? EMPTY : new Rope(balanced(leaves, 0, leaves.size()));
+        }
+
+        private void flushLeaf() {
+            leaves.add(new Leaf(new String(buf, 0, count)));
+            count = 0;
+        }
+
+        private static Node balanced(List<Node> leaves, int from, int to) {
+            if (to - from == 1) return leaves.get(from);
+            int mid = (from + to) >>> 1;
+            return new Branch(balanced(leaves, from, mid), balanced(leaves, mid, to));
+        }
+    }
+
+    /* ---------- 편집 (새 Rope 반환) ---------- */
+    public Rope insert(int offset, CharSequence s) {
+        checkRange(offset, 0);
+        if (s.length() == 0) return this;
+        Node[] parts = split(root, offset);
+        return new Rope(join(join(parts[0], build(s, 0, s.length())), parts[1]));
+    }
+
+    public Rope delete(int offset, int length) {
+        checkRange(offset, length);
+        if (length == 0) return this;
+        Node[] head = split(root, offset);
+        Node[] tail = split(head[1], length);
+        return new Rope(join(head[0], tail[1]));
+    }
+
+    /* ---------- 조회 ---------- */
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) throw new IndexOutOfBoundsException(index);
+        Node n = root;
+        while (n instanceof Branch b) {
+            if (index < b.left.length) {
+                n = b.left;
+            } else {
+                index -= b.left.length;
+                n = b.right;
+            }
+        }
+        return ((Leaf) n).text.charAt(index);
+    }
+
+    /** 줄 수 (줄바꿈 개수 + 1, 빈 문서는 1) */
+    public int lineCount() {
+        return (root == null ? 0 : root.newlines) + 1;
+    }
+
+    /**
+     * line 번째 줄(0부터)이 시작하는 위치. line 이 줄 수 이상이면 문서 길이.
+     */
+    public int lineStart(int line) {
+        if (line <= 0) return 0;
+        if (line >= lineCount()) return length();
+        int k = line;          // 이 줄 앞에 있는 k 번째 줄바꿈 바로 뒤가 시작 위치
+        int offset = 0;
+        Node n = root;
+        while (n instanceof Branch b) {
+            if (k <= b.left.newlines) {
+                n = b.left;
+            } else {
+                k -= b.left.newlines;
+                offset += b.left.length;
+                n = b.right;
+            }
+        }
+        String text = ((Leaf) n).text;
+        int i = -1;
+        while (k-- > 0) i = text.indexOf('\n', i + 1);
+        return offset + i + 1;
+    }
+
+    public String substring(int start, int end) {
+        checkRange(start, end - start);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(root, start, end, sb);
+        return sb.toString();
+    }
+
+    /** 문자열 전체를 만들지 않고 leaf 단위로 Writer 에 기록한다. */
+    public void writeTo(Writer out) throws IOException {
+        writeNode(root, out);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        appendRange(root, 0, length(), sb);
+        return sb.toString();
+    }
+
+    private void checkRange(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new IllegalArgumentException("range out of bounds: offset=" + offset
+                    + ", length=" + length + " (doc length=" + length() + ")");
+        }
+    }
+
+    /* ================= 내부 트리 ================= */
+    private abstract static class Node {
+        final int length;
+        final int height;
+        final int newlines;
+
+        Node(int length, int height, int newlines) {
+            this.length = length;
+            this.height = height;
+            this.newlines = newlines;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String text;
+
+        Leaf(String text) {
+            super(text.length(), 0, countNewlines(text));
+            this.text = text;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left, right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1,
+                    left.newlines + right.newlines);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static int countNewlines(String text) {
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) count++;
+        return count;
+    }
+
+    /* s[from, to) 를 CHUNK 단위 leaf 들의 균형 트리로 만든다. */
+    private static Node build(CharSequence s, int from, int to) {
+        if (from == to) return null;
+        if (to - from <= CHUNK) return new Leaf(s.subSequence(from, to).toString());
+        int chunks = (to - from + CHUNK - 1) / CHUNK;
+        int mid = from + (chunks / 2) * CHUNK;
+        return new Branch(build(s, from, mid), build(s, mid, to));
+    }
+
+    /* 두 트리를 이어 붙이면서 높이 균형(AVL)을 유지한다. */
+    private static Node join(Node l, Node r) {
+        if (l == null) return r;
+        if (r == null) return l;
+        if (l instanceof Leaf a && r instanceof Leaf b && a.length + b.length <= CHUNK) {
+            return new Leaf(a.text + b.text);
+        }
+        if (l.height > r.height + 1) {
+            Branch b = (Branch) l;
+            return rebalance(b.left, join(b.right, r));
+        }
+        if (r.height > l.height + 1) {
+            Branch b = (Branch) r;
+            return rebalance(join(l, b.left), b.right);
+        }
+        return new Branch(l, r);
+    }
+
+    /* 높이 차가 2 이하인 두 서브트리를 회전으로 균형 맞춰 합친다. */
+    private static Node rebalance(Node a, Node b) {
+        if (a.height > b.height + 1) {
+            Branch x = (Branch) a;
+            if (x.left.height >= x.right.height) {
+                return new Branch(x.left, new Branch(x.right, b));
+            }
+            Branch y = (Branch) x.right;
+            return new Branch(new Branch(x.left, y.left), new Branch(y.right, b));
+        }
+        if (b.height > a.height + 1) {
+            Branch x = (Branch) b;
+            if (x.right.height >= x.left.height) {
+                return new Branch(new Branch(a, x.left), x.right);
+            }
+            Branch y = (Branch) x.left;
+            return new Branch(new Branch(a, y.left), new Branch(y.right, x.right));
+        }
+        return new Branch(a, b);
+    }
+
+    /* index 앞뒤로 트리를 나눈다. 빈 쪽은 null */
+    private static Node[] split(Node n, int index) {
+        if (n == null) return new Node[]{null, null};
+        if (index == 0) return new Node[]{null, n};
+        if (index == n.length) return new Node[]{n, null};
+        if (n instanceof Leaf leaf) {
+            return new Node[]{new Leaf(leaf.text.substring(0, index)), new Leaf(leaf.text.substring(index))};
+        }
+        Branch b = (Branch) n;
+        int leftLen = b.left.length;
+        if (index < leftLen) {
+            Node[] p = split(b.left, index);
+            return new Node[]{p[0], join(p[1], b.right)};
+        }
+        if (index > leftLen) {
+            Node[] p = split(b.right, index - leftLen);
+            return new Node[]{join(b.left, p[0]), p[1]};
+        }
+        return new Node[]{b.left, b.right};
+    }
+
+    private static void appendRange(Node n, int start, int end, StringBuilder sb) {
+        if (n == null || start >= end) return;
+        if (n instanceof Leaf leaf) {
+            sb.append(leaf.text, start, end);
+            return;
+        }
+        Branch b = (Branch) n;
+        int leftLen = b.left.length;
+        if (start < leftLen) appendRange(b.left, start, Math.min(end, leftLen), sb);
+        if (end > leftLen) appendRange(b.right, Math.max(start - leftLen, 0), end - leftLen, sb);
+    }
+
+    private static void writeNode(Node n, Writer out) throws IOException {
+        if (n == null) return;
+        if (n instanceof Leaf leaf) {
+            out.write(leaf.text);
+            return;
+        }
+        Branch b = (Branch) n;
+        writeNode(b.left, out);
+        writeNode(b.right, out);
+    }
+
+    /* 테스트·진단용: 트리 높이 */
+    int height() {
+        return root == null ? 0 : root.height;
+    }
+}
@@ -0,0 +1,179 @@
+package cm.server;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 여러 lane 이 함께 쓰는 서버 공유 상태 (접속자, 문서별 참여자, 사용자별 현재 문서, 클라이언트 지원 기능).
+ * 문서 메타데이터는 {@link DocumentCatalog} 에서 관리한다.
+ *
+ * 집합 값은 모두 불변 스냅샷으로 보관하고 변경 시 새 집합으로 교체(copy-on-write)한다.
+ * 그래서 목록·참여자 브로드캐스트는 잠금 없이 일관된 스냅샷을 읽고, 쓰는 쪽도 막히지 않는다.
+ *
+ * 사용자의 문서 이동(현재 문서 교체 + 두 문서의 참여자 갱신)은 userCurrentDoc 의 그 사용자 항목을 잠근 채
+ * 한 번에 한다. 같은 사용자의 SELECT_DOC 이 서로 다른 문서 lane 에서 동시에 실행돼도 두 문서에 모두 남지 않는다.
+ */
+public class ServerState {
+    private final AtomicReference<Set<String>> online = new AtomicReference<>(Set.of());
+    private final Map<String, String> userCurrentDoc = new ConcurrentHashMap<>();       // 사용자 -> 문서명
+    private final Map<String, Set<String>> participants = new ConcurrentHashMap<>();   // 문서명 -> 참여자 스냅샷
+    private final Map<String, Set<String>> capabilities = new ConcurrentHashMap<>();   // 사용자 -> CLIENT_CAPS
+
+    /* ---------- 온라인 사용자 ---------- */
+
+    /** @return 이미 접속 중이면 false (중복 로그인) */
+    public boolean addOnline(String user) {
+        while (true) {
+            Set<String> cur = online.get();
+            if (cur.contains(user)) return false;
+            if (online.compareAndSet(cur, with(cur, user))) return true;
+        }
+    }
+
+    public void removeOnline(String user) {
+        online.updateAndGet(cur -> cur.contains(user) ? without(cur, user) : cur);
+        capabilities.remove(user);
+    }
+
+    /* ---------- 클라이언트 지원 기능 ---------- */
+
+    /** 로그인 후 클라이언트가 알려 준 지원 기능 (알려 주지 않은 구버전은 없음) */
+    public void setCapabilities(String user, Set<String> caps) {
+        capabilities.put(user, Set.copyOf(caps));
+    }
+
+    public boolean hasCapability(String user, String cap) {
+        return capabilities.getOrDefault(user, Set.of()).contains(cap);
+    }
+
+    /** 지원 기능 전체 (알려 주지 않았으면 빈 집합) */
+    public Set<String> capabilities(String user) {
+        return capabilities.getOrDefault(user, Set.of());
+    }
+
+    public Set<String> onlineUsers() {
+        return online.get();
+    }
+
+    /* ---------- 문서 참여 ---------- */
+
+    public String currentDocument(String user) {
+        return userCurrentDoc.get(user);
+    }
+
+    /** 문서 참여자 스냅샷 (없으면 빈 집합) */
+    public Set<String> participants(String docName) {
+        return participants.getOrDefault(docName, Set.of());
+    }
+
+    /**
+     * user 의 현재 문서를 docName 으로 바꾼다.
+     *
+     * @return 빠져나온 이전 문서 (없거나 같은 문서면 null)
+     */
+    public String enterDocument(String user, String docName) {
+        String[] left = new String[1];
+        userCurrentDoc.compute(user, (u, prev) -> {
+            participants.compute(docName, (d, cur) -> cur == null ? Set.of(user) : with(cur, user));
+            if (prev != null && !prev.equals(docName)) {
+                leave(prev, user);
+                left[0] = prev;
+            }
+            return docName;
+        });
+        return left[0];
+    }
+
+    /**
+     * 접속 중인 user 만 docName 으로 옮긴다 (로그인을 직접 받는 front).
+     * {@link #logout} 과 같은 잠금 안에서 확인하므로, 로그아웃 뒤에 실행된 SELECT_DOC 이 사용자를 다시 참여자로 넣지 않는다.
+     *
+     * @return 로그아웃한 사용자면 null, 아니면 빠져나온 이전 문서 (없거나 같은 문서면 Move.left 가 null)
+     */
+    public Move enterDocumentIfOnline(String user, String docName) {
+        Move[] move = new Move[1];
+        userCurrentDoc.compute(user, (u, prev) -> {
+            if (!online.get().contains(user)) return prev;
+            participants.compute(docName, (d, cur) -> cur == null ? Set.of(user) : with(cur, user));
+            boolean moved = prev != null && !prev.equals(docName);
+            if (moved) leave(prev, user);
+            move[0] = new Move(moved ? prev : null);
+            return docName;
+        });
+        return move[0];
+    }
+
+    /** {@link #enterDocumentIfOnline} 의 결과: left = 빠져나온 이전 문서 (없으면 null) */
+    public record Move(String left) {}
+
+    /**
+     * 로그아웃: 접속 목록에서 빼고 현재 문서를 돌려준다. 참여자에서 빼는 것은 호출한 쪽이 그 문서의 lane 에서
+     * {@link #leaveDocument(String, String)} 로 한다 (그 문서에 먼저 들어온 이 사용자의 이벤트 뒤에).
+     *
+     * @return 열어 둔 문서 (없으면 null)
+     */
+    public String logout(String user) {
+        String[] current = new String[1];
+        userCurrentDoc.compute(user, (u, doc) -> {
+            removeOnline(user);
+            current[0] = doc;
+            return doc;
+        });
+        return current[0];
+    }
+
+    /**
+     * user 가 아직 docName 에 있으면 나간다 (로그아웃, 다른 shard 의 문서로 옮겨 감).
+     *
+     * @return 나갔으면 true
+     */
+    public boolean leaveDocument(String user, String docName) {
+        boolean[] left = new boolean[1];
+        userCurrentDoc.computeIfPresent(user, (u, prev) -> {
+            if (!prev.equals(docName)) return prev;
+            leave(docName, user);
+            left[0] = true;
+            return null;
+        });
+        return left[0];
+    }
+
+    /** 참여자 없이 문서 항목만 준비한다. */
+    public void openDocument(String docName) {
+        participants.putIfAbsent(docName, Set.of());
+    }
+
+    /**
+     * 문서를 상태에서 제거한다.
+     *
+     * @return 제거 직전의 참여자
+     */
+    public Set<String> removeDocument(String docName) {
+        Set<String> prev = participants.remove(docName);
+        userCurrentDoc.values().removeIf(docName::equals);
+        return prev == null ? Set.of() : prev;
+    }
+
+    private void leave(String docName, String user) {
+        participants.computeIfPresent(docName, (d, cur) -> without(cur, user));
+    }
+
+    /* ---------- 불변 집합 헬퍼 (가입 순서 유지) ---------- */
+    private static Set<String> with(Set<String> cur, String user) {
+        if (cur.contains(user)) return cur;
+        Set<String> next = new LinkedHashSet<>(cur);
+        next.add(user);
+        return Collections.unmodifiableSet(next);
+    }
+
+    private static Set<String> without(Set<String> cur, String user) {
+        if (!cur.contains(user)) return cur;
+        Set<String> next = new LinkedHashSet<>(cur);
+        next.remove(user);
+        return Collections.unmodifiableSet(next);
+    }
+}
@@ -0,0 +1,201 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * front → shard 하나로 가는 TCP 링크 (front 쪽).
+ *
+ * front 는 담당이 아닌 문서의 이벤트를 FORWARD 로 넘기고, 로그아웃한 사용자를 LEAVE 로,
+ * 그 shard 의 문서에서 다른 shard(또는 front)의 문서로 옮겨 간 사용자를 LEAVE_DOC 으로 알린다.
+ * shard 는 클라이언트에게 보낼 이벤트를 DELIVER 로 돌려주고, 연결되자마자 자기 문서 목록을 CATALOG 로 보낸다.
+ * 끊기면 1초 간격으로 다시 연결하며, 끊긴 동안 넘기려던 이벤트는 버린다 (클라이언트는 재동기화로 회복).
+ * 연결할 때마다 shard 의 challenge 에 {@link PeerAuth} 로 응답한 뒤에야 프레임을 주고받는다.
+ *
+ * 프레임 형식: [int 종류] 이후
+ *   FORWARD [UTF 지원 기능(쉼표 구분)][RelayEvent]
+ *   LEAVE   [UTF 사용자]
+ *   LEAVE_DOC [UTF 사용자][UTF 문서]
+ *   DELIVER [UTF 받는 사용자][RelayEvent]
+ *   CATALOG [int 개수] 이후 문서마다 [UTF 이름][UTF 생성자][UTF 마지막 편집자][long 생성 시각][long 마지막 수정 시각]
+ */
+public class ShardLink {
+    static final int FORWARD = 1;
+    static final int LEAVE = 2;
+    static final int DELIVER = 3;
+    static final int CATALOG = 4;
+    static final int LEAVE_DOC = 5;
+
+    private static final long RETRY_MS = 1000;
+
+    /** shard 에서 온 프레임 처리 (링크 스레드에서 호출) */
+    public interface Listener {
+        void deliver(String user, RelayEvent evt);
+
+        void catalog(int shard, List<Map.Entry<String, DocMeta>> entries);
+    }
+
+    private final int shard;
+    private final InetSocketAddress address;
+    private final Listener listener;
+    private final PeerAuth auth = PeerAuth.fromSystemProperties();
+    private volatile boolean running = true;
+    private DataOutputStream out;   // guarded by this, 연결돼 있지 않으면 null
+    private Socket socket;          // guarded by this
+
+    public ShardLink(int shard, InetSocketAddress address, Listener listener) {
+        this.shard = shard;
+        this.address = address;
+        this.listener = listener;
+    }
+
+    public void start() {
+        Thread t = new Thread(this::run, "shard-link-" + shard);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void stop() {
+        running = false;
+        closeSocket();
+    }
+
+    /** 담당 shard 로 이벤트를 넘긴다. @return 연결돼 있지 않거나 쓰기 실패면 false */
+    public synchronized boolean forward(String caps, RelayEvent evt) {
+        if (out == null) return false;
+        try {
+            out.writeInt(FORWARD);
+            out.writeUTF(caps);
+            evt.writeTo(out);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeSocket();
+            return false;
+        }
+    }
+
+    /** 사용자가 로그아웃했다 (shard 쪽 참여자 정리) */
+    public synchronized void leave(String user) {
+        if (out == null) return;
+        try {
+            out.writeInt(LEAVE);
+            out.writeUTF(user);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeSocket();
+        }
+    }
+
+    /** 사용자가 이 shard 의 문서를 떠나 다른 곳의 문서로 옮겼다 (shard 쪽 참여자 정리) */
+    public synchronized void leaveDocument(String user, String docName) {
+        if (out == null) return;
+        try {
+            out.writeInt(LEAVE_DOC);
+            out.writeUTF(user);
+            out.writeUTF(docName);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeSocket();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(address.getHostString(), address.getPort())) {
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                auth.respond(in, o, PeerAuth.SHARD);
+                synchronized (this) {
+                    socket = s;
+                    out = o;
+                }
+                System.out.println("[SHARD] shard " + shard + " (" + address.getHostString() + ":" + address.getPort() + ") 연결됨");
+                readFrames(in);
+            } catch (IOException e) {
+                if (running) System.err.println("[SHARD] shard " + shard + " (" + address.getHostString() + ":" + address.getPort() + ") 연결 실패/끊김: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    out = null;
+                    socket = null;
+                }
+            }
+            if (!running) return;
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readFrames(DataInputStream in) throws IOException {
+        while (running) {
+            int type = in.readInt();
+            switch (type) {
+                case DELIVER -> {
+                    String user = in.readUTF();
+                    RelayEvent evt = RelayEvent.readFrom(in);
+                    try {
+                        listener.deliver(user, evt);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                case CATALOG -> listener.catalog(shard, readCatalog(in));
+                default -> throw new IOException("알 수 없는 프레임 종류: " + type);
+            }
+        }
+    }
+
+    private synchronized void closeSocket() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        socket = null;
+    }
+
+    /* ---------- 문서 목록 프레임 (ShardServer 와 공용) ---------- */
+
+    static void writeCatalog(DataOutputStream out, List<Map.Entry<String, DocMeta>> entries) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, DocMeta> e : entries) {
+            DocMeta m = e.getValue();
+            out.writeUTF(e.getKey());
+            out.writeUTF(m.creatorId() == null ? "" : m.creatorId());
+            out.writeUTF(m.lastEditorId() == null ? "" : m.lastEditorId());
+            out.writeLong(m.createdTime());
+            out.writeLong(m.lastModifiedTime());
+        }
+    }
+
+    static List<Map.Entry<String, DocMeta>> readCatalog(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Map.Entry<String, DocMeta>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String creator = in.readUTF();
+            String editor = in.readUTF();
+            long created = in.readLong();
+            long modified = in.readLong();
+            entries.add(Map.entry(name, new DocMeta(creator.isEmpty() ? null : creator,
+                    editor.isEmpty() ? null : editor, created, modified)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,79 @@
+package cm.server;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 문서 이름 → 담당 shard (consistent hashing).
+ *
+ * shard 마다 가상 노드를 여러 개 링 위에 올려 두고, 문서 이름의 해시에서 시계 방향으로 처음 만나는 노드의 shard 가 담당한다.
+ * shard 를 하나 추가·제거해도 그 shard 의 몫만 옮겨 가고 나머지 문서의 담당은 바뀌지 않는다.
+ * 해시는 MD5 앞 8바이트라서 모든 프로세스가 같은 설정이면 같은 결과를 낸다.
+ *
+ * 설정: -Dcm.shard.nodes=host:port,host:port,... (순서가 shard 번호, 0 번이 클라이언트를 받는 front)
+ *      -Dcm.shard.id (이 프로세스의 번호, 기본 0)
+ */
+public class ShardRing {
+    private static final int VIRTUAL_NODES = 128;   // shard 하나당 링 위의 점 개수
+
+    private final List<InetSocketAddress> nodes;
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    public ShardRing(List<InetSocketAddress> nodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("shard 가 하나도 없음");
+        this.nodes = List.copyOf(nodes);
+        for (int shard = 0; shard < nodes.size(); shard++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) ring.put(hash("shard-" + shard + "#" + v), shard);
+        }
+    }
+
+    /** -Dcm.shard.nodes 로 만든 링. 설정이 없으면 null (단일 서버). */
+    public static ShardRing fromSystemProperties() {
+        String spec = System.getProperty("cm.shard.nodes");
+        if (spec == null || spec.isBlank()) return null;
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String node : spec.split(",")) {
+            String n = node.trim();
+            int colon = n.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("shard 주소 형식 오류 (host:port): " + n);
+            nodes.add(InetSocketAddress.createUnresolved(n.substring(0, colon), Integer.parseInt(n.substring(colon + 1))));
+        }
+        return new ShardRing(nodes);
+    }
+
+    /** 이 프로세스의 shard 번호 (-Dcm.shard.id) */
+    public static int selfId() {
+        return Integer.getInteger("cm.shard.id", 0);
+    }
+
+    /** 문서를 담당하는 shard 번호 */
+    public int owner(String docName) {
+        Map.Entry<Long, Integer> e = ring.ceilingEntry(hash(docName));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public InetSocketAddress address(int shard) {
+        return nodes.get(shard);
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);   // MD5 는 모든 JRE 에 있다
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cm.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kr.ac.konkuk.ccslab.cm.event.CMEvent;
+import kr.ac.konkuk.ccslab.cm.stub.CMServerStub;
+
+/**
+ * front 의 {@link ShardLink} 를 받는 쪽 (front 가 아닌 shard 프로세스).
+ *
+ * 클라이언트와 직접 연결하지 않고, front 가 넘겨 준 문서 이벤트를 처리한 뒤
+ * 클라이언트에게 보낼 이벤트는 {@link #stub()} 을 통해 DELIVER 로 front 에 돌려준다.
+ * front 연결은 하나만 유지하며, 새로 연결되면 이전 연결을 닫고 문서 목록(CATALOG)부터 보낸다.
+ *
+ * 링 설정의 자기 주소(host:port)에만 bind 하고, 연결한 쪽이 {@link PeerAuth} 인증을 통과해야
+ * 프레임을 읽고 현재 front 연결을 바꾼다 (인증하지 못한 연결은 기존 front 에 영향이 없다).
+ */
+public class ShardServer {
+
+    /** front 에서 온 프레임 처리 (링크 스레드에서 호출) */
+    public interface Handler {
+        /** 담당 문서 이벤트 (발신자의 지원 기능 포함) */
+        void forwarded(Set<String> caps, RelayEvent evt);
+
+        /** 사용자가 front 에서 로그아웃했다 */
+        void leave(String user);
+
+        /** 사용자가 이 shard 의 문서 docName 에서 다른 곳의 문서로 옮겼다 */
+        void leaveDocument(String user, String docName);
+
+        /** 이 shard 의 문서 목록 (연결 직후 front 에 보냄) */
+        List<Map.Entry<String, DocMeta>> catalog();
+    }
+
+    private final InetSocketAddress bind;
+    private final PeerAuth auth = PeerAuth.fromSystemProperties();
+    private final CMServerStub stub = new CMServerStub() {
+        @Override
+        public boolean send(CMEvent evt, String user) {
+            return deliver(evt, user);
+        }
+    };
+    private Handler handler;
+    private DataOutputStream out;   // guarded by this, front 가 연결돼 있지 않으면 null
+    private Socket current;         // guarded by this
+
+    /** bind: 링 설정의 이 shard 주소 (그 host 에만 bind) */
+    public ShardServer(InetSocketAddress bind) {
+        this.bind = new InetSocketAddress(bind.getHostString(), bind.getPort());
+    }
+
+    /** 이벤트 핸들러가 쓸 서버 스텁: send() 하면 front 를 거쳐 그 사용자에게 전달된다. */
+    public CMServerStub stub() {
+        return stub;
+    }
+
+    public void start(Handler handler) throws IOException {
+        this.handler = handler;
+        ServerSocket listen = new ServerSocket();
+        listen.bind(bind);
+        Thread t = new Thread(() -> acceptLoop(listen), "shard-server");
+        t.start();   // 데몬이 아님: CM 없이 이 스레드가 프로세스를 유지한다
+        System.out.println("[SHARD] front 연결 대기 (" + bind.getHostString() + ":" + bind.getPort() + ")");
+    }
+
+    private void acceptLoop(ServerSocket listen) {
+        while (true) {
+            try {
+                Socket s = listen.accept();
+                s.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> serve(s), "shard-front-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try (s) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            auth.challenge(s, in, o, PeerAuth.SHARD);   // 통과하기 전에는 현재 front 를 건드리지 않는다
+            synchronized (this) {
+                if (current != null) current.close();   // front 가 다시 연결함
+                current = s;
+                out = o;
+                out.writeInt(ShardLink.CATALOG);
+                ShardLink.writeCatalog(out, handler.catalog());
+                out.flush();
+            }
+            System.out.println("[SHARD] front 연결됨: " + s.getRemoteSocketAddress());
+            while (true) {
+                int type = in.readInt();
+                switch (type) {
+                    case ShardLink.FORWARD -> {
+                        String caps = in.readUTF();
+                        RelayEvent evt = RelayEvent.readFrom(in);
+                        handler.forwarded(caps.isEmpty() ? Set.of() : Set.of(caps.split(",")), evt);
+                    }
+                    case ShardLink.LEAVE -> handler.leave(in.readUTF());
+                    case ShardLink.LEAVE_DOC -> handler.leaveDocument(in.readUTF(), in.readUTF());
+                    default -> throw new IOException("알 수 없는 프레임 종류: " + type);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[SHARD] front 연결 끊김: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (current == s) {
+                    current = null;
+                    out = null;
+                }
+            }
+        }
+    }
+
+    /* 클라이언트에게 보낼 이벤트를 front 로 (front 가 없으면 버림) */
+    private synchronized boolean deliver(CMEvent evt, String user) {
+        if (!(evt instanceof RelayEvent relay)) {
+            System.err.println("[SHARD] 옮길 수 없는 이벤트 (RelayEvent 아님) → [" + user + "] 전송 안 함");
+            return false;
+        }
+        if (out == null) return false;
+        try {
+            out.writeInt(ShardLink.DELIVER);
+            out.writeUTF(user);
+            relay.writeTo(out);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package gui.adapter;
+
+import cm.CMClientApp;
+import cm.model.EditOp;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DocumentListener 와 CMClientApp 사이에서 키 입력 단위 편집을 잠시 모았다가 한 번에 보낸다.
+ * 연속 입력·연속 백스페이스는 하나의 연산으로 합친다.
+ *
+ * 첫 연산이 들어온 뒤 windowMs 가 지나거나 maxOps 개가 쌓이면 전송한다.
+ * 저장·문서 전환·원격 연산 반영 전에는 {@link #flush()} 로 즉시 보낸다.
+ * 모든 메서드는 EDT 에서 호출한다.
+ *
+ * 설정: -Dcm.edit.batchMs (기본 30), -Dcm.edit.batchMaxOps (기본 64)
+ */
+public final class EditBatcher {
+    private final CMClientApp core;
+    private final int maxOps;
+    private final Timer timer;
+    private final List<EditOp> pending = new ArrayList<>();
+
+    public EditBatcher(CMClientApp core) {
+        this(core, Integer.getInteger("cm.edit.batchMs", 30), Integer.getInteger("cm.edit.batchMaxOps", 64));
+    }
+
+    public EditBatcher(CMClientApp core, int windowMs, int maxOps) {
+        this.core = core;
+        this.maxOps = Math.max(1, maxOps);
+        this.timer = new Timer(Math.max(1, windowMs), e -> flush());
+        this.timer.setRepeats(false);
+    }
+
+    /** 로컬 편집 하나를 추가한다. */
+    public void add(EditOp op) {
+        if (op.isNoop()) return;
+        EditOp merged = pending.isEmpty() ? null : coalesce(pending.get(pending.size() - 1), op);
+        if (merged != null) {
+            pending.remove(pending.size() - 1);
+            if (!merged.isNoop()) pending.add(merged);
+        } else {
+            pending.add(op);
+        }
+
+        if (pending.size() >= maxOps) flush();
+        else if (!timer.isRunning()) timer.start();   // 창(window)은 첫 연산 기준으로 고정
+    }
+
+    /** 모아 둔 연산을 즉시 전송한다. */
+    public void flush() {
+        timer.stop();
+        if (pending.isEmpty()) return;
+        List<EditOp> batch = new ArrayList<>(pending);
+        pending.clear();
+        core.sendEditOps(batch);
+    }
+
+    /** 모아 둔 연산을 보내지 않고 꺼낸다 (재동기화: 새 내용 위로 옮겨서 보낸다). */
+    public List<EditOp> drain() {
+        timer.stop();
+        List<EditOp> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    /** 문서 내용이 통째로 바뀔 때: 모아 둔 연산을 버린다. */
+    public void discard() {
+        timer.stop();
+        pending.clear();
+    }
+
+    /* 연속된 두 연산을 하나로 합칠 수 있으면 합친 결과, 아니면 null */
+    static EditOp coalesce(EditOp a, EditOp b) {
+        int aEnd = a.getOffset() + a.getLength();
+        if (a.isInsert() && b.isInsert()) {
+            // 이어서 타이핑
+            if (b.getOffset() == aEnd) return EditOp.insert(a.getOffset(), a.getText() + b.getText());
+            return null;
+        }
+        if (a.isInsert()) {
+            // 방금 입력한 글자를 지움 (오타 수정)
+            if (b.getOffset() >= a.getOffset() && b.getOffset() + b.getLength() <= aEnd) {
+                int from = b.getOffset() - a.getOffset();
+                String text = a.getText();
+                return EditOp.insert(a.getOffset(), text.substring(0, from) + text.substring(from + b.getLength()));
+            }
+            return null;
+        }
+        if (!b.isInsert()) {
+            // 백스페이스 연타
+            if (b.getOffset() + b.getLength() == a.getOffset()) return EditOp.delete(b.getOffset(), a.getLength() + b.getLength());
+            // Delete 키 연타
+            if (b.getOffset() == a.getOffset()) return EditOp.delete(a.getOffset(), a.getLength() + b.getLength());
+        }
+        return null;
+    }
+}
@@ -2,12 +2,13 @@ package gui.adapter;
 
 import cm.CMClientApp;
 import cm.core.ClientCallback;
+import cm.model.DocEntry;
+import cm.model.EditOp;
+import cm.model.OpBatch;
 import gui.dialog.LoginDialog;
 import gui.util.DialogUtil;
 import gui.util.DocumentMeta;
 import gui.view.MainFrame;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 import javax.swing.*;
 import java.util.ArrayList;
@@ -72,53 +73,118 @@ public final class GuiCallback implements ClientCallback {
        3) 문서 메타 리스트
        ------------------------------------------------------------------ */
     @Override
-    public void onDocumentListReceived(String json) {
+    public void onDocumentListReceived(List<DocEntry> docs) {
         runEdt(() -> {
-            if (json.isBlank()) {
-                DialogUtil.showInfoMessage("No documents are available.");
-                return;
-            }
-            try {
-                JSONArray arr = new JSONArray(json);
-                List<DocumentMeta> list = new ArrayList<>();
-
-                for (int i = 0; i < arr.length(); i++) {
-                    JSONObject o = arr.getJSONObject(i);
-                    DocumentMeta meta = new DocumentMeta(
-                            o.getString("name"),
-                            o.getString("creatorId"),
-                            o.getString("lastEditorId"),
-                            o.getString("createdTime"),
-                            o.getString("lastModifiedTime")
-                    );
-                    String users = o.optString("activeUsers", "");
-                    if (!users.isBlank())
-                        meta.setActiveUsers(List.of(users.split(",")));
-                    list.add(meta);
-                }
-                ui.setDocumentList(list);
-            } catch (Exception e) {
-                e.printStackTrace();
-                DialogUtil.showInfoMessage("No documents are available.");
-            }
+            List<DocumentMeta> list = new ArrayList<>();
+            for (DocEntry d : docs) list.add(toDocumentMeta(d));
+            ui.setDocumentList(list);
         });
     }
 
+    @Override
+    public void onDocumentListDelta(String op, String docName, DocEntry doc) {
+        runEdt(() -> {
+            if ("REMOVED".equals(op) || doc == null) ui.removeDocumentFromList(docName);
+            else ui.upsertDocument(toDocumentMeta(doc));
+        });
+    }
+
+    private static DocumentMeta toDocumentMeta(DocEntry d) {
+        DocumentMeta meta = new DocumentMeta(
+                d.name(),
+                d.creatorId(),
+                d.lastEditorId(),
+                d.createdTime(),
+                d.lastModifiedTime()
+        );
+        meta.setActiveUsers(d.activeUsers());
+        return meta;
+    }
+
     /* ------------------------------------------------------------------
        4) 문서 내용
        ------------------------------------------------------------------ */
     @Override
-    public void onDocumentContentReceived(String name, String content) {
+    public void onDocumentContentReceived(String name, String content, int version) {
         runEdt(() -> {
             clientCore.setCurrentDocName(name);
             ui.setCurrentDocument(name);
-            ui.getDocumentEditScreen().resetDocumentView();
-            ui.updateTextContent(content);
-            ui.getTextArea().setEditable(true);
+            // 같은 문서의 재동기화면 바뀐 부분만 반영 (커서·선택·미확인 편집 유지), 아니면 새로 채움
+            ui.getDocumentEditScreen().showDocument(name, version, content);
+            ui.setSaveEnabled(true);
+        });
+    }
+
+    /* ------------------------------------------------------------------
+       4-0) 큰 문서 나눠 받기: 조각이 올 때마다 화면에 붙인다
+       ------------------------------------------------------------------ */
+    @Override
+    public void onDocumentBegin(String name, int version, int length) {
+        runEdt(() -> {
+            clientCore.setCurrentDocName(name);
+            clientCore.resetDocumentSync(name, version);
+            ui.setCurrentDocument(name);
+            ui.getDocumentEditScreen().resetDocumentView();   // 다 받을 때까지 읽기 전용
+            ui.setSaveEnabled(false);
+        });
+    }
+
+    @Override
+    public void onDocumentChunk(String name, String text) {
+        runEdt(() -> {
+            if (name.equals(clientCore.getCurrentDocName()))
+                ui.getDocumentEditScreen().appendChunk(text);
+        });
+    }
+
+    @Override
+    public void onDocumentEnd(String name) {
+        runEdt(() -> {
+            if (!name.equals(clientCore.getCurrentDocName())) return;
+            ui.getDocumentEditScreen().finishLoading(name);
             ui.setSaveEnabled(true);
         });
     }
 
+    /* ------------------------------------------------------------------
+       4-0') 아주 큰 문서: 읽기 전용 뷰포트로 보이는 줄만 받아서 표시
+       ------------------------------------------------------------------ */
+    @Override
+    public void onLargeDocument(String name, int version, int length, int lines) {
+        runEdt(() -> {
+            clientCore.setCurrentDocName(name);
+            clientCore.resetDocumentSync(name, version);
+            ui.setCurrentDocument(name + " (read-only, " + lines + " lines)");
+            ui.getDocumentEditScreen().showLargeDocument(name, version, lines);
+            ui.setSaveEnabled(false);
+        });
+    }
+
+    @Override
+    public void onDocumentRange(String name, int version, int line, int lines, String text) {
+        runEdt(() -> ui.getDocumentEditScreen().showDocumentRange(name, version, line, lines, text));
+    }
+
+    /* ------------------------------------------------------------------
+       4-1) 편집 연산 묶음 (다른 사용자 편집 / 내 편집 확인)
+       ------------------------------------------------------------------ */
+    @Override
+    public void onDocumentOpsReceived(OpBatch batch) {
+        runEdt(() -> {
+            // 지금 문서가 아님 (이미 옮겼거나, 그룹 전송 모드에서 같은 그룹을 쓰는 다른 문서)
+            if (!batch.getDocName().equals(clientCore.getCurrentDocName())) return;
+            if (ui.getDocumentEditScreen().isLargeDocument()) {
+                // 뷰포트 모드: 로컬 사본이 없으므로 보이는 범위를 새 버전으로 다시 받는다
+                ui.getDocumentEditScreen().largeDocumentChanged(batch.getBaseVersion() + batch.getEntries().size());
+                return;
+            }
+            // 아직 모아 두고 있는 로컬 편집도 변환 대상에 포함되도록 먼저 보낸다
+            ui.getDocumentEditScreen().flushPendingEdits();
+            List<EditOp> toApply = clientCore.receiveOpBatch(batch);
+            if (!toApply.isEmpty()) ui.getDocumentEditScreen().applyRemoteOps(toApply);
+        });
+    }
+
     /* ------------------------------------------------------------------
        5) 문서 삭제 알림
        ------------------------------------------------------------------ */
@@ -32,6 +32,9 @@ public class ClientUIController {
                 if (docName == null || docName.trim().isEmpty()) return;
 
                 String trimmed = docName.trim();
+                // 이전 문서에 대한 편집을 먼저 보낸다
+                mainFrame.getDocumentEditScreen().flushPendingEdits();
+
                 // 클라이언트 내부 문서 이름 설정
                 clientApp.setCurrentDocName(trimmed);
 
@@ -51,6 +54,7 @@ public class ClientUIController {
 
         // Save Document 액션 리스너 등록
         mainFrame.addSaveDocumentAction(e -> {
+            mainFrame.getDocumentEditScreen().flushPendingEdits();
             clientApp.saveCurrentDocument();
 
             /* 저장 직후 ‘수정됨’ 표시 제거 */
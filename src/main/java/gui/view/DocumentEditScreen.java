@@ -5,20 +5,37 @@ import java.awt.event.ActionEvent;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Document;
 import javax.swing.undo.UndoManager;
 
+import java.util.List;
+
 import cm.CMClientApp;
+import cm.model.EditOp;
+import gui.adapter.EditBatcher;
 
 public class DocumentEditScreen extends JPanel {
     private final CMClientApp core;
     private final JTextArea textArea = new JTextArea(25, 50);
     private final UndoManager undo = new UndoManager();
+    private final EditBatcher batcher;
+    private final JScrollPane scroll = new JScrollPane(textArea);
+    private final LargeDocumentViewport viewport;   // 아주 큰 문서: 보이는 줄만 받아서 표시
 
     // 플래그: 프로그램에 의한 텍스트 업데이트 시 이벤트 무시
     private boolean ignore = false;
 
+    // 되돌리기 이력의 로컬 편집이 닿은 위치의 상한. 원격 편집이 전부 이 뒤쪽이면 이력의 위치가 그대로 유효하다
+    private int undoHigh;
+
+    private String shownDoc;   // 지금 편집 화면에 전체 내용이 올라와 있는 문서 (없으면 null)
+
     public DocumentEditScreen(CMClientApp core) {
         this.core = core;
+        this.batcher = new EditBatcher(core);
+        this.viewport = new LargeDocumentViewport(core, textArea, scroll, this::replaceText);
         buildUI();
     }
 
@@ -28,7 +45,10 @@ public class DocumentEditScreen extends JPanel {
 
     private void buildUI() {
         setLayout(new BorderLayout());
-        textArea.getDocument().addUndoableEditListener(e -> undo.addEdit(e.getEdit()));
+        // 원격 반영·화면 교체(ignore)는 되돌리기 대상이 아님
+        textArea.getDocument().addUndoableEditListener(e -> {
+            if (!ignore) undo.addEdit(e.getEdit());
+        });
 
         /* Ctrl + Z */
         textArea.getInputMap().put(KeyStroke.getKeyStroke("control Z"), "undo");
@@ -41,40 +61,175 @@ public class DocumentEditScreen extends JPanel {
 
         /* ---- 문서 편집 → Core 전달 ---- */
         textArea.getDocument().addDocumentListener(new DocumentListener() {
-            private void changed() {
-                if (ignore) return;
-                core.editCurrentDocument(textArea.getText());
+            private void changed(EditOp op) {
+                if (ignore || !textArea.isEditable()) return;   // 안내문·원격 반영은 전송하지 않음
+                batcher.add(op);
+                undoHigh = op.isInsert() ? Math.max(undoHigh + op.getLength(), op.getOffset() + op.getLength())
+                        : Math.max(undoHigh, op.getOffset() + op.getLength());
 
                 /* ✅ 로컬에서 문서가 변경됐음을 알림 */
                 firePropertyChange("localEdit", false, true);
             }
 
             public void insertUpdate(DocumentEvent e) {
-                changed();
+                try {
+                    String inserted = e.getDocument().getText(e.getOffset(), e.getLength());
+                    changed(EditOp.insert(e.getOffset(), inserted));
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
+                }
             }
 
             public void removeUpdate(DocumentEvent e) {
-                changed();
+                changed(EditOp.delete(e.getOffset(), e.getLength()));
             }
 
             public void changedUpdate(DocumentEvent e) {
-                changed();
+                /* 속성 변경만 해당 (JTextArea 는 텍스트가 바뀌지 않음) */
             }
         });
-        add(new JScrollPane(textArea), BorderLayout.CENTER);
+        add(scroll, BorderLayout.CENTER);
+        add(viewport.getLineBar(), BorderLayout.EAST);
     }
 
     /* ---------------------------------------------------------------- */
-    public void updateTextContent(String content) {
-        SwingUtilities.invokeLater(() -> {
-            ignore = true;
-            textArea.setText(content);
-            if (!core.isDocOpen()) {
-                textArea.setEditable(true);
-                core.setDocOpen(true);
+    /** 다른 문서로 옮기기 전: 보고 있던 문서 내용을 클라이언트 캐시에 남긴다 (EDT 에서 호출). */
+    public void rememberDocument() {
+        if (shownDoc != null && !viewport.isActive()) core.cacheDocument(shownDoc, textArea.getText());
+    }
+
+    /** 아직 모아 두고 있는 로컬 편집을 즉시 전송한다 (저장·문서 전환·원격 반영 전). */
+    public void flushPendingEdits() {
+        batcher.flush();
+    }
+
+    /**
+     * 다른 사용자의 편집 연산을 현재 문서에 그대로 반영한다 (EDT 에서 호출).
+     * 바뀐 부분만 insertString/remove 하고, 내 커서·선택 영역은 연산에 맞춰 옮겨서 유지한다.
+     * 원격 편집은 되돌리기 이력에 넣지 않는다.
+     */
+    public void applyRemoteOps(List<EditOp> ops) {
+        if (ops.isEmpty()) return;
+        Document doc = textArea.getDocument();
+        Caret caret = textArea.getCaret();
+        int dot = caret.getDot(), mark = caret.getMark();
+        boolean undoValid = true;
+        ignore = true;
+        try {
+            for (EditOp op : ops) {
+                if (op.getOffset() < undoHigh) undoValid = false;
+                if (op.isInsert()) doc.insertString(op.getOffset(), op.getText(), null);
+                else doc.remove(op.getOffset(), op.getLength());
+                dot = shift(dot, op);
+                mark = shift(mark, op);
             }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        } finally {
             ignore = false;
-        });
+        }
+        // 이력 앞쪽이 밀렸으면 되돌리기가 엉뚱한 곳을 바꾸므로 이력을 비운다
+        if (!undoValid) clearUndo();
+        int len = doc.getLength();
+        caret.setDot(Math.min(mark, len));
+        caret.moveDot(Math.min(dot, len));
+    }
+
+    /**
+     * 서버가 보낸 전체 내용(version)을 보여 준다 (EDT 에서 호출).
+     * 이미 같은 문서를 보고 있으면(재동기화) 달라진 부분만 바꿔서 커서를 유지하고,
+     * 서버가 아직 반영하지 않은 로컬 편집은 새 내용 위로 옮겨 화면에 남기고 다시 보낸다.
+     * 다른 문서면 화면을 새로 채운다.
+     */
+    public void showDocument(String name, int version, String content) {
+        boolean same = name.equals(shownDoc) && !viewport.isActive();
+        List<EditOp> rebased = core.resyncDocument(name, version, content, same ? batcher.drain() : List.of());
+        batcher.discard();
+        if (rebased != null) {
+            applyRemoteOps(rebased);
+        } else if (same) {
+            applyRemoteOps(EditOp.diff(textArea.getText(), content));
+        } else {
+            viewport.close();
+            replaceText(content);
+            clearUndo();
+            shownDoc = name;
+        }
+        textArea.setEditable(true);
+        core.setDocOpen(true);
+    }
+
+    /* 원격 연산 op 가 적용된 뒤의 위치 (같은 위치의 삽입은 커서 뒤에 들어간다) */
+    private static int shift(int pos, EditOp op) {
+        if (op.getOffset() >= pos) return pos;
+        if (op.isInsert()) return pos + op.getLength();
+        return pos - Math.min(op.getLength(), pos - op.getOffset());
+    }
+
+    private void clearUndo() {
+        undo.discardAllEdits();
+        undoHigh = 0;
+    }
+
+    /** 나눠 받는 문서의 다음 조각을 끝에 붙인다 (EDT 에서 호출, 전송·편집 이력 대상 아님). */
+    public void appendChunk(String text) {
+        Document doc = textArea.getDocument();
+        ignore = true;
+        try {
+            doc.insertString(doc.getLength(), text, null);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        } finally {
+            ignore = false;
+        }
+    }
+
+    /** 조각을 모두 받았을 때: 처음으로 스크롤하고 편집을 허용한다 (EDT 에서 호출). */
+    public void finishLoading(String name) {
+        core.documentLoaded(name, textArea.getText());
+        shownDoc = name;
+        clearUndo();
+        textArea.setCaretPosition(0);
+        textArea.setEditable(true);
+        core.setDocOpen(true);
+    }
+
+    /* ---------- 아주 큰 문서 (읽기 전용 뷰포트) ---------- */
+    /** 전체를 받지 않고 보이는 줄만 DOC_RANGE 로 받아 표시한다 (EDT 에서 호출). */
+    public void showLargeDocument(String name, int version, int lines) {
+        batcher.discard();
+        shownDoc = null;
+        clearUndo();
+        textArea.setEditable(false);
+        core.setDocOpen(false);
+        viewport.open(name, version, lines);
+    }
+
+    public boolean isLargeDocument() {
+        return viewport.isActive();
+    }
+
+    /** DOC_RANGE 응답 반영 (EDT 에서 호출) */
+    public void showDocumentRange(String name, int version, int line, int lines, String text) {
+        viewport.onRange(name, version, line, lines, text);
+    }
+
+    /** 큰 문서가 다른 사용자에 의해 편집됨: 보이는 범위를 다시 받는다 (EDT 에서 호출) */
+    public void largeDocumentChanged(int version) {
+        viewport.invalidate(version);
+    }
+
+    /** 큰 문서 보기를 끝낸다 (EDT 에서 호출) */
+    public void closeLargeDocument() {
+        viewport.close();
+    }
+
+    /* 뷰포트 내용 교체: 전송·되돌리기 대상이 아님 */
+    private void replaceText(String text) {
+        ignore = true;
+        textArea.setText(text);
+        textArea.setCaretPosition(0);
+        ignore = false;
     }
 
     public void resetDocumentView() {
@@ -82,7 +237,11 @@ public class DocumentEditScreen extends JPanel {
     }
 
     public void resetDocumentView(boolean editable) {
-        SwingUtilities.invokeLater(() -> {
+        runEdt(() -> {
+            batcher.discard();
+            viewport.close();
+            shownDoc = null;
+            clearUndo();
             ignore = true;
             textArea.setText("");
             textArea.setEditable(editable);
@@ -90,4 +249,10 @@ public class DocumentEditScreen extends JPanel {
             ignore = false;
         });
     }
+
+    /* 원격 연산과 순서가 뒤바뀌지 않도록 EDT 에서는 즉시 실행 */
+    private static void runEdt(Runnable r) {
+        if (SwingUtilities.isEventDispatchThread()) r.run();
+        else SwingUtilities.invokeLater(r);
+    }
 }
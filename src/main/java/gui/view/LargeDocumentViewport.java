@@ -0,0 +1,165 @@
+package gui.view;
+
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseWheelListener;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.ScrollPaneConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import cm.CMClientApp;
+
+/**
+ * 아주 큰 문서(DOC_LARGE)를 읽기 전용으로 보여 주는 줄 단위 뷰포트.
+ *
+ * 문서 전체를 받지 않고, 화면에 보이는 줄과 그 위아래 몇 화면 분량만 DOC_RANGE 로 받아 둔다.
+ * 텍스트 영역에는 보이는 줄만 넣고, 옆의 스크롤바가 문서 전체 줄 수를 나타낸다.
+ * 스크롤해서 받아 둔 범위를 벗어나면 그 주변을 다시 요청하고, 이전 범위는 버린다.
+ * 다른 사용자의 편집이 오면 받아 둔 범위를 새 버전으로 다시 받는다.
+ *
+ * 모든 메서드는 EDT 에서 호출한다.
+ */
+final class LargeDocumentViewport {
+    private static final int PREFETCH_SCREENS = 2;   // 보이는 범위 위·아래로 미리 받아 둘 화면 수
+
+    private final CMClientApp core;
+    private final JTextArea textArea;
+    private final JScrollPane scroll;
+    private final Consumer<String> display;          // 텍스트 영역 내용 교체 (전송·편집 이력 대상 아님)
+    private final JScrollBar lineBar = new JScrollBar(JScrollBar.VERTICAL);
+    private final MouseWheelListener wheel = e -> lineBar.setValue(lineBar.getValue() + e.getUnitsToScroll());
+
+    private String docName;                          // null: 꺼져 있음
+    private int totalLines;
+    private int windowStart;                         // 받아 둔 첫 줄 번호
+    private List<String> window = List.of();         // 받아 둔 줄들
+    private int knownVersion;                        // 알고 있는 최신 서버 버전
+    private int windowVersion;                       // 받아 둔 범위의 버전
+    private boolean requested;                       // 응답 대기 중인 요청이 있음
+
+    LargeDocumentViewport(CMClientApp core, JTextArea textArea, JScrollPane scroll, Consumer<String> display) {
+        this.core = core;
+        this.textArea = textArea;
+        this.scroll = scroll;
+        this.display = display;
+        lineBar.setVisible(false);
+        lineBar.addAdjustmentListener(e -> render());
+        scroll.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (isActive()) {
+                    lineBar.setVisibleAmount(rows());
+                    lineBar.setBlockIncrement(rows());
+                    render();
+                }
+            }
+        });
+    }
+
+    JScrollBar getLineBar() {
+        return lineBar;
+    }
+
+    boolean isActive() {
+        return docName != null;
+    }
+
+    /** 뷰포트 모드로 전환하고 첫 화면을 요청한다. */
+    void open(String name, int version, int lines) {
+        if (!isActive()) {
+            scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
+            textArea.addMouseWheelListener(wheel);
+            lineBar.setVisible(true);
+        }
+        docName = name;
+        totalLines = lines;
+        knownVersion = version;
+        window = List.of();
+        windowStart = 0;
+        requested = false;
+        lineBar.setValues(0, rows(), 0, Math.max(lines, rows()));
+        lineBar.setBlockIncrement(rows());
+        display.accept("");
+        render();
+    }
+
+    void close() {
+        if (!isActive()) return;
+        docName = null;
+        window = List.of();
+        requested = false;
+        textArea.removeMouseWheelListener(wheel);
+        lineBar.setVisible(false);
+        scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
+    }
+
+    /** DOC_RANGE 응답: [line, ...) 줄들을 받아 둔다. */
+    void onRange(String name, int version, int line, int lines, String text) {
+        if (!name.equals(docName)) return;
+        requested = false;
+        windowStart = line;
+        List<String> received = splitLines(text);
+        // 문서 끝까지 받았고 끝이 줄바꿈이면 그 뒤의 빈 마지막 줄도 포함
+        if (line + received.size() == lines - 1 && (text.isEmpty() || text.endsWith("\n"))) received.add("");
+        window = received;
+        windowVersion = version;
+        knownVersion = Math.max(knownVersion, version);
+        if (lines != totalLines) {
+            totalLines = lines;
+            lineBar.setMaximum(Math.max(lines, rows()));
+        }
+        render();
+    }
+
+    /** 다른 사용자의 편집이 반영됐다: 받아 둔 범위를 새 버전으로 다시 받는다. */
+    void invalidate(int version) {
+        if (!isActive() || version <= knownVersion) return;
+        knownVersion = version;
+        request();
+    }
+
+    /* 보이는 줄이 받아 둔 범위 안이면 그리고, 아니면(또는 오래된 버전이면) 주변을 요청 */
+    private void render() {
+        if (!isActive()) return;
+        int top = lineBar.getValue();
+        int rows = rows();
+        int end = Math.min(totalLines, top + rows);
+        boolean covered = top >= windowStart && end <= windowStart + window.size();
+        if (covered) {
+            display.accept(String.join("\n", window.subList(top - windowStart, end - windowStart)));
+        }
+        if (!covered || windowVersion < knownVersion) request();
+    }
+
+    private void request() {
+        if (requested) return;   // 응답이 오면 render() 가 다시 판단
+        int rows = rows();
+        int start = Math.max(0, lineBar.getValue() - rows * PREFETCH_SCREENS);
+        requested = true;
+        core.requestDocumentRange(docName, start, rows * (2 * PREFETCH_SCREENS + 1));
+    }
+
+    /* 화면에 들어가는 줄 수 */
+    private int rows() {
+        int lineHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+        int height = scroll.getViewport().getExtentSize().height;
+        return Math.max(1, lineHeight <= 0 ? 1 : height / lineHeight);
+    }
+
+    /* 각 줄 끝의 줄바꿈을 떼어 낸 줄 목록 (마지막 줄은 줄바꿈이 없을 수 있음) */
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', start)) {
+            lines.add(text.substring(start, i));
+            start = i + 1;
+        }
+        if (start < text.length()) lines.add(text.substring(start));
+        return lines;
+    }
+}
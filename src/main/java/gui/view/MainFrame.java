@@ -69,6 +69,8 @@ public class MainFrame {
                 if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
                     DocumentMeta sel = docList.getSelectedValue();
                     if (sel == null) return;
+                    editScreen.flushPendingEdits();                   // 이전 문서 편집 먼저 전송
+                    editScreen.rememberDocument();                    // 다시 열 때 전송 없이 쓰도록 캐시
                     clientApp.selectDocument(sel.getName());          // ★ Core API 호출
                     setSaveEnabled(true);
                 }
@@ -205,14 +207,12 @@ public class MainFrame {
     }
 
 
-    public void updateTextContent(String content) {
-        editScreen.updateTextContent(content);
-    }
-
     public void showWelcomeScreen() {
         setCurrentDocument("📄 Shared Text Editor");
         setCurrentDocumentUsers(List.of());
 
+        editScreen.closeLargeDocument();
+
         // 텍스트 영역에 기본 설명 넣기
         JTextArea textArea = editScreen.getTextArea();
         textArea.setEditable(false);  // 안내문일 때는 수정 비활성화
@@ -257,10 +257,39 @@ public class MainFrame {
     }
 
     public void setDocumentList(List<DocumentMeta> docs) {
-        SwingUtilities.invokeLater(() -> {
+        // EDT 에서 호출되면 바로 반영 (뒤이어 오는 목록 변경분보다 늦게 적용되지 않도록)
+        Runnable r = () -> {
             docListModel.clear();
             for (DocumentMeta doc : docs) docListModel.addElement(doc);
-        });
+        };
+        if (SwingUtilities.isEventDispatchThread()) r.run();
+        else SwingUtilities.invokeLater(r);
+    }
+
+    /** 목록 항목 하나를 추가하거나 교체한다 (이름순 위치 유지). EDT 에서 호출. */
+    public void upsertDocument(DocumentMeta doc) {
+        for (int i = 0; i < docListModel.getSize(); i++) {
+            int cmp = docListModel.get(i).getName().compareTo(doc.getName());
+            if (cmp == 0) {
+                docListModel.set(i, doc);
+                return;
+            }
+            if (cmp > 0) {
+                docListModel.add(i, doc);
+                return;
+            }
+        }
+        docListModel.addElement(doc);
+    }
+
+    /** 목록에서 문서를 뺀다. EDT 에서 호출. */
+    public void removeDocumentFromList(String docName) {
+        for (int i = 0; i < docListModel.getSize(); i++) {
+            if (docListModel.get(i).getName().equals(docName)) {
+                docListModel.remove(i);
+                return;
+            }
+        }
     }
 
     // ✅ 상단 문서 제목 갱신